@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.benchmarks;
+
+import com.kolich.boildown.Boiler;
+import com.kolich.boildown.Codec;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw throughput of each strategery's boiled output and input streams, with
+ * nothing but memory on either end.  Each operation compresses, or decompresses,
+ * 1 MiB of the given payload written in {@code bufferSize} blocks, so ops/s is
+ * MiB/s; the resulting compression ratio is printed at the end of each trial.
+ * Run with {@code -prof gc} for allocation rates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    private static final int PAYLOAD_SIZE = 1024 * 1024;
+
+    @Param({"ZLIB", "ZLIB_STREAM", "LZF", "SNAPPY", "ZSTD", "LZ4", "ADAPTIVE", "PARALLEL"})
+    public Boiler.Strategery strategery;
+
+    @Param({"TEXT", "JSON", "BINARY", "RANDOM"})
+    public Payload payload;
+
+    @Param({"4096", "65536"})
+    public int bufferSize;
+
+    private Codec codec_;
+
+    private byte[] data_;
+    private byte[] compressed_;
+    private byte[] buffer_;
+
+    private CountingOutputStream counter_;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        codec_ = new Codec.Builder(strategery)
+            .setBufferSize(bufferSize)
+            .build();
+        data_ = payload.generate(PAYLOAD_SIZE);
+        buffer_ = new byte[bufferSize];
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        boil(compressed);
+        compressed_ = compressed.toByteArray();
+        counter_ = new CountingOutputStream(new NullOutputStream());
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        System.out.printf("%nratio: %.3f (strategery=%s, payload=%s, bufferSize=%d)%n",
+            (double)compressed_.length / (double)data_.length, strategery, payload, bufferSize);
+        IOUtils.closeQuietly(codec_.getZLIBPool());
+    }
+
+    @Benchmark
+    public long compress() throws IOException {
+        final long before = counter_.getByteCount();
+        boil(counter_);
+        return counter_.getByteCount() - before;
+    }
+
+    @Benchmark
+    public long decompress() throws IOException {
+        long total = 0L;
+        try (final InputStream is = codec_.boil(new ByteArrayInputStream(compressed_))) {
+            int n;
+            while (-1 != (n = is.read(buffer_, 0, bufferSize))) {
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    private void boil(final OutputStream out) throws IOException {
+        try (final OutputStream os = codec_.boil(out)) {
+            for (int off = 0; off < data_.length; off += bufferSize) {
+                os.write(data_, off, Math.min(bufferSize, data_.length - off));
+                os.flush();
+            }
+        }
+    }
+
+}
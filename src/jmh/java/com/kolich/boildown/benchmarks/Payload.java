@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Representative, deterministic payloads for the benchmarks.
+ */
+public enum Payload {
+
+    /**
+     * Plain text, e.g., HTTP headers and HTML.
+     */
+    TEXT {
+        @Override
+        byte[] generate(final Random random, final int size) {
+            final String[] words = {"GET", "POST", "/index.html", "HTTP/1.1", "Host:", "example.com",
+                "Content-Type:", "text/html;", "charset=utf-8", "<div", "class=\"row\">", "</div>",
+                "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "\r\n"};
+            final StringBuilder sb = new StringBuilder(size);
+            while (sb.length() < size) {
+                sb.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), size);
+        }
+    },
+
+    /**
+     * A stream of small JSON records, e.g., API traffic.
+     */
+    JSON {
+        @Override
+        byte[] generate(final Random random, final int size) {
+            final StringBuilder sb = new StringBuilder(size);
+            while (sb.length() < size) {
+                sb.append("{\"id\":").append(random.nextInt(1000000))
+                    .append(",\"name\":\"user").append(random.nextInt(10000))
+                    .append("\",\"active\":").append(random.nextBoolean())
+                    .append(",\"score\":").append(random.nextDouble())
+                    .append(",\"tags\":[\"a\",\"b\",\"c\"]}\n");
+            }
+            return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), size);
+        }
+    },
+
+    /**
+     * Fixed-width binary records with small, skewed values, e.g., a binary protocol.
+     */
+    BINARY {
+        @Override
+        byte[] generate(final Random random, final int size) {
+            final byte[] b = new byte[size];
+            for (int i = 0; i + 16 <= size; i += 16) {
+                final int key = random.nextInt(256);
+                final long value = (long)Math.abs(random.nextGaussian() * 1000.0d);
+                b[i] = (byte)0xCA;
+                b[i + 1] = (byte)0xFE;
+                b[i + 2] = (byte)key;
+                for (int j = 0; j < 8; j++) {
+                    b[i + 8 + j] = (byte)(value >>> (8 * j));
+                }
+            }
+            return b;
+        }
+    },
+
+    /**
+     * Incompressible, e.g., TLS or SSH traffic, or already compressed data.
+     */
+    RANDOM {
+        @Override
+        byte[] generate(final Random random, final int size) {
+            final byte[] b = new byte[size];
+            random.nextBytes(b);
+            return b;
+        }
+    };
+
+    abstract byte[] generate(final Random random, final int size);
+
+    public final byte[] generate(final int size) {
+        return generate(new Random(size), size);
+    }
+
+}
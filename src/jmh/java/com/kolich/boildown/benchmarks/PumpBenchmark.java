@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.benchmarks;
+
+import com.kolich.boildown.Boiler;
+import com.kolich.boildown.Codec;
+import com.kolich.boildown.Compressor;
+import com.kolich.boildown.Decompressor;
+import com.kolich.boildown.FlushPolicy;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link Compressor} and {@link Decompressor} pump loops,
+ * over in-memory pipes rather than sockets, including their buffer leases and
+ * flush coalescing.  Each operation pumps 1 MiB of the given payload, so ops/s
+ * is MiB/s.  Run with {@code -prof gc} for allocation rates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PumpBenchmark {
+
+    private static final int PAYLOAD_SIZE = 1024 * 1024;
+
+    @Param({"ZLIB", "ZLIB_STREAM", "LZF", "SNAPPY", "ZSTD", "LZ4", "ADAPTIVE", "PARALLEL"})
+    public Boiler.Strategery strategery;
+
+    @Param({"TEXT", "RANDOM"})
+    public Payload payload;
+
+    /**
+     * Maximum bytes coalesced into a single block; 0 flushes after every read.
+     */
+    @Param({"0", "65536"})
+    public int flushBytes;
+
+    private Codec codec_;
+
+    private byte[] data_;
+    private byte[] compressed_;
+
+    private CountingOutputStream counter_;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        codec_ = new Codec.Builder(strategery)
+            .setFlushPolicy(new FlushPolicy(flushBytes, 2L, TimeUnit.MILLISECONDS))
+            .build();
+        data_ = payload.generate(PAYLOAD_SIZE);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        compressor(compressed).run();
+        compressed_ = compressed.toByteArray();
+        counter_ = new CountingOutputStream(new NullOutputStream());
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        IOUtils.closeQuietly(codec_.getZLIBPool());
+    }
+
+    @Benchmark
+    public long compress() throws Exception {
+        final long before = counter_.getByteCount();
+        compressor(counter_).run();
+        return counter_.getByteCount() - before;
+    }
+
+    @Benchmark
+    public long decompress() throws Exception {
+        final long before = counter_.getByteCount();
+        new Decompressor(codec_.boil(new ByteArrayInputStream(compressed_)), counter_,
+            codec_.getBufferSize(), codec_.getBufferPool()).run();
+        return counter_.getByteCount() - before;
+    }
+
+    private Compressor compressor(final OutputStream out) throws Exception {
+        return new Compressor(new ByteArrayInputStream(data_), codec_.boil(out), codec_.getBufferSize(),
+            codec_.getFlushPolicy(), codec_.getBufferPool());
+    }
+
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.benchmarks;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kolich.boildown.Balancer;
+import com.kolich.boildown.BlockingEngine;
+import com.kolich.boildown.Boiler;
+import com.kolich.boildown.Codec;
+import com.kolich.boildown.ConnectionPool;
+import com.kolich.boildown.Engine;
+import com.kolich.boildown.Reaper;
+import com.kolich.boildown.SocketOptions;
+import com.kolich.boildown.mux.MuxEngine;
+import com.kolich.boildown.nio.NioEngine;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full loopback tunnels: a compressing and a decompressing side, each on the
+ * given engine, forwarding to a local echo server.  {@link #transfer()} echoes
+ * 1 MiB of the given payload over a single long-lived session, so ops/s is
+ * MiB/s in each direction; {@link #session()} opens a new session, echoes 1 KiB
+ * over it, and closes it, so ops/s is sessions/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TunnelBenchmark {
+
+    private static final int TRANSFER_SIZE = 1024 * 1024;
+    private static final int SESSION_SIZE = 1024;
+
+    public enum EngineType {
+        BLOCKING, NIO, MUX
+    }
+
+    @Param({"ZLIB", "ZLIB_STREAM", "SNAPPY", "ZSTD", "LZ4"})
+    public Boiler.Strategery strategery;
+
+    @Param({"BLOCKING", "NIO", "MUX"})
+    public EngineType engine;
+
+    @Param({"TEXT", "RANDOM"})
+    public Payload payload;
+
+    private ExecutorService threads_;
+
+    private ServerSocket echo_;
+    private Side decompressor_;
+    private Side compressor_;
+
+    private byte[] data_;
+    private byte[] buffer_;
+
+    /**
+     * The long-lived session used by {@link #transfer()}.
+     */
+    private Socket session_;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        threads_ = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("tunnel-benchmark-%d")
+            .build());
+        echo_ = new ServerSocket(0);
+        threads_.execute(this::echo);
+        decompressor_ = new Side(Boiler.CompressionMethod.DECOMPRESS, echo_.getLocalPort());
+        compressor_ = new Side(Boiler.CompressionMethod.COMPRESS, decompressor_.getPort());
+        data_ = payload.generate(TRANSFER_SIZE);
+        buffer_ = new byte[65536];
+        session_ = new Socket("localhost", compressor_.getPort());
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        IOUtils.closeQuietly(session_);
+        IOUtils.closeQuietly(compressor_);
+        IOUtils.closeQuietly(decompressor_);
+        IOUtils.closeQuietly(echo_);
+        threads_.shutdownNow();
+    }
+
+    @Benchmark
+    public long transfer() throws Exception {
+        return echo(session_, TRANSFER_SIZE);
+    }
+
+    @Benchmark
+    public long session() throws Exception {
+        try (final Socket socket = new Socket("localhost", compressor_.getPort())) {
+            return echo(socket, SESSION_SIZE);
+        }
+    }
+
+    private long echo(final Socket socket,
+                      final int size) throws Exception {
+        final OutputStream out = socket.getOutputStream();
+        final Future<?> writer = threads_.submit(() -> {
+            out.write(data_, 0, size);
+            out.flush();
+            return null;
+        });
+        final InputStream in = socket.getInputStream();
+        long total = 0L;
+        int n;
+        while (total < size && -1 != (n = in.read(buffer_))) {
+            total += n;
+        }
+        writer.get();
+        if (total < size) {
+            throw new IOException("Tunnel closed after " + total + " of " + size + " bytes.");
+        }
+        return total;
+    }
+
+    private void echo() {
+        try {
+            while (true) {
+                final Socket socket = echo_.accept();
+                threads_.execute(() -> {
+                    try (final Socket s = socket) {
+                        IOUtils.copy(s.getInputStream(), s.getOutputStream());
+                        s.shutdownOutput();
+                    } catch (IOException e) {
+                        // Session torn down.
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // Echo server closed.
+        }
+    }
+
+    /**
+     * One side of the tunnel, listening on an ephemeral port.
+     */
+    private final class Side implements Closeable {
+
+        private final Codec codec_;
+        private final Engine engine_;
+        private final ServerSocket listener_;
+
+        private Side(final Boiler.CompressionMethod method,
+                     final int forwardPort) throws IOException {
+            codec_ = new Codec.Builder(strategery).build();
+            final Balancer forward = new Balancer.Builder()
+                .addTarget(new ConnectionPool.Builder("localhost", forwardPort).build(), 1)
+                .build();
+            final ThreadFactory factory = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("tunnel-benchmark-" + method + "-%d")
+                .build();
+            switch (engine) {
+                case NIO:
+                    engine_ = new NioEngine(1, factory, method, codec_, forward, SocketOptions.DEFAULT);
+                    break;
+                case MUX:
+                    engine_ = new MuxEngine(Executors.newCachedThreadPool(factory), factory, method, codec_,
+                        forward, SocketOptions.DEFAULT, 1, Integer.MAX_VALUE);
+                    break;
+                default:
+                    engine_ = new BlockingEngine(Executors.newCachedThreadPool(factory), factory, method,
+                        codec_, forward, SocketOptions.DEFAULT, Reaper.NONE);
+                    break;
+            }
+            listener_ = engine_.listen(0);
+            threads_.execute(() -> {
+                try {
+                    while (true) {
+                        engine_.boil(listener_.accept(), () -> {});
+                    }
+                } catch (IOException e) {
+                    // Listener closed.
+                }
+            });
+        }
+
+        private int getPort() {
+            return listener_.getLocalPort();
+        }
+
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(listener_);
+            IOUtils.closeQuietly(engine_);
+            IOUtils.closeQuietly(codec_.getZLIBPool());
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.benchmarks;
+
+import com.kolich.boildown.Codec;
+import com.kolich.boildown.strategeries.BoiledZLIBOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU vs. ratio tradeoff of each ZLIB compression level and strategy.  Each
+ * operation compresses 1 MiB of the given payload in {@code blockSize} blocks,
+ * so ops/s is MiB/s; the resulting compression ratio is printed at the end of
+ * each trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ZLIBLevelBenchmark {
+
+    private static final int PAYLOAD_SIZE = 1024 * 1024;
+
+    @Param({"1", "3", "6", "9"})
+    public int level;
+
+    @Param({"DEFAULT", "FILTERED", "HUFFMAN_ONLY"})
+    public Codec.ZLIBStrategy strategy;
+
+    @Param({"TEXT", "JSON", "BINARY", "RANDOM"})
+    public Payload payload;
+
+    @Param({"4096", "65536"})
+    public int blockSize;
+
+    private byte[] data_;
+
+    private CountingOutputStream counter_;
+
+    /**
+     * Compressed size of the payload, as of the most recent operation.
+     */
+    private long compressed_ = 0L;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        data_ = payload.generate(PAYLOAD_SIZE);
+        counter_ = new CountingOutputStream(new NullOutputStream());
+    }
+
+    @TearDown(Level.Trial)
+    public void ratio() {
+        System.out.printf("%nratio: %.3f (level=%d, strategy=%s, payload=%s, blockSize=%d)%n",
+            (double)compressed_ / (double)data_.length,
+            level, strategy, payload, blockSize);
+    }
+
+    @Benchmark
+    public long compress() throws IOException {
+        final long before = counter_.getByteCount();
+        final OutputStream os = BoiledZLIBOutputStream.getInstance(counter_, blockSize, level,
+            strategy.getStrategy());
+        for (int off = 0; off < data_.length; off += blockSize) {
+            os.write(data_, off, Math.min(blockSize, data_.length - off));
+            os.flush();
+        }
+        compressed_ = counter_.getByteCount() - before;
+        return compressed_;
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Addresses of forward hosts, resolved once and reused until their TTL runs
+ * out, so name resolution stays off the path of every new session.  The JVM
+ * keeps a cache of its own, but for a fixed time (30 seconds, by default) set
+ * per process by a security property; this one's TTL is per cache, and a
+ * connect that fails drops the host's address, so it's looked up again
+ * right away.
+ *
+ * Thread safe, and shared by every forwarder.
+ */
+public final class AddressCache {
+
+    /**
+     * Resolves every time.
+     */
+    public static final AddressCache NONE = new AddressCache(0L, TimeUnit.SECONDS);
+
+    public static final long DEFAULT_TTL_SECONDS = 60L;
+
+    private static final class Entry {
+
+        private final InetAddress address_;
+        private final long expiresAt_;
+
+        private Entry(final InetAddress address,
+                      final long expiresAt) {
+            address_ = address;
+            expiresAt_ = expiresAt;
+        }
+
+    }
+
+    private final long ttlNanos_;
+
+    private final ConcurrentMap<String, Entry> addresses_ = new ConcurrentHashMap<>();
+
+    public AddressCache(final long ttl,
+                        final TimeUnit unit) {
+        checkArgument(ttl >= 0L, "TTL cannot be negative.");
+        ttlNanos_ = unit.toNanos(ttl);
+    }
+
+    /**
+     * Returns the address of the given host, and port; resolved, unless cached.
+     */
+    @ParametersAreNonnullByDefault
+    public final InetSocketAddress resolve(final String host,
+                                           final int port) throws UnknownHostException {
+        checkNotNull(host, "Host cannot be null.");
+        if (ttlNanos_ == 0L) {
+            return new InetSocketAddress(InetAddress.getByName(host), port);
+        }
+        final long now = System.nanoTime();
+        final Entry cached = addresses_.get(host);
+        if (cached != null && now - cached.expiresAt_ < 0L) {
+            return new InetSocketAddress(cached.address_, port);
+        }
+        // Racing lookups of the same host are harmless; the last one wins.
+        final InetAddress address = InetAddress.getByName(host);
+        addresses_.put(host, new Entry(address, now + ttlNanos_));
+        return new InetSocketAddress(address, port);
+    }
+
+    /**
+     * Drops the cached address of the given host, if any.
+     */
+    @ParametersAreNonnullByDefault
+    public final void invalidate(final String host) {
+        addresses_.remove(checkNotNull(host, "Host cannot be null."));
+    }
+
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.Closeable;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Admission control in front of an {@link Engine}.  At most {@code maxSessions}
+ * sessions run concurrently; clients that arrive while every slot is taken wait
+ * in a bounded, first-come first-served backlog for up to {@code waitTimeout}
+ * before being hung up on.  Clients that arrive to a full backlog are hung up
+ * on immediately.
+ */
+public final class Admission implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(Admission.class);
+
+    private final Engine engine_;
+
+    private final int maxSessions_;
+    private final Semaphore sessions_;
+
+    private final BlockingQueue<Waiting> backlog_;
+
+    private final long waitTimeoutNanos_;
+
+    private final Thread dispatcher_;
+
+    private final AtomicLong admitted_ = new AtomicLong();
+    private final AtomicLong queued_ = new AtomicLong();
+    private final AtomicLong rejected_ = new AtomicLong();
+
+    @ParametersAreNonnullByDefault
+    public Admission(final Engine engine,
+                     final int maxSessions,
+                     final int backlog,
+                     final long waitTimeout,
+                     final TimeUnit unit,
+                     final ThreadFactory threadFactory) {
+        checkArgument(maxSessions > 0, "Max sessions must be greater than zero.");
+        checkArgument(backlog >= 0, "Backlog cannot be negative.");
+        engine_ = checkNotNull(engine, "Engine cannot be null.");
+        maxSessions_ = maxSessions;
+        // Fair, so clients are admitted in the order they arrived.
+        sessions_ = new Semaphore(maxSessions, true);
+        backlog_ = new ArrayBlockingQueue<>(Math.max(backlog, 1));
+        waitTimeoutNanos_ = (backlog > 0) ? unit.toNanos(waitTimeout) : 0L;
+        dispatcher_ = threadFactory.newThread(this::dispatch);
+        dispatcher_.start();
+    }
+
+    /**
+     * Admits, queues, or rejects the given client.  Never blocks.
+     */
+    public final void admit(final Socket client) throws InterruptedException {
+        // A zero-timeout tryAcquire honors fairness, unlike the untimed version; so
+        // new arrivals can't jump ahead of clients already waiting in the backlog.
+        if (backlog_.isEmpty() && sessions_.tryAcquire(0L, TimeUnit.NANOSECONDS)) {
+            start(client);
+        } else if (waitTimeoutNanos_ > 0L && backlog_.offer(new Waiting(client))) {
+            queued_.incrementAndGet();
+        } else {
+            reject(client);
+        }
+    }
+
+    private void dispatch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final Waiting waiting = backlog_.take();
+                final long remaining = waiting.deadline_ - System.nanoTime();
+                if (sessions_.tryAcquire(Math.max(remaining, 0L), TimeUnit.NANOSECONDS)) {
+                    start(waiting.client_);
+                } else {
+                    reject(waiting.client_);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void start(final Socket client) {
+        admitted_.incrementAndGet();
+        final AtomicBoolean released = new AtomicBoolean(false);
+        final Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                sessions_.release();
+            }
+        };
+        try {
+            engine_.boil(client, release);
+        } catch (Exception e) {
+            log.error("Failed to start session.", e);
+            IOUtils.closeQuietly(client);
+            release.run();
+        }
+    }
+
+    private void reject(final Socket client) {
+        rejected_.incrementAndGet();
+        log.debug("All boilers busy, hanging up on client: {}", client.getRemoteSocketAddress());
+        IOUtils.closeQuietly(client);
+    }
+
+    public final long getAdmitted() {
+        return admitted_.get();
+    }
+
+    public final long getQueued() {
+        return queued_.get();
+    }
+
+    public final long getRejected() {
+        return rejected_.get();
+    }
+
+    public final int getActive() {
+        return maxSessions_ - sessions_.availablePermits();
+    }
+
+    public final int getWaiting() {
+        return backlog_.size();
+    }
+
+    @Override
+    public final void close() {
+        dispatcher_.interrupt();
+        Waiting waiting;
+        while ((waiting = backlog_.poll()) != null) {
+            IOUtils.closeQuietly(waiting.client_);
+        }
+    }
+
+    private final class Waiting {
+
+        private final Socket client_;
+        private final long deadline_;
+
+        private Waiting(final Socket client) {
+            client_ = client;
+            deadline_ = System.nanoTime() + waitTimeoutNanos_;
+        }
+
+    }
+
+}
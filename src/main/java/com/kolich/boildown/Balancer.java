@@ -0,0 +1,399 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Spreads a forwarder's sessions over one or more targets, e.g., replicas
+ * of a backend, each with a {@link ConnectionPool} of its own.  Each session
+ * goes to the target with the fewest active sessions for its weight, or to
+ * the next by weighted round-robin.  A target that can't be connected to is
+ * marked down, and the session fails over to the next target right away;
+ * with more than one target, every target is also probed now and then, so
+ * one that's down is skipped until it comes back up.  Unless every target
+ * is down, in which case they're all tried anyway.
+ */
+public final class Balancer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(Balancer.class);
+
+    public enum Policy {
+        /**
+         * To the target with the fewest active sessions, for its weight.
+         */
+        LEAST_SESSIONS,
+        /**
+         * To each target in turn, as many times as its weight.
+         */
+        ROUND_ROBIN
+    }
+
+    public static final long DEFAULT_HEALTH_INTERVAL_MS = 5000L;
+
+    public static final class Target {
+
+        private final ConnectionPool pool_;
+        private final int weight_;
+
+        private final AtomicInteger active_ = new AtomicInteger();
+        private volatile boolean healthy_ = true;
+
+        /**
+         * Smooth weighted round-robin state; guarded by the balancer.
+         */
+        private int currentWeight_ = 0;
+
+        private Target(final ConnectionPool pool,
+                       final int weight) {
+            pool_ = pool;
+            weight_ = weight;
+        }
+
+        public final String getName() {
+            return pool_.getHost() + ":" + pool_.getPort();
+        }
+
+        public final ConnectionPool getPool() {
+            return pool_;
+        }
+
+        public final int getWeight() {
+            return weight_;
+        }
+
+        /**
+         * Number of sessions forwarded to this target, right now.
+         */
+        public final int getActive() {
+            return active_.get();
+        }
+
+        public final boolean isHealthy() {
+            return healthy_;
+        }
+
+        public final InetSocketAddress resolve() throws IOException {
+            return pool_.resolve();
+        }
+
+        private void setHealthy(final boolean healthy,
+                                @Nullable final Exception cause) {
+            if (healthy_ != healthy) {
+                healthy_ = healthy;
+                if (healthy) {
+                    log.info("Forward target {} is back up.", getName());
+                } else {
+                    log.warn("Forward target {} is down.", getName(), cause);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * A session's hold on a target, and its connection to it, if any; closing
+     * it closes the connection, and ends the session as far as balancing goes.
+     */
+    public static final class Lease implements Closeable {
+
+        private final Target target_;
+
+        @Nullable
+        private final Socket socket_;
+
+        private final AtomicBoolean closed_ = new AtomicBoolean(false);
+
+        private Lease(final Target target,
+                      @Nullable final Socket socket) {
+            target_ = target;
+            socket_ = socket;
+        }
+
+        public final Target getTarget() {
+            return target_;
+        }
+
+        /**
+         * The connection to the target; unless {@link #select()}ed, which
+         * leaves connecting to the caller.
+         */
+        public final Socket getSocket() {
+            checkState(socket_ != null, "Lease has no connection.");
+            return socket_;
+        }
+
+        @Override
+        public final void close() {
+            if (closed_.compareAndSet(false, true)) {
+                target_.active_.decrementAndGet();
+                IOUtils.closeQuietly(socket_);
+            }
+        }
+
+    }
+
+    private final List<Target> targets_;
+
+    private final Policy policy_;
+
+    /**
+     * Where {@link Policy#LEAST_SESSIONS} starts looking, so ties are spread
+     * around; guarded by this.
+     */
+    private int next_ = 0;
+
+    /**
+     * Null unless there's more than one target to choose from.
+     */
+    @Nullable
+    private final Thread prober_;
+    private final long healthIntervalMs_;
+
+    private volatile boolean closed_ = false;
+
+    private Balancer(final Builder builder) {
+        targets_ = Collections.unmodifiableList(new ArrayList<>(builder.targets_));
+        policy_ = builder.policy_;
+        healthIntervalMs_ = builder.healthIntervalMs_;
+        if (targets_.size() > 1) {
+            prober_ = builder.threadFactory_.newThread(this::probe);
+            prober_.start();
+        } else {
+            prober_ = null;
+        }
+    }
+
+    public final List<Target> getTargets() {
+        return targets_;
+    }
+
+    public final Policy getPolicy() {
+        return policy_;
+    }
+
+    /**
+     * Every target's name, comma separated, for logging.
+     */
+    public final String getName() {
+        final StringBuilder name = new StringBuilder();
+        for (final Target target : targets_) {
+            name.append((name.length() == 0) ? "" : ",").append(target.getName());
+        }
+        return name.toString();
+    }
+
+    /**
+     * Connects a new session to a target, failing over to the next if one
+     * can't be connected to.  Fails only once every target has.
+     */
+    public final Lease lease() throws IOException {
+        final Set<Target> tried = new HashSet<>();
+        IOException failure = null;
+        Target target;
+        while ((target = pick(tried)) != null) {
+            try {
+                return new Lease(target, target.pool_.lease());
+            } catch (IOException e) {
+                target.active_.decrementAndGet();
+                if (targets_.size() > 1) {
+                    target.setHealthy(false, e);
+                }
+                tried.add(target);
+                failure = e;
+            }
+        }
+        throw checkNotNull(failure);
+    }
+
+    /**
+     * Picks a target for a new session, but leaves connecting to it to the
+     * caller, as for a non-blocking connect.
+     */
+    public final Lease select() {
+        return new Lease(checkNotNull(pick(Collections.<Target>emptySet())), null);
+    }
+
+    /**
+     * Picks the best target not already tried, preferring those that are up,
+     * and counts the session against it; null if every target's been tried.
+     */
+    @Nullable
+    private synchronized Target pick(final Set<Target> tried) {
+        final List<Target> candidates = new ArrayList<>(targets_.size());
+        for (final Target target : targets_) {
+            if (target.healthy_ && !tried.contains(target)) {
+                candidates.add(target);
+            }
+        }
+        if (candidates.isEmpty()) {
+            for (final Target target : targets_) {
+                if (!tried.contains(target)) {
+                    candidates.add(target);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        Target picked = null;
+        if (Policy.ROUND_ROBIN.equals(policy_)) {
+            // Smooth weighted round-robin, as in nginx: interleaves targets
+            // rather than sending a run of sessions to the heaviest.
+            int total = 0;
+            for (final Target target : candidates) {
+                target.currentWeight_ += target.weight_;
+                total += target.weight_;
+                if (picked == null || target.currentWeight_ > picked.currentWeight_) {
+                    picked = target;
+                }
+            }
+            picked.currentWeight_ -= total;
+        } else {
+            final int start = next_++ & Integer.MAX_VALUE;
+            for (int i = 0; i < candidates.size(); i++) {
+                final Target target = candidates.get((start + i) % candidates.size());
+                // Fewest of (active + 1) / weight, without dividing.
+                if (picked == null || (long)(target.active_.get() + 1) * picked.weight_ <
+                        (long)(picked.active_.get() + 1) * target.weight_) {
+                    picked = target;
+                }
+            }
+        }
+        picked.active_.incrementAndGet();
+        return picked;
+    }
+
+    private void probe() {
+        while (!closed_) {
+            for (final Target target : targets_) {
+                if (closed_) {
+                    return;
+                }
+                try {
+                    target.pool_.probe();
+                    target.setHealthy(true, null);
+                } catch (IOException e) {
+                    target.setHealthy(false, e);
+                }
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(healthIntervalMs_);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops probing, and closes every target's pool.
+     */
+    @Override
+    public final void close() {
+        closed_ = true;
+        if (prober_ != null) {
+            prober_.interrupt();
+        }
+        for (final Target target : targets_) {
+            target.pool_.close();
+        }
+    }
+
+    public static final class Builder {
+
+        private final List<Target> targets_ = new ArrayList<>();
+
+        private Policy policy_ = Policy.LEAST_SESSIONS;
+
+        private long healthIntervalMs_ = DEFAULT_HEALTH_INTERVAL_MS;
+
+        private ThreadFactory threadFactory_ = null;
+
+        @ParametersAreNonnullByDefault
+        public final Builder addTarget(final ConnectionPool pool,
+                                       final int weight) {
+            checkNotNull(pool, "Connection pool cannot be null.");
+            checkArgument(weight > 0, "Weight must be greater than zero.");
+            targets_.add(new Target(pool, weight));
+            return this;
+        }
+
+        @ParametersAreNonnullByDefault
+        public final Builder setPolicy(final Policy policy) {
+            policy_ = checkNotNull(policy, "Policy cannot be null.");
+            return this;
+        }
+
+        public final Builder setHealthInterval(final long healthInterval,
+                                               final TimeUnit unit) {
+            checkArgument(healthInterval > 0L, "Health interval must be greater than zero.");
+            healthIntervalMs_ = unit.toMillis(healthInterval);
+            return this;
+        }
+
+        /**
+         * Sets the factory of the prober thread, which must be a daemon; only
+         * needed with more than one target.
+         */
+        @ParametersAreNonnullByDefault
+        public final Builder setThreadFactory(final ThreadFactory threadFactory) {
+            threadFactory_ = checkNotNull(threadFactory, "Thread factory cannot be null.");
+            return this;
+        }
+
+        public final Balancer build() {
+            checkArgument(!targets_.isEmpty(), "Must have at least one target.");
+            checkArgument(targets_.size() == 1 || threadFactory_ != null,
+                "Thread factory cannot be null with more than one target.");
+            return new Balancer(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The original thread-per-direction engine: every session runs a {@link Boiler}
+ * on a session thread, which in turn starts a {@link Compressor} and a
+ * {@link Decompressor} on pump threads.  A fixed session pool must be at least
+ * as large as the number of sessions {@link Admission} lets in, or admitted
+ * sessions will sit idle in the pool's queue.  Each direction half-closes its
+ * destination when its source ends, and a {@link Reaper} tears down sessions
+ * that stall.
+ */
+public final class BlockingEngine implements Engine {
+
+    private final ExecutorService sessions_;
+
+    private final ThreadFactory pumps_;
+
+    private final Boiler.CompressionMethod method_;
+
+    private final Codec codec_;
+
+    private final Balancer forward_;
+
+    private final SocketOptions options_;
+
+    private final Reaper reaper_;
+
+    @ParametersAreNonnullByDefault
+    public BlockingEngine(final ExecutorService sessions,
+                          final ThreadFactory pumps,
+                          final Boiler.CompressionMethod method,
+                          final Codec codec,
+                          final Balancer forward,
+                          final SocketOptions options,
+                          final Reaper reaper) {
+        sessions_ = checkNotNull(sessions, "Session executor cannot be null.");
+        pumps_ = checkNotNull(pumps, "Pump thread factory cannot be null.");
+        method_ = checkNotNull(method, "Compression method cannot be null.");
+        codec_ = checkNotNull(codec, "Codec cannot be null.");
+        forward_ = checkNotNull(forward, "Forward balancer cannot be null.");
+        options_ = checkNotNull(options, "Socket options cannot be null.");
+        reaper_ = checkNotNull(reaper, "Reaper cannot be null.");
+    }
+
+    @Override
+    public final ServerSocket listen(final int port) throws IOException {
+        return options_.listen(port);
+    }
+
+    @Override
+    public final void boil(final Socket client,
+                           final Runnable onClose) throws IOException {
+        options_.configure(client);
+        final Boiler boiler = new Boiler(client, method_, codec_, forward_, pumps_, reaper_);
+        sessions_.execute(() -> {
+            try {
+                boiler.run();
+            } finally {
+                onClose.run();
+            }
+        });
+    }
+
+    @Override
+    public final void close() throws IOException {
+        sessions_.shutdown();
+        reaper_.close();
+        forward_.close();
+    }
+
+}
@@ -26,8 +26,26 @@
 
 package com.kolich.boildown;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kolich.boildown.dict.DictionaryTrainer;
+import com.kolich.boildown.dict.PresetDictionary;
+import com.kolich.boildown.load.LoadGenerator;
+import com.kolich.boildown.load.Recorder;
+import com.kolich.boildown.metrics.Metrics;
+import com.kolich.boildown.metrics.MetricsMBean;
+import com.kolich.boildown.metrics.MetricsServer;
+import com.kolich.boildown.mux.MuxEngine;
+import com.kolich.boildown.nio.EventLoopGroup;
+import com.kolich.boildown.nio.NioEngine;
+import com.kolich.boildown.pool.BufferPool;
+import com.kolich.boildown.pool.ZLIBPool;
+import com.kolich.boildown.shaping.Shaper;
+import com.kolich.boildown.shaping.TokenBucket;
+import com.kolich.boildown.strategeries.BlockCodec;
+import com.kolich.boildown.strategeries.BoiledLZ4BlockOutputStream;
 import org.apache.commons.io.IOUtils;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
@@ -36,42 +54,292 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public final class Boil {
 
     private static final Logger log = LoggerFactory.getLogger(Boil.class);
 
-    private static final Splitter colonSplitter = Splitter.on(":").omitEmptyStrings().limit(3);
+    private static final Splitter colonSplitter = Splitter.on(":").omitEmptyStrings().limit(2);
+    private static final Splitter commaSplitter = Splitter.on(",").trimResults().omitEmptyStrings();
+    private static final Splitter slashSplitter = Splitter.on("/").limit(2);
+    private static final Splitter whitespaceSplitter = Splitter.onPattern("\\s+").omitEmptyStrings();
 
-    @Option(name="--compress", usage="Listen on port X and forward compressed traffic to Y:Z [X]:[Y]:[Z]")
-    private String compress_ = null;
+    @Option(name="--compress", usage="Listen on port X and forward compressed traffic to Y:Z [X]:[Y]:[Z]. " +
+        "Give several comma separated targets, each with an optional /weight, to balance sessions across " +
+        "them, e.g., 10022:a:10022/2,b:10022. May be repeated.")
+    private List<String> compress_ = new ArrayList<>();
 
-    @Option(name="--decompress", usage="Listen on port X and forward decompressed traffic to Y:Z [X]:[Y]:[Z]")
-    private String decompress_ = null;
+    @Option(name="--decompress", usage="Listen on port X and forward decompressed traffic to Y:Z [X]:[Y]:[Z]. " +
+        "Give several comma separated targets, each with an optional /weight, to balance sessions across " +
+        "them, e.g., 22:a:22,b:22. May be repeated.")
+    private List<String> decompress_ = new ArrayList<>();
+
+    @Option(name="--config", usage="Run a forwarder for each line of this file, given as the arguments " +
+        "for that forwarder, e.g., --compress 10022:remote:10022 --zlib. Arguments on the command line " +
+        "are the defaults for every line.")
+    private File config_ = null;
+
+    @Option(name="--pipe", usage="Instead of forwarding, COMPRESS or DECOMPRESS --input to --output, " +
+        "in the same format as over the wire, with the given codec.")
+    private Boiler.CompressionMethod pipe_ = null;
+
+    @Option(name="--input", usage="File to read, with --pipe. Defaults to stdin.")
+    private File input_ = null;
+
+    @Option(name="--output", usage="File to write, with --pipe. Defaults to stdout.")
+    private File output_ = null;
 
     @Option(name="--bufferSize", usage="Internal read/write buffer size, in bytes, used for compression " +
         "and decompression. Defaults to 4K.")
     private Integer bufferSize_ = 4096;
 
+    @Option(name="--bufferPoolSize", usage="Maximum number of bytes of idle buffers to keep pooled, " +
+        "shared by every session, for reuse by new sessions. Use 0 to disable pooling.")
+    private Long bufferPoolSize_ = BufferPool.DEFAULT_MAX_POOLED_BYTES;
+
+    @Option(name="--flushBytes", usage="While more input is already waiting, coalesce reads into a " +
+        "single compressed block until at least this many bytes are pending. Use 0 to flush after every read.")
+    private Integer flushBytes_ = 65536;
+
+    @Option(name="--flushDelay", usage="While more input is already waiting, coalesce reads into a " +
+        "single compressed block for at most this many milliseconds. Input that goes idle is always " +
+        "flushed right away.")
+    private Long flushDelay_ = 2L;
+
     @Option(name="--poolSize", usage="Maximum number of boilers (worker threads) to allow. Defaults to # " +
         "of available cores.")
     private Integer poolSize_ = Runtime.getRuntime().availableProcessors();
 
+    @Option(name="--maxSessions", usage="Maximum number of concurrent sessions. Defaults to --poolSize.")
+    private Integer maxSessions_ = null;
+
+    @Option(name="--backlog", usage="Maximum number of clients to hold, waiting for a free session, " +
+        "before hanging up on new ones. Use 0 to hang up immediately when all sessions are busy.")
+    private Integer backlog_ = 50;
+
+    @Option(name="--backlogTimeout", usage="Maximum time, in milliseconds, a client waits in the backlog " +
+        "for a free session before being hung up on.")
+    private Long backlogTimeout_ = 1000L;
+
+    @Option(name="--idleTimeout", usage="Tear down a session once neither direction has read anything " +
+        "for this many milliseconds, to reclaim its slot and threads. Use 0 to never do so.")
+    private Long idleTimeout_ = 0L;
+
+    @Option(name="--halfCloseTimeout", usage="Once one direction of a session has ended, tear the " +
+        "session down if the other direction reads nothing for this many milliseconds. Use 0 to wait " +
+        "for it indefinitely. Defaults to 60 seconds.")
+    private Long halfCloseTimeout_ = null;
+
+    @Option(name="--acceptors", usage="Number of threads that accept clients, each on a listener of its " +
+        "own bound to the same port with SO_REUSEPORT, to scale accepting new connections. Requires JDK 9 " +
+        "or newer, and an OS that supports SO_REUSEPORT, like Linux.")
+    private Integer acceptors_ = 1;
+
+    @Option(name="--forwardMinIdle", usage="Number of connections to the forward host to keep open ahead " +
+        "of time, so new sessions can start forwarding at once instead of after a round trip or two.")
+    private Integer forwardMinIdle_ = 0;
+
+    @Option(name="--forwardMaxIdle", usage="Most connections to the forward host to keep open ahead of " +
+        "time, while sessions start faster than --forwardMinIdle a second. Defaults to twice " +
+        "--forwardMinIdle.")
+    private Integer forwardMaxIdle_ = null;
+
+    @Option(name="--forwardMaxIdleTime", usage="Maximum time, in milliseconds, to keep a connection open " +
+        "ahead of time before replacing it; keep it under any idle timeout of the forward host.")
+    private Long forwardMaxIdleTime_ = ConnectionPool.DEFAULT_MAX_IDLE_TIME_MS;
+
+    @Option(name="--dnsTtl", usage="Time, in seconds, to reuse the resolved address of every forward host, " +
+        "or 0 to resolve it for every connection.")
+    private Long dnsTtl_ = AddressCache.DEFAULT_TTL_SECONDS;
+
+    @Option(name="--balance", usage="How to spread sessions across several forward targets: " +
+        "LEAST_SESSIONS picks the target with the fewest active sessions for its weight, ROUND_ROBIN " +
+        "takes turns in proportion to weight.")
+    private Balancer.Policy balance_ = Balancer.Policy.LEAST_SESSIONS;
+
+    @Option(name="--healthInterval", usage="Time, in milliseconds, between checks that each of several " +
+        "forward targets still accepts connections. Targets that don't are skipped until they do.")
+    private Long healthInterval_ = Balancer.DEFAULT_HEALTH_INTERVAL_MS;
+
+    @Option(name="--connectTimeout", usage="Maximum time, in milliseconds, to wait for a forward target " +
+        "to accept a connection before trying the next one. Use 0 to wait as long as the OS does.")
+    private Integer connectTimeout_ = 10000;
+
+    @Option(name="--nagle", usage="Leave Nagle's algorithm enabled (TCP_NODELAY off) on every socket, " +
+        "which can delay small blocks.")
+    private Boolean nagle_ = false;
+
+    @Option(name="--keepAlive", usage="Enable TCP keep-alive (SO_KEEPALIVE) on every socket.")
+    private Boolean keepAlive_ = false;
+
+    @Option(name="--socketReceiveBuffer", usage="Size, in bytes, of the kernel receive buffer (SO_RCVBUF) of " +
+        "every socket; raise it for fast links with a long round trip. Use 0 for the OS default.")
+    private Integer socketReceiveBuffer_ = 0;
+
+    @Option(name="--socketSendBuffer", usage="Size, in bytes, of the kernel send buffer (SO_SNDBUF) of " +
+        "every socket. Use 0 for the OS default.")
+    private Integer socketSendBuffer_ = 0;
+
+    @Option(name="--nio", usage="Use the event-driven NIO engine instead of running each session on " +
+        "its own worker threads.")
+    private Boolean nio_ = false;
+
+    @Option(name="--eventLoops", usage="Number of event loop (selector) threads used by the NIO engine. " +
+        "Defaults to # of available cores.")
+    private Integer eventLoops_ = Runtime.getRuntime().availableProcessors();
+
+    @Option(name="--virtualThreads", usage="Run sessions and their compressor/decompressor pumps on " +
+        "virtual threads, with no --poolSize ceiling on concurrent sessions. Requires JDK 21 or newer.")
+    private Boolean virtualThreads_ = false;
+
+    @Option(name="--mux", usage="Multiplex every session over a few long-lived compressed links, instead " +
+        "of a compressed connection per session. Both sides must specify --mux.")
+    private Boolean mux_ = false;
+
+    @Option(name="--muxLinks", usage="Number of links the compressing side opens, and spreads sessions " +
+        "across, with --mux.")
+    private Integer muxLinks_ = 2;
+
+    @Option(name="--dedup", usage="Split traffic into content-defined chunks, and send chunks the other " +
+        "side has already seen as short references instead. With --mux, every session on a link shares " +
+        "the link's cache. Both sides must specify --dedup.")
+    private Boolean dedup_ = false;
+
+    @Option(name="--dedupCacheSize", usage="Size, in bytes, of the chunk cache kept by each side of each " +
+        "deduplicated stream, or each --mux link. The decompressing side refuses a compressing side " +
+        "whose cache is larger than its own.")
+    private Long dedupCacheSize_ = Codec.DEFAULT_DEDUP_CACHE_SIZE;
+
+    @Option(name="--rateLimit", usage="Limit what every session of every forwarder sends over the link, " +
+        "together, to this many bytes per second, or 0 for unlimited. Interactive sessions go ahead of " +
+        "bulk ones.")
+    private Long rateLimit_ = 0L;
+
+    @Option(name="--sessionRateLimit", usage="Limit what each session sends over the link to this many " +
+        "bytes per second, or 0 for unlimited.")
+    private Long sessionRateLimit_ = 0L;
+
+    @Option(name="--priority", usage="Whether sessions are interactive, and go ahead of bulk sessions " +
+        "under --rateLimit, or bulk; AUTO for interactive until a session sends more than " +
+        "--interactiveRate.")
+    private Shaper.Priority priority_ = Shaper.Priority.AUTO;
+
+    @Option(name="--interactiveRate", usage="Bytes per second under which a session is interactive, with " +
+        "--priority AUTO.")
+    private Long interactiveRate_ = Shaper.DEFAULT_INTERACTIVE_RATE;
+
+    @Option(name="--metricsPort", usage="Serve metrics as plain text at http://localhost:[port]/metrics. " +
+        "Metrics are always available over JMX.")
+    private Integer metricsPort_ = null;
+
     @Option(name="--zlib", usage="Use ZLIB compression.")
     private Boolean zlib_ = false;
 
+    @Option(name="--zlibStream", usage="Use ZLIB compression, with a single deflate stream per connection " +
+        "so each block is compressed using the history of every block before it.")
+    private Boolean zlibStream_ = false;
+
+    @Option(name="--zlibLevel", usage="ZLIB compression level, from 1 (fastest) to 9 (smallest), or 0 " +
+        "for none. Applies to --zlib and --zlibStream.")
+    private Integer zlibLevel_ = Codec.DEFAULT_ZLIB_LEVEL;
+
+    @Option(name="--zlibStrategy", usage="ZLIB compression strategy. Applies to --zlib and --zlibStream.")
+    private Codec.ZLIBStrategy zlibStrategy_ = Codec.ZLIBStrategy.DEFAULT;
+
+    @Option(name="--zlibPoolSize", usage="Maximum number of idle ZLIB deflaters, and likewise inflaters, " +
+        "to keep pooled for reuse by new sessions. Use 0 to end each one as soon as its session closes.")
+    private Integer zlibPoolSize_ = ZLIBPool.DEFAULT_MAX_IDLE;
+
     @Option(name="--lzf", usage="Use LZF compression.")
     private Boolean lzf_ = false;
 
     @Option(name="--snappy", usage="Use Snappy compression.")
     private Boolean snappy_ = false;
 
+    @Option(name="--zstd", usage="Use Zstandard compression.")
+    private Boolean zstd_ = false;
+
+    @Option(name="--zstdLevel", usage="Zstandard compression level, from 1 (fastest) to 22 (smallest), or " +
+        "negative for even faster.")
+    private Integer zstdLevel_ = Codec.DEFAULT_ZSTD_LEVEL;
+
+    @Option(name="--zstdLongWindow", usage="Enable Zstandard long distance matching over a window of 2^N " +
+        "bytes, e.g., 24 for 16MB, or 0 to disable. Costs up to that much memory per session, on both " +
+        "sides; windows over 27 must also be specified on the decompressing side.")
+    private Integer zstdLongWindow_ = 0;
+
+    @Option(name="--dictionary", usage="Preload this dictionary, as trained by 'boil train', into every " +
+        "compressor and decompressor, so small blocks compress well from the very first byte. Applies to " +
+        "--zlib, --zlibStream, and --zstd; both sides must specify the same dictionary.")
+    private File dictionary_ = null;
+
+    @Option(name="--lz4", usage="Use LZ4 compression.")
+    private Boolean lz4_ = false;
+
+    @Option(name="--lz4Level", usage="LZ4 compression level: 0 for the fast compressor, or 1 through 17 " +
+        "for the (slower, smaller) LZ4 HC compressor.")
+    private Integer lz4Level_ = BoiledLZ4BlockOutputStream.FAST_LEVEL;
+
+    @Option(name="--adaptive", usage="Compress each block on its own, with the codec selected by --zlib, " +
+        "--lzf, --snappy, --zstd, or --lz4 (Zstandard if none), stepping down to cheaper codecs and " +
+        "eventually storing blocks raw while compression isn't paying off, as for encrypted traffic.")
+    private Boolean adaptive_ = false;
+
+    @Option(name="--parallel", usage="Split each stream into blocks and compress several of them at once, " +
+        "each on its own, with the codec selected by --zlib, --lzf, --snappy, --zstd, or --lz4 (Zstandard " +
+        "if none), so a single bulk transfer can use more than one core. The decompressing side may " +
+        "specify --parallel to decompress in parallel, too, or --adaptive to do so on one core.")
+    private Boolean parallel_ = false;
+
+    @Option(name="--parallelBlockSize", usage="Size, in bytes, of the blocks --parallel splits each stream " +
+        "into.")
+    private Integer parallelBlockSize_ = Codec.DEFAULT_PARALLEL_BLOCK_SIZE;
+
+    @Option(name="--parallelThreads", usage="Number of worker threads, shared by every session, that " +
+        "--parallel compresses and decompresses blocks on; also the most blocks each session has in " +
+        "flight at once. Defaults to # of available cores.")
+    private Integer parallelThreads_ = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Options that configure the process as a whole, shared by every forwarder,
+     * and so can't be given per forwarder in a --config file.
+     */
+    private static final List<String> processOptions = ImmutableList.of("--config", "--poolSize", "--nio",
+        "--eventLoops", "--virtualThreads", "--bufferPoolSize", "--zlibPoolSize", "--metricsPort",
+        "--parallelThreads", "--rateLimit", "--dnsTtl", "--pipe", "--input", "--output");
+
+    /**
+     * Codec options; any of these given for a forwarder replace all of those
+     * given on the command line.
+     */
+    private static final List<String> codecOptions = ImmutableList.of("--zlib", "--zlibStream", "--lzf",
+        "--snappy", "--zstd", "--lz4", "--adaptive", "--parallel");
+
     public static void main(String... args) throws Exception {
+        if (args.length > 0 && "train".equals(args[0])) {
+            DictionaryTrainer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        } else if (args.length > 0 && "record".equals(args[0])) {
+            Recorder.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        } else if (args.length > 0 && "load".equals(args[0])) {
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         new Boil().doMain(args);
     }
 
@@ -82,84 +350,567 @@ public final class Boil {
         final CmdLineParser parser = new CmdLineParser(this, properties);
         try {
             parser.parseArgument(args);
-            final int enabledBoilers = (zlib_ ? 1:0) + (lzf_ ? 1:0) + (snappy_ ? 1:0);
-            if (compress_ == null && decompress_ == null) {
-                throw new IllegalArgumentException("Missing '--compress' or '--decompress' " +
-                    "argument.");
-            } else if (compress_ != null && decompress_ != null) {
-                throw new IllegalArgumentException("Must specify only one of '--compress' or " +
-                    "'--decompress' arguments.");
-            } else if (enabledBoilers > 1) {
-                throw new IllegalArgumentException("Can only specify one of --zlib, --lzf, or --snappy.");
-            } else if (enabledBoilers == 0) {
-                throw new IllegalArgumentException("Must specify at least one of --zlib, --lzf, or --snappy.");
+            if (pipe_ == null && compress_.isEmpty() && decompress_.isEmpty() && config_ == null) {
+                throw new IllegalArgumentException("Missing '--compress', '--decompress', '--config', or " +
+                    "'--pipe' argument.");
+            } else if (pipe_ != null && (!compress_.isEmpty() || !decompress_.isEmpty() || config_ != null)) {
+                throw new IllegalArgumentException("Can only specify one of --pipe, or --compress, " +
+                    "--decompress, and --config.");
+            } else if (pipe_ == null && (input_ != null || output_ != null)) {
+                throw new IllegalArgumentException("--input and --output only apply to --pipe.");
+            } else if (nio_ && virtualThreads_) {
+                throw new IllegalArgumentException("Can only specify one of --nio or --virtualThreads.");
+            } else if (virtualThreads_ && !VirtualThreads.isSupported()) {
+                throw new IllegalArgumentException("--virtualThreads requires JDK 21 or newer.");
+            } else if (parallelThreads_ < 1) {
+                throw new IllegalArgumentException("--parallelThreads must be at least 1.");
+            } else if (dnsTtl_ < 0L) {
+                throw new IllegalArgumentException("--dnsTtl cannot be negative.");
+            } else if (rateLimit_ < 0L) {
+                throw new IllegalArgumentException("--rateLimit cannot be negative.");
+            } else if (nio_ && rateLimit_ > 0L) {
+                throw new IllegalArgumentException("Can only specify one of --nio or --rateLimit.");
+            }
+            if (pipe_ == null) {
+                final List<Boil> forwarders = getForwarders(args);
+                for (final Boil forwarder : forwarders) {
+                    forwarder.validate();
+                }
+                run(forwarders); // Go!
+                return;
             }
-            run(); // Go!
+            validate();
         } catch (Exception e) {
             log.debug("Failed to start; see usage.", e);
             parser.printUsage(System.err);
+            return;
+        }
+        // Outside of the try, so failing to read or write isn't mistaken for bad usage.
+        pipe();
+    }
+
+    /**
+     * Returns the options of each forwarder: those on the command line, with
+     * a single --compress or --decompress, or overlaid with a line of --config.
+     */
+    private final List<Boil> getForwarders(final String... args) throws Exception {
+        final List<String> defaults = withoutForwarders(Arrays.asList(args));
+        final List<Boil> forwarders = new ArrayList<>();
+        for (final String compress : compress_) {
+            forwarders.add(parseForwarder(defaults, Arrays.asList("--compress", compress)));
+        }
+        for (final String decompress : decompress_) {
+            forwarders.add(parseForwarder(defaults, Arrays.asList("--decompress", decompress)));
+        }
+        if (config_ != null) {
+            final List<String> lines = Files.readAllLines(config_.toPath(), StandardCharsets.UTF_8);
+            for (final String line : lines) {
+                final String arguments = line.replaceFirst("#.*", "").trim();
+                if (arguments.isEmpty()) {
+                    continue;
+                }
+                final List<String> overrides = whitespaceSplitter.splitToList(arguments);
+                for (final String option : overrides) {
+                    if (processOptions.contains(option.split("=", 2)[0])) {
+                        throw new IllegalArgumentException(option + " applies to every forwarder; it can " +
+                            "only be given on the command line, not in --config.");
+                    }
+                }
+                forwarders.add(parseForwarder(defaults, overrides));
+            }
+        }
+        return forwarders;
+    }
+
+    private static Boil parseForwarder(final List<String> defaults,
+                                       final List<String> overrides) throws Exception {
+        final List<String> args = new ArrayList<>(defaults);
+        if (!Collections.disjoint(overrides, codecOptions)) {
+            args.removeAll(codecOptions);
+        }
+        args.addAll(overrides);
+        final Boil forwarder = new Boil();
+        new CmdLineParser(forwarder).parseArgument(args);
+        return forwarder;
+    }
+
+    /**
+     * Strips every --compress, --decompress, and --config, and their values,
+     * from the given arguments.
+     */
+    private static List<String> withoutForwarders(final List<String> args) {
+        final List<String> stripped = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++) {
+            final String arg = args.get(i);
+            final String option = arg.split("=", 2)[0];
+            if ("--compress".equals(option) || "--decompress".equals(option) || "--config".equals(option)) {
+                if (!arg.contains("=")) {
+                    i++; // Skip the value, too.
+                }
+                continue;
+            }
+            stripped.add(arg);
+        }
+        return stripped;
+    }
+
+    private final void validate() {
+        final int enabledBoilers = (zlib_ ? 1:0) + (zlibStream_ ? 1:0) + (lzf_ ? 1:0) + (snappy_ ? 1:0) +
+            (zstd_ ? 1:0) + (lz4_ ? 1:0);
+        if (pipe_ == null && compress_.size() + decompress_.size() != 1) {
+            throw new IllegalArgumentException("Each forwarder must specify exactly one '--compress' or " +
+                "'--decompress' argument.");
+        } else if (enabledBoilers > 1) {
+            throw new IllegalArgumentException("Can only specify one of --zlib, --zlibStream, --lzf, " +
+                "--snappy, --zstd, or --lz4.");
+        } else if (adaptive_ && zlibStream_) {
+            throw new IllegalArgumentException("Cannot combine --adaptive with --zlibStream.");
+        } else if (parallel_ && zlibStream_) {
+            throw new IllegalArgumentException("Cannot combine --parallel with --zlibStream.");
+        } else if (adaptive_ && parallel_) {
+            throw new IllegalArgumentException("Can only specify one of --adaptive or --parallel.");
+        } else if (enabledBoilers == 0 && !adaptive_ && !parallel_) {
+            throw new IllegalArgumentException("Must specify at least one of --zlib, --zlibStream, " +
+                "--lzf, --snappy, --zstd, or --lz4.");
+        } else if (nio_ && mux_) {
+            throw new IllegalArgumentException("Can only specify one of --nio or --mux.");
+        } else if (muxLinks_ < 1) {
+            throw new IllegalArgumentException("--muxLinks must be at least 1.");
+        } else if (nio_ && dedup_) {
+            throw new IllegalArgumentException("Can only specify one of --nio or --dedup.");
+        } else if (dedupCacheSize_ < 1L) {
+            throw new IllegalArgumentException("--dedupCacheSize must be at least 1.");
+        } else if (forwardMinIdle_ < 0 || getForwardMaxIdle() < forwardMinIdle_) {
+            throw new IllegalArgumentException("--forwardMinIdle cannot be negative, or more than " +
+                "--forwardMaxIdle.");
+        } else if (nio_ && getForwardMaxIdle() > 0) {
+            throw new IllegalArgumentException("Can only specify one of --nio or --forwardMinIdle.");
+        } else if (forwardMaxIdleTime_ < 1L) {
+            throw new IllegalArgumentException("--forwardMaxIdleTime must be at least 1.");
+        } else if (healthInterval_ < 1L) {
+            throw new IllegalArgumentException("--healthInterval must be at least 1.");
+        } else if (connectTimeout_ < 0) {
+            throw new IllegalArgumentException("--connectTimeout cannot be negative.");
+        } else if (acceptors_ < 1) {
+            throw new IllegalArgumentException("--acceptors must be at least 1.");
+        } else if (acceptors_ > 1 && !SocketOptions.isReusePortSupported()) {
+            throw new IllegalArgumentException("--acceptors requires SO_REUSEPORT, which needs JDK 9 or " +
+                "newer, and an OS that supports it.");
+        } else if (dictionary_ != null && (!(zlib_ || zlibStream_ || zstd_) || adaptive_ || parallel_)) {
+            throw new IllegalArgumentException("--dictionary only applies to --zlib, --zlibStream, and " +
+                "--zstd.");
+        } else if (idleTimeout_ < 0L || getHalfCloseTimeout() < 0L) {
+            throw new IllegalArgumentException("--idleTimeout and --halfCloseTimeout cannot be negative.");
+        } else if ((nio_ || mux_) && (idleTimeout_ > 0L || halfCloseTimeout_ != null)) {
+            throw new IllegalArgumentException("--idleTimeout and --halfCloseTimeout cannot be combined " +
+                "with --nio or --mux.");
+        } else if (sessionRateLimit_ < 0L) {
+            throw new IllegalArgumentException("--sessionRateLimit cannot be negative.");
+        } else if (nio_ && sessionRateLimit_ > 0L) {
+            throw new IllegalArgumentException("Can only specify one of --nio or --sessionRateLimit.");
+        } else if (interactiveRate_ < 1L) {
+            throw new IllegalArgumentException("--interactiveRate must be at least 1.");
+        } else if (socketReceiveBuffer_ < 0 || socketSendBuffer_ < 0) {
+            throw new IllegalArgumentException("--socketReceiveBuffer and --socketSendBuffer cannot be " +
+                "negative.");
         }
     }
 
-    private final void run() throws Exception {
-        final Boiler.CompressionMethod method;
-        final List<String> arguments;
-        if (compress_ != null) {
-            arguments = colonSplitter.splitToList(compress_);
-            method = Boiler.CompressionMethod.COMPRESS;
+    private final void run(final List<Boil> forwarders) throws Exception {
+        final Metrics metrics = new Metrics();
+        final BufferPool bufferPool = new BufferPool(BufferPool.DEFAULT_MAX_CLASS_SIZE, bufferPoolSize_);
+        final ZLIBPool zlibPool = new ZLIBPool(zlibPoolSize_);
+        metrics.gauge("bufferPool.hits", bufferPool::getHits);
+        metrics.gauge("bufferPool.misses", bufferPool::getMisses);
+        metrics.gauge("bufferPool.pooledBytes", bufferPool::getPooledBytes);
+        metrics.gauge("zlibPool.deflatersInUse", zlibPool::getDeflatersInUse);
+        metrics.gauge("zlibPool.inflatersInUse", zlibPool::getInflatersInUse);
+        metrics.gauge("zlibPool.nativeContexts", zlibPool::getNativeContexts);
+
+        // Every forwarder shares the same threads.
+        EventLoopGroup loops = null;
+        ExecutorService sessions = null;
+        ThreadFactory pumps = null;
+        if (nio_) {
+            final ThreadFactoryBuilder factoryBuilder = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("boiler-nio-%d");
+            loops = new EventLoopGroup(eventLoops_, factoryBuilder.build());
+        } else if (virtualThreads_) {
+            sessions = VirtualThreads.newThreadPerTaskExecutor("boiler-");
+            pumps = VirtualThreads.newThreadFactory("boiler-pump-");
         } else {
-            arguments = colonSplitter.splitToList(decompress_);
-            method = Boiler.CompressionMethod.DECOMPRESS;
+            // Every blocking session holds a worker thread for its entire lifetime.
+            long poolSize = 0L;
+            for (final Boil forwarder : forwarders) {
+                poolSize += forwarder.getMaxSessions();
+                if (forwarder.mux_ && Boiler.CompressionMethod.DECOMPRESS.equals(forwarder.getMethod())) {
+                    // Streams run on the pool too, alongside the links carrying them.
+                    poolSize += forwarder.getMaxStreams();
+                }
+            }
+            final ThreadFactoryBuilder factoryBuilder = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("boiler-%d");
+            final ThreadFactoryBuilder pumpFactoryBuilder = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("boiler-pump-%d");
+            final ThreadPoolExecutor pool = (ThreadPoolExecutor)Executors.newFixedThreadPool(
+                (int)Math.min(poolSize, Integer.MAX_VALUE), factoryBuilder.build());
+            metrics.gauge("threads.active", pool::getActiveCount);
+            metrics.gauge("threads.max", pool::getMaximumPoolSize);
+            metrics.gauge("threads.queued", () -> pool.getQueue().size());
+            sessions = pool;
+            pumps = pumpFactoryBuilder.build();
         }
 
-        if (arguments.size() != 3) {
-            throw new IllegalArgumentException("Forwarder must be in the format of [port]:[host]:[port]");
+        // Only started if some forwarder compresses blocks in parallel.
+        boolean anyParallel = false;
+        for (final Boil forwarder : forwarders) {
+            anyParallel |= forwarder.parallel_;
+        }
+        ExecutorService parallel = null;
+        if (anyParallel) {
+            final ThreadFactoryBuilder factoryBuilder = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("boiler-parallel-%d");
+            final ThreadPoolExecutor pool = (ThreadPoolExecutor)Executors.newFixedThreadPool(
+                parallelThreads_, factoryBuilder.build());
+            metrics.gauge("parallel.active", pool::getActiveCount);
+            metrics.gauge("parallel.queued", () -> pool.getQueue().size());
+            parallel = pool;
+        }
+
+        final AddressCache addresses = new AddressCache(dnsTtl_, TimeUnit.SECONDS);
+        final ThreadFactory connectorFactory = new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("boiler-connector-%d")
+            .build();
+
+        // Shared by every forwarder's sessions.
+        final TokenBucket rateLimit = (rateLimit_ > 0L) ? TokenBucket.perSecond(rateLimit_) : null;
+
+        final ThreadFactory admissionFactory = new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("boiler-admission-%d")
+            .build();
+        final ThreadFactory reaperFactory = new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("boiler-reaper-%d")
+            .build();
+        final ThreadFactory listenerFactory = new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("boiler-listener-%d")
+            .build();
+
+        // Runs until any one forwarder stops.
+        final CountDownLatch stopped = new CountDownLatch(1);
+        final List<Forwarder> running = new ArrayList<>();
+        MetricsMBean mbean = null;
+        MetricsServer metricsServer = null;
+        try {
+            for (final Boil forwarder : forwarders) {
+                running.add(forwarder.newForwarder(metrics, bufferPool, zlibPool, loops, sessions, pumps,
+                    parallel, rateLimit, addresses, connectorFactory, admissionFactory, reaperFactory));
+            }
+            for (final Forwarder forwarder : running) {
+                forwarder.start(listenerFactory, stopped::countDown);
+            }
+            final List<String> names = new ArrayList<>();
+            for (final Forwarder forwarder : running) {
+                names.add(forwarder.getName());
+            }
+            mbean = new MetricsMBean(metrics, Joiner.on(",").join(names));
+            if (metricsPort_ != null) {
+                metricsServer = new MetricsServer(metrics, metricsPort_);
+            }
+            stopped.await();
+        } catch (Exception e) {
+            log.error("Exception in main run-loop.", e);
+        } finally {
+            for (final Forwarder forwarder : running) {
+                IOUtils.closeQuietly(forwarder);
+            }
+            if (sessions != null) {
+                sessions.shutdown();
+            }
+            if (parallel != null) {
+                parallel.shutdown();
+            }
+            IOUtils.closeQuietly(loops);
+            IOUtils.closeQuietly(zlibPool);
+            IOUtils.closeQuietly(metricsServer);
+            IOUtils.closeQuietly(mbean);
+        }
+    }
+
+    /**
+     * Starts listening, per this forwarder's options, on the given shared threads.
+     */
+    private final Forwarder newForwarder(final Metrics metrics,
+                                         final BufferPool bufferPool,
+                                         final ZLIBPool zlibPool,
+                                         @Nullable final EventLoopGroup loops,
+                                         @Nullable final ExecutorService sessions,
+                                         @Nullable final ThreadFactory pumps,
+                                         @Nullable final ExecutorService parallel,
+                                         @Nullable final TokenBucket rateLimit,
+                                         final AddressCache addresses,
+                                         final ThreadFactory connectorFactory,
+                                         final ThreadFactory admissionFactory,
+                                         final ThreadFactory reaperFactory) throws Exception {
+        final Boiler.CompressionMethod method = getMethod();
+        final List<String> arguments = colonSplitter.splitToList(
+            (compress_.isEmpty()) ? decompress_.get(0) : compress_.get(0));
+        if (arguments.size() != 2) {
+            throw new IllegalArgumentException("Forwarder must be in the format of " +
+                "[port]:[host]:[port][/weight][,[host]:[port][/weight]...]");
         }
 
         // Parse the arguments.
         final int listenPort = Integer.parseInt(arguments.get(0));
-        final String forwardHost = arguments.get(1);
-        final int forwardPort = Integer.parseInt(arguments.get(2));
+        final List<String> targets = commaSplitter.splitToList(arguments.get(1));
+        final String prefix = "forwarder." + listenPort + ".";
 
-        final Boiler.Strategery strategery = getStrategery();
+        final Codec.Builder builder = newCodecBuilder(metrics, bufferPool, zlibPool, parallel);
+        if (rateLimit != null || sessionRateLimit_ > 0L) {
+            final Shaper.Builder shaperBuilder = new Shaper.Builder()
+                .setSessionRate(sessionRateLimit_)
+                .setPriority(priority_)
+                .setInteractiveRate(interactiveRate_);
+            if (rateLimit != null) {
+                shaperBuilder.setGlobal(rateLimit);
+            }
+            final Shaper shaper = shaperBuilder.build();
+            metrics.gauge(prefix + "shaping.waiting", shaper::getWaiting);
+            metrics.gauge(prefix + "shaping.throttledMillis", shaper::getThrottledMillis);
+            metrics.gauge(prefix + "shaping.interactive", shaper::getInteractiveSessions);
+            metrics.gauge(prefix + "shaping.bulk", shaper::getBulkSessions);
+            builder.setShaper(shaper);
+        }
+        final Codec codec = builder.build();
 
-        final ThreadFactoryBuilder factoryBuilder = new ThreadFactoryBuilder()
-            .setDaemon(true)
-            .setNameFormat("boiler-%d (" + listenPort + ":" + forwardHost + ":" + forwardPort + ")");
-
-        final ThreadPoolExecutor threadPool = (ThreadPoolExecutor)Executors.newFixedThreadPool(poolSize_,
-            factoryBuilder.build());
-
-        try (final ServerSocket listener = new ServerSocket(listenPort)) {
-            // Run loop!
-            while (true) {
-                // Blocks, waiting for new connections.
-                final Socket client = listener.accept();
-                if (threadPool.getActiveCount() >= poolSize_) {
-                    // All boilers busy, forcibly hang up.
-                    IOUtils.closeQuietly(client);
-                } else {
-                    // Submit the boiler to the pool, only if there's space to safely do so.
-                    threadPool.submit(new Boiler(client, method, strategery, forwardHost, forwardPort, bufferSize_));
+        final SocketOptions options = new SocketOptions.Builder()
+            .setTcpNoDelay(!nagle_)
+            .setKeepAlive(keepAlive_)
+            .setReceiveBufferSize(socketReceiveBuffer_)
+            .setSendBufferSize(socketSendBuffer_)
+            .setReusePort(acceptors_ > 1)
+            .setConnectTimeout(connectTimeout_)
+            .build();
+
+        final Balancer.Builder balancer = new Balancer.Builder()
+            .setPolicy(balance_)
+            .setHealthInterval(healthInterval_, TimeUnit.MILLISECONDS)
+            .setThreadFactory(connectorFactory);
+        final List<ConnectionPool> pools = new ArrayList<>();
+        final Balancer forward;
+        try {
+            for (final String target : targets) {
+                final List<String> weighted = slashSplitter.splitToList(target);
+                final List<String> hostPort = colonSplitter.splitToList(weighted.get(0));
+                if (hostPort.size() != 2) {
+                    throw new IllegalArgumentException("Forward target must be in the format of " +
+                        "[host]:[port][/weight]: " + target);
                 }
+                final int weight = (weighted.size() > 1) ? Integer.parseInt(weighted.get(1)) : 1;
+                final ConnectionPool pool = new ConnectionPool.Builder(hostPort.get(0),
+                        Integer.parseInt(hostPort.get(1)))
+                    .setOptions(options)
+                    .setAddressCache(addresses)
+                    .setIdle(forwardMinIdle_, getForwardMaxIdle())
+                    .setMaxIdleTime(forwardMaxIdleTime_, TimeUnit.MILLISECONDS)
+                    .setThreadFactory(connectorFactory)
+                    .build();
+                pools.add(pool);
+                balancer.addTarget(pool, weight);
             }
+            forward = balancer.build();
         } catch (Exception e) {
-            log.error("Exception in main run-loop.", e);
+            pools.forEach(IOUtils::closeQuietly);
+            throw e;
+        }
+        metrics.gauge(prefix + "forwardPool.idle",
+            () -> pools.stream().mapToLong(ConnectionPool::getIdle).sum());
+        metrics.gauge(prefix + "forwardPool.hits",
+            () -> pools.stream().mapToLong(ConnectionPool::getHits).sum());
+        metrics.gauge(prefix + "forwardPool.misses",
+            () -> pools.stream().mapToLong(ConnectionPool::getMisses).sum());
+        metrics.gauge(prefix + "forwardPool.evicted",
+            () -> pools.stream().mapToLong(ConnectionPool::getEvicted).sum());
+        for (final Balancer.Target target : forward.getTargets()) {
+            metrics.gauge(prefix + "target." + target.getName() + ".sessions", target::getActive);
+            metrics.gauge(prefix + "target." + target.getName() + ".healthy",
+                () -> target.isHealthy() ? 1L : 0L);
+        }
+
+        final Engine engine;
+        if (loops != null) {
+            engine = new NioEngine(loops, method, codec, forward, options);
+        } else if (mux_) {
+            engine = new MuxEngine(sessions, pumps, method, codec, forward, options, muxLinks_,
+                getMaxStreams());
+        } else {
+            final Reaper reaper = new Reaper(idleTimeout_, getHalfCloseTimeout(), TimeUnit.MILLISECONDS,
+                reaperFactory);
+            metrics.gauge(prefix + "sessions.reapedIdle", reaper::getReapedIdle);
+            metrics.gauge(prefix + "sessions.reapedHalfClosed", reaper::getReapedHalfClosed);
+            engine = new BlockingEngine(sessions, pumps, method, codec, forward, options, reaper);
+        }
+
+        final Admission admission = new Admission(engine, getMaxSessions(), backlog_, backlogTimeout_,
+            TimeUnit.MILLISECONDS, admissionFactory);
+        metrics.gauge(prefix + "sessions.active", admission::getActive);
+        metrics.gauge(prefix + "sessions.waiting", admission::getWaiting);
+        metrics.gauge(prefix + "sessions.admitted", admission::getAdmitted);
+        metrics.gauge(prefix + "sessions.queued", admission::getQueued);
+        metrics.gauge(prefix + "sessions.rejected", admission::getRejected);
+
+        try {
+            return new Forwarder(listenPort + ":" + forward.getName(), engine, admission,
+                listenPort, acceptors_);
+        } catch (Exception e) {
+            IOUtils.closeQuietly(admission);
+            IOUtils.closeQuietly(forward);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a builder of the codec, per this forwarder's options; shared by
+     * forwarding and --pipe, so both write the same format.
+     */
+    private final Codec.Builder newCodecBuilder(final Metrics metrics,
+                                                final BufferPool bufferPool,
+                                                final ZLIBPool zlibPool,
+                                                @Nullable final ExecutorService parallel) throws IOException {
+        final Codec.Builder builder = new Codec.Builder(getStrategery())
+            .setBufferSize(bufferSize_)
+            .setFlushPolicy(new FlushPolicy(flushBytes_, flushDelay_, TimeUnit.MILLISECONDS))
+            .setZLIBLevel(zlibLevel_)
+            .setZLIBStrategy(zlibStrategy_)
+            .setZstdLevel(zstdLevel_)
+            .setZstdLongWindow(zstdLongWindow_)
+            .setLZ4Level(lz4Level_)
+            .setAdaptiveCodec(getAdaptiveCodec())
+            .setBufferPool(bufferPool)
+            .setZLIBPool(zlibPool)
+            .setMetrics(metrics)
+            .setParallelBlockSize(parallelBlockSize_)
+            .setParallelism(parallelThreads_)
+            .setDedupCacheSize((dedup_) ? dedupCacheSize_ : 0L);
+        if (parallel != null) {
+            builder.setParallelExecutor(parallel);
+        }
+        if (dictionary_ != null) {
+            builder.setDictionary(PresetDictionary.load(dictionary_));
+        }
+        return builder;
+    }
+
+    /**
+     * Compresses or decompresses --input to --output, instead of forwarding.
+     */
+    private final void pipe() throws IOException {
+        // Data goes to stdout, so everything else, like logging, goes to stderr.
+        if (output_ == null) {
+            System.setOut(System.err);
+        }
+        final Metrics metrics = new Metrics();
+        final BufferPool bufferPool = new BufferPool(BufferPool.DEFAULT_MAX_CLASS_SIZE, bufferPoolSize_);
+        final ZLIBPool zlibPool = new ZLIBPool(zlibPoolSize_);
+        ExecutorService parallel = null;
+        if (parallel_) {
+            parallel = Executors.newFixedThreadPool(parallelThreads_, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("boiler-parallel-%d")
+                .build());
+        }
+        try {
+            final Codec codec = newCodecBuilder(metrics, bufferPool, zlibPool, parallel).build();
+            final long start = System.nanoTime();
+            final long written = new FileBoiler(codec, pipe_).boil(input_, output_);
+            log.info("Wrote {} bytes in {} ms: {}", written,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), (output_ != null) ? output_ : "stdout");
         } finally {
-            threadPool.shutdown();
+            if (parallel != null) {
+                parallel.shutdown();
+            }
+            IOUtils.closeQuietly(zlibPool);
+        }
+    }
+
+    private final Boiler.CompressionMethod getMethod() {
+        return (compress_.isEmpty()) ? Boiler.CompressionMethod.DECOMPRESS : Boiler.CompressionMethod.COMPRESS;
+    }
+
+    private final long getHalfCloseTimeout() {
+        return (halfCloseTimeout_ != null) ? halfCloseTimeout_ : Reaper.DEFAULT_HALF_CLOSE_TIMEOUT_MS;
+    }
+
+    private final int getForwardMaxIdle() {
+        return (forwardMaxIdle_ != null) ? forwardMaxIdle_ : 2 * forwardMinIdle_;
+    }
+
+    private final int getMaxSessions() {
+        if (maxSessions_ != null) {
+            return maxSessions_;
+        } else if (virtualThreads_) {
+            // Virtual threads are cheap enough that the pool size doesn't apply.
+            return Integer.MAX_VALUE;
+        } else if (mux_ && Boiler.CompressionMethod.DECOMPRESS.equals(getMethod())) {
+            // Sessions are links here, and every link the other side opens needs one.
+            return Math.max(poolSize_, muxLinks_);
+        }
+        return poolSize_;
+    }
+
+    /**
+     * Most streams connected to the forward host at once, across every link,
+     * on the decompressing side of {@code --mux}.
+     */
+    private final int getMaxStreams() {
+        if (maxSessions_ != null) {
+            return maxSessions_;
+        } else if (virtualThreads_) {
+            return Integer.MAX_VALUE;
         }
+        return poolSize_;
     }
 
     @Nullable
     private final Boiler.Strategery getStrategery() {
-        if (zlib_) {
+        if (adaptive_) {
+            return Boiler.Strategery.ADAPTIVE;
+        } else if (parallel_) {
+            return Boiler.Strategery.PARALLEL;
+        } else if (zlib_) {
             return Boiler.Strategery.ZLIB;
+        } else if (zlibStream_) {
+            return Boiler.Strategery.ZLIB_STREAM;
         } else if (lzf_) {
             return Boiler.Strategery.LZF;
         } else if (snappy_) {
             return Boiler.Strategery.SNAPPY;
+        } else if (zstd_) {
+            return Boiler.Strategery.ZSTD;
+        } else if (lz4_) {
+            return Boiler.Strategery.LZ4;
         }
         return null;
     }
 
+    private final BlockCodec getAdaptiveCodec() {
+        if (zlib_) {
+            return BlockCodec.ZLIB;
+        } else if (lzf_) {
+            return BlockCodec.LZF;
+        } else if (snappy_) {
+            return BlockCodec.SNAPPY;
+        } else if (lz4_) {
+            return BlockCodec.LZ4;
+        }
+        return BlockCodec.ZSTD;
+    }
+
 }
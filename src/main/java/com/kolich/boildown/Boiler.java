@@ -26,16 +26,19 @@
 
 package com.kolich.boildown;
 
-import com.kolich.boildown.strategeries.*;
+import com.kolich.boildown.pool.BufferPool;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.util.concurrent.ThreadFactory;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -48,101 +51,201 @@ public final class Boiler implements Runnable {
     }
 
     public enum Strategery {
-        ZLIB, LZF, SNAPPY
+        ZLIB, ZLIB_STREAM, LZF, SNAPPY, ZSTD, LZ4, ADAPTIVE, PARALLEL
     }
 
     private final Socket client_;
 
     private final CompressionMethod method_;
 
-    private final Strategery strategery_;
+    private final Codec codec_;
 
-    private final String forwardHost_;
-    private final int forwardPort_;
+    /**
+     * Picks the target of the forward connection, and connects to it.
+     */
+    private final Balancer forward_;
 
-    private final int bufferSize_;
+    /**
+     * Creates the threads that run the compressor and decompressor pumps.
+     */
+    private final ThreadFactory pumps_;
+
+    /**
+     * Tears the session down if it stalls.
+     */
+    private final Reaper reaper_;
 
     @ParametersAreNonnullByDefault
     public Boiler(final Socket client,
                   final CompressionMethod method,
-                  final Strategery strategery,
-                  final String forwardHost,
-                  final int forwardPort,
-                  final int bufferSize) {
+                  final Codec codec,
+                  final Balancer forward,
+                  final ThreadFactory pumps,
+                  final Reaper reaper) {
         client_ = checkNotNull(client, "Client socket cannot be null.");
         method_ = checkNotNull(method, "Compression method cannot be null.");
-        strategery_ = checkNotNull(strategery, "Strategery cannot be null.");
-        forwardHost_ = checkNotNull(forwardHost, "Forwarding host cannot be null.");
-        forwardPort_ = forwardPort;
-        bufferSize_ = bufferSize;
+        codec_ = checkNotNull(codec, "Codec cannot be null.");
+        forward_ = checkNotNull(forward, "Forward balancer cannot be null.");
+        pumps_ = checkNotNull(pumps, "Pump thread factory cannot be null.");
+        reaper_ = checkNotNull(reaper, "Reaper cannot be null.");
     }
 
     @Override
     public final void run() {
-        try (final InputStream clientIn = client_.getInputStream();
-             final OutputStream clientOut = client_.getOutputStream();
-
-             final Socket forward = new Socket(forwardHost_, forwardPort_);
-             final InputStream forwardIn = forward.getInputStream();
-             final OutputStream forwardOut = forward.getOutputStream()) {
+        // Boiled streams hold leased buffers and deflaters/inflaters, which the pumps
+        // release once they're done; if the pumps never start, they're released here.
+        OutputStream boiledOut = null;
+        InputStream boiledIn = null;
+        boolean pumping = false;
+        try (final InputStream rawClientIn = client_.getInputStream();
+             final OutputStream rawClientOut = client_.getOutputStream();
+
+             final Balancer.Lease lease = forward_.lease();
+             final Socket forward = lease.getSocket();
+             final InputStream rawForwardIn = forward.getInputStream();
+             final OutputStream rawForwardOut = forward.getOutputStream();
+
+             final Reaper.Session session = reaper_.register(client_, forward)) {
+
+            // Each pump half-closes its destination once its source ends, so the other
+            // direction keeps flowing until it ends too; the sockets close after both.
+            final InputStream clientIn = new SessionInputStream(rawClientIn, session);
+            final OutputStream clientOut = new HalfClosingOutputStream(rawClientOut, client_);
+            final InputStream forwardIn = new SessionInputStream(rawForwardIn, session);
+            final OutputStream forwardOut = new HalfClosingOutputStream(rawForwardOut, forward);
+
+            final int bufferSize = codec_.getBufferSize();
+            final FlushPolicy flushPolicy = codec_.getFlushPolicy();
+            final BufferPool bufferPool = codec_.getBufferPool();
 
             final Compressor compressor;
             final Decompressor decompressor;
 
             if (CompressionMethod.COMPRESS.equals(method_)) {
                 // Compress...
-                compressor = new Compressor(clientIn, boil(forwardOut), bufferSize_);
-                decompressor = new Decompressor(boil(forwardIn), clientOut, bufferSize_);
+                boiledOut = codec_.boil(forwardOut);
+                boiledIn = codec_.boil(forwardIn);
+                compressor = new Compressor(clientIn, boiledOut, bufferSize, flushPolicy, bufferPool);
+                decompressor = new Decompressor(boiledIn, clientOut, bufferSize, bufferPool);
             } else {
                 // Decompress...
-                compressor = new Compressor(forwardIn, boil(clientOut), bufferSize_);
-                decompressor = new Decompressor(boil(clientIn), forwardOut, bufferSize_);
+                boiledOut = codec_.boil(clientOut);
+                boiledIn = codec_.boil(clientIn);
+                compressor = new Compressor(forwardIn, boiledOut, bufferSize, flushPolicy, bufferPool);
+                decompressor = new Decompressor(boiledIn, forwardOut, bufferSize, bufferPool);
             }
 
+            final Thread compressorThread = pumps_.newThread(() -> {
+                compressor.run();
+                pumped(compressor.isFailed(), session);
+            });
+            final Thread decompressorThread = pumps_.newThread(() -> {
+                decompressor.run();
+                pumped(decompressor.isFailed(), session);
+            });
+
             // Start the boilers.
-            compressor.start();
-            decompressor.start();
+            pumping = true;
+            compressorThread.start();
+            decompressorThread.start();
 
             // Join on the boilers (block until finished).
-            compressor.join();
-            decompressor.join();
+            compressorThread.join();
+            decompressorThread.join();
         } catch (Exception e) {
             log.error("Exception in boiler.", e);
+        } finally {
+            if (!pumping) {
+                IOUtils.closeQuietly(boiledOut);
+                IOUtils.closeQuietly(boiledIn);
+            }
+        }
+    }
+
+    /**
+     * A pump that finished cleanly leaves the other direction running, half-closed;
+     * one that failed hangs up on both ends, so the other direction doesn't wait on
+     * a session that's already broken.
+     */
+    private static void pumped(final boolean failed,
+                               final Reaper.Session session) {
+        if (failed) {
+            session.abort();
+        } else {
+            session.finish();
         }
     }
 
-    @Nullable
-    private final InputStream boil(final InputStream is) throws IOException {
-        InputStream boiled = null;
-        switch (strategery_) {
-            case ZLIB:
-                boiled = BoiledZLIBInputStream.getInstance(is);
-                break;
-            case LZF:
-                boiled = BoiledLZFInputStream.getInstance(is);
-                break;
-            case SNAPPY:
-                boiled = BoiledSnappyFramedInputStream.getInstance(is);
-                break;
+    /**
+     * Notes every read with the reaper, and leaves the socket open when closed.
+     */
+    private static final class SessionInputStream extends FilterInputStream {
+
+        private final Reaper.Session session_;
+
+        private SessionInputStream(final InputStream in,
+                                   final Reaper.Session session) {
+            super(in);
+            session_ = session;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            session_.touch();
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b,
+                        final int off,
+                        final int len) throws IOException {
+            final int n = in.read(b, off, len);
+            session_.touch();
+            return n;
         }
-        return boiled;
+
+        @Override
+        public void close() {
+            // The socket is closed once both directions are done.
+        }
+
     }
 
-    @Nullable
-    private final OutputStream boil(final OutputStream os) throws IOException {
-        OutputStream boiled = null;
-        switch (strategery_) {
-            case ZLIB:
-                boiled = BoiledZLIBOutputStream.getInstance(os, bufferSize_);
-                break;
-            case LZF:
-                boiled = BoiledLZFOutputStream.getInstance(os);
-                break;
-            case SNAPPY:
-                boiled = BoiledSnappyFramedOutputStream.getInstance(os);
-                break;
+    /**
+     * Shuts down the output of the socket when closed, rather than closing it.
+     */
+    private static final class HalfClosingOutputStream extends FilterOutputStream {
+
+        private final Socket socket_;
+
+        private boolean closed_ = false;
+
+        private HalfClosingOutputStream(final OutputStream out,
+                                        final Socket socket) {
+            super(out);
+            socket_ = socket;
         }
-        return boiled;
+
+        @Override
+        public void write(final byte[] b,
+                          final int off,
+                          final int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed_) {
+                return;
+            }
+            closed_ = true;
+            out.flush();
+            if (!socket_.isClosed() && !socket_.isOutputShutdown()) {
+                socket_.shutdownOutput();
+            }
+        }
+
     }
 
 }
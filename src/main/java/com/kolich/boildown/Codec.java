@@ -0,0 +1,637 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.kolich.boildown.dedup.DedupInputStream;
+import com.kolich.boildown.dedup.DedupOutputStream;
+import com.kolich.boildown.dict.PresetDictionary;
+import com.kolich.boildown.metrics.CodecMetrics;
+import com.kolich.boildown.metrics.Metrics;
+import com.kolich.boildown.pool.BufferPool;
+import com.kolich.boildown.pool.ZLIBPool;
+import com.kolich.boildown.shaping.Shaper;
+import com.kolich.boildown.strategeries.*;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Wraps raw streams with the boiled (compressed or decompressed) stream
+ * for the configured {@link Boiler.Strategery}.  Shared by every engine.
+ */
+public final class Codec {
+
+    public enum ZLIBStrategy {
+
+        DEFAULT(Deflater.DEFAULT_STRATEGY),
+        FILTERED(Deflater.FILTERED),
+        HUFFMAN_ONLY(Deflater.HUFFMAN_ONLY);
+
+        private final int strategy_;
+
+        ZLIBStrategy(final int strategy) {
+            strategy_ = strategy;
+        }
+
+        public final int getStrategy() {
+            return strategy_;
+        }
+
+    }
+
+    /**
+     * Favors throughput over ratio; on a fast link, anything higher tends to
+     * cost more in CPU than it saves on the wire.
+     */
+    public static final int DEFAULT_ZLIB_LEVEL = Deflater.BEST_SPEED;
+
+    /**
+     * Likewise, Zstd's fastest regular level.
+     */
+    public static final int DEFAULT_ZSTD_LEVEL = 1;
+
+    /**
+     * Bounds of the Zstd compression level, as in ZSTD_minCLevel() and ZSTD_maxCLevel();
+     * not asked of the native library, so it's only ever loaded when actually used.
+     */
+    private static final int MIN_ZSTD_LEVEL = -(1 << 17);
+    private static final int MAX_ZSTD_LEVEL = 22;
+
+    /**
+     * Bounds of the Zstd long distance matching window, as log2 of its size.
+     */
+    private static final int MIN_ZSTD_WINDOW = 10;
+    private static final int MAX_ZSTD_WINDOW = 30;
+
+    /**
+     * Highest LZ4 HC compression level.
+     */
+    private static final int MAX_LZ4_LEVEL = 17;
+
+    /**
+     * Large enough that handing a block to a worker costs next to nothing
+     * next to compressing it, small enough to keep every core busy on a
+     * transfer of a few megabytes.
+     */
+    public static final int DEFAULT_PARALLEL_BLOCK_SIZE = 128 * 1024;
+
+    public static final long DEFAULT_DEDUP_CACHE_SIZE = 64L * 1024L * 1024L;
+
+    private final Boiler.Strategery strategery_;
+
+    private final int bufferSize_;
+
+    private final FlushPolicy flushPolicy_;
+
+    private final int zlibLevel_;
+    private final ZLIBStrategy zlibStrategy_;
+
+    private final int zstdLevel_;
+    private final int zstdLongWindow_;
+
+    private final int lz4Level_;
+
+    private final BlockCodec adaptiveCodec_;
+
+    private final int parallelBlockSize_;
+    private final int parallelism_;
+    private final ExecutorService parallelExecutor_;
+
+    /**
+     * Size of the chunk cache of each deduplicated stream, or 0 if streams
+     * aren't deduplicated.
+     */
+    private final long dedupCacheSize_;
+
+    /**
+     * Dictionary preloaded into every compressor and decompressor, unless
+     * null; Zstandard's digested once, for every stream to share.
+     */
+    @Nullable
+    private final PresetDictionary dictionary_;
+    @Nullable
+    private final ZstdDictCompress zstdDictCompress_;
+    @Nullable
+    private final ZstdDictDecompress zstdDictDecompress_;
+
+    private final BufferPool bufferPool_;
+
+    private final ZLIBPool zlibPool_;
+
+    /**
+     * Shapes every boiled output stream, unless null.
+     */
+    @Nullable
+    private final Shaper shaper_;
+
+    /**
+     * Meters every boiled stream, unless null.
+     */
+    @Nullable
+    private final CodecMetrics metrics_;
+
+    private Codec(final Builder builder) {
+        strategery_ = builder.strategery_;
+        bufferSize_ = builder.bufferSize_;
+        // A parallel stream cuts full blocks on its own, and a flush waits on every one
+        // in flight; flushing on a byte count or deadline too would cut the blocks short
+        // and keep them from overlapping, so it only flushes once the input goes idle.
+        flushPolicy_ = (Boiler.Strategery.PARALLEL.equals(strategery_)) ? FlushPolicy.IDLE :
+            builder.flushPolicy_;
+        zlibLevel_ = builder.zlibLevel_;
+        zlibStrategy_ = builder.zlibStrategy_;
+        zstdLevel_ = builder.zstdLevel_;
+        zstdLongWindow_ = builder.zstdLongWindow_;
+        lz4Level_ = builder.lz4Level_;
+        adaptiveCodec_ = builder.adaptiveCodec_;
+        parallelBlockSize_ = builder.parallelBlockSize_;
+        parallelism_ = builder.parallelism_;
+        parallelExecutor_ = builder.parallelExecutor_;
+        dedupCacheSize_ = builder.dedupCacheSize_;
+        dictionary_ = builder.dictionary_;
+        if (dictionary_ != null && Boiler.Strategery.ZSTD.equals(strategery_)) {
+            zstdDictCompress_ = new ZstdDictCompress(dictionary_.getBytes(), zstdLevel_);
+            zstdDictDecompress_ = new ZstdDictDecompress(dictionary_.getBytes());
+        } else {
+            zstdDictCompress_ = null;
+            zstdDictDecompress_ = null;
+        }
+        bufferPool_ = builder.bufferPool_;
+        zlibPool_ = builder.zlibPool_;
+        shaper_ = builder.shaper_;
+        metrics_ = (builder.metrics_ != null) ? builder.metrics_.getCodec(strategery_) : null;
+    }
+
+    public final Boiler.Strategery getStrategery() {
+        return strategery_;
+    }
+
+    public final int getBufferSize() {
+        return bufferSize_;
+    }
+
+    public final FlushPolicy getFlushPolicy() {
+        return flushPolicy_;
+    }
+
+    public final int getZLIBLevel() {
+        return zlibLevel_;
+    }
+
+    public final ZLIBStrategy getZLIBStrategy() {
+        return zlibStrategy_;
+    }
+
+    public final int getZstdLevel() {
+        return zstdLevel_;
+    }
+
+    public final int getZstdLongWindow() {
+        return zstdLongWindow_;
+    }
+
+    public final int getLZ4Level() {
+        return lz4Level_;
+    }
+
+    public final BlockCodec getAdaptiveCodec() {
+        return adaptiveCodec_;
+    }
+
+    public final int getParallelBlockSize() {
+        return parallelBlockSize_;
+    }
+
+    public final int getParallelism() {
+        return parallelism_;
+    }
+
+    public final ExecutorService getParallelExecutor() {
+        return parallelExecutor_;
+    }
+
+    public final long getDedupCacheSize() {
+        return dedupCacheSize_;
+    }
+
+    @Nullable
+    public final PresetDictionary getDictionary() {
+        return dictionary_;
+    }
+
+    public final BufferPool getBufferPool() {
+        return bufferPool_;
+    }
+
+    public final ZLIBPool getZLIBPool() {
+        return zlibPool_;
+    }
+
+    @Nullable
+    public final Shaper getShaper() {
+        return shaper_;
+    }
+
+    @Nullable
+    public final CodecMetrics getMetrics() {
+        return metrics_;
+    }
+
+    /**
+     * Returns the configured level of the given block codec, for those that have one.
+     */
+    private int getLevel(final BlockCodec codec) {
+        switch (codec) {
+            case ZLIB:
+                return zlibLevel_;
+            case ZSTD:
+                return zstdLevel_;
+            case LZ4:
+                return lz4Level_;
+            default:
+                return 0;
+        }
+    }
+
+    @Nullable
+    public final InputStream boil(final InputStream is) throws IOException {
+        return boil(is, null);
+    }
+
+    /**
+     * Like {@link #boil(InputStream)}, but for a stream that only ever holds
+     * complete frames and may run dry, without having reached EOF, between
+     * them, as when fed from a non-blocking channel.  The caller reads no
+     * more than {@link InputStream#available()} reports; a parallel stream,
+     * whose blocks decompress on other threads, runs {@code onReady} from one
+     * of them whenever more can be read.
+     */
+    @Nullable
+    public final InputStream boilFeed(final InputStream is,
+                                      final Runnable onReady) throws IOException {
+        return boil(is, checkNotNull(onReady, "On ready callback cannot be null."));
+    }
+
+    @Nullable
+    public final OutputStream boil(final OutputStream os) throws IOException {
+        final OutputStream link = (shaper_ != null) ? shaper_.shape(os) : os;
+        if (metrics_ == null) {
+            return dedup(newOutputStream(link));
+        }
+        final CodecMetrics.Sink sink = metrics_.sink(link);
+        final OutputStream boiled = dedup(newOutputStream(sink));
+        return (boiled == null) ? null : metrics_.meter(boiled, sink);
+    }
+
+    @Nullable
+    private InputStream boil(final InputStream is,
+                             @Nullable final Runnable onReady) throws IOException {
+        if (metrics_ == null) {
+            return dedup(newInputStream(is, onReady));
+        }
+        final CodecMetrics.Source source = metrics_.source(is);
+        final InputStream boiled = dedup(newInputStream(source, onReady));
+        return (boiled == null) ? null : metrics_.meter(boiled, source);
+    }
+
+    /**
+     * Layers deduplication over the boiled stream, if enabled, so only the
+     * chunks the other end doesn't already have are compressed.
+     */
+    @Nullable
+    private OutputStream dedup(@Nullable final OutputStream boiled) {
+        if (boiled == null || dedupCacheSize_ == 0L) {
+            return boiled;
+        }
+        return DedupOutputStream.getInstance(boiled, dedupCacheSize_, bufferPool_);
+    }
+
+    @Nullable
+    private InputStream dedup(@Nullable final InputStream boiled) {
+        if (boiled == null || dedupCacheSize_ == 0L) {
+            return boiled;
+        }
+        return DedupInputStream.getInstance(boiled, dedupCacheSize_, bufferPool_);
+    }
+
+    @Nullable
+    private InputStream newInputStream(final InputStream is,
+                                       @Nullable final Runnable onReady) throws IOException {
+        // Only a feed comes with a callback.
+        final boolean feed = (onReady != null);
+        if (feed && Boiler.Strategery.ZSTD.equals(strategery_)) {
+            // Otherwise, a read that happens to come up empty is taken for a truncated stream.
+            return BoiledZstdInputStream.getInstance(is, zstdLongWindow_, true, zstdDictDecompress_);
+        }
+        InputStream boiled = null;
+        switch (strategery_) {
+            case ZLIB:
+                boiled = BoiledZLIBInputStream.getInstance(is, bufferPool_, zlibPool_, dictionary_);
+                break;
+            case ZLIB_STREAM:
+                boiled = BoiledZLIBInputStream.getStreamingInstance(is, bufferPool_, zlibPool_, dictionary_);
+                break;
+            case LZF:
+                boiled = BoiledLZFInputStream.getInstance(is);
+                break;
+            case SNAPPY:
+                boiled = BoiledSnappyFramedInputStream.getInstance(is);
+                break;
+            case ZSTD:
+                boiled = BoiledZstdInputStream.getInstance(is, zstdLongWindow_, false, zstdDictDecompress_);
+                break;
+            case LZ4:
+                boiled = BoiledLZ4BlockInputStream.getInstance(is);
+                break;
+            case ADAPTIVE:
+                boiled = BoiledAdaptiveInputStream.getInstance(is, bufferPool_);
+                break;
+            case PARALLEL:
+                boiled = (feed) ?
+                    BoiledParallelInputStream.getFeedInstance(is, bufferPool_, parallelExecutor_, parallelism_, onReady) :
+                    BoiledParallelInputStream.getInstance(is, bufferPool_, parallelExecutor_, parallelism_);
+                break;
+        }
+        return boiled;
+    }
+
+    @Nullable
+    private OutputStream newOutputStream(final OutputStream os) throws IOException {
+        OutputStream boiled = null;
+        switch (strategery_) {
+            case ZLIB:
+                boiled = BoiledZLIBOutputStream.getInstance(os, bufferSize_, zlibLevel_,
+                    zlibStrategy_.getStrategy(), bufferPool_, zlibPool_, dictionary_);
+                break;
+            case ZLIB_STREAM:
+                boiled = BoiledZLIBOutputStream.getStreamingInstance(os, bufferSize_, zlibLevel_,
+                    zlibStrategy_.getStrategy(), bufferPool_, zlibPool_, dictionary_);
+                break;
+            case LZF:
+                boiled = BoiledLZFOutputStream.getInstance(os);
+                break;
+            case SNAPPY:
+                boiled = BoiledSnappyFramedOutputStream.getInstance(os);
+                break;
+            case ZSTD:
+                boiled = BoiledZstdOutputStream.getInstance(os, zstdLevel_, zstdLongWindow_, zstdDictCompress_);
+                break;
+            case LZ4:
+                boiled = BoiledLZ4BlockOutputStream.getInstance(os, lz4Level_);
+                break;
+            case ADAPTIVE:
+                boiled = BoiledAdaptiveOutputStream.getInstance(os, bufferSize_, adaptiveCodec_,
+                    getLevel(adaptiveCodec_), bufferPool_);
+                break;
+            case PARALLEL:
+                boiled = BoiledParallelOutputStream.getInstance(os, parallelBlockSize_, adaptiveCodec_,
+                    getLevel(adaptiveCodec_), bufferPool_, parallelExecutor_, parallelism_);
+                break;
+        }
+        return boiled;
+    }
+
+    public static final class Builder {
+
+        private final Boiler.Strategery strategery_;
+
+        private int bufferSize_ = 4096;
+
+        private FlushPolicy flushPolicy_ = FlushPolicy.IMMEDIATE;
+
+        private int zlibLevel_ = DEFAULT_ZLIB_LEVEL;
+        private ZLIBStrategy zlibStrategy_ = ZLIBStrategy.DEFAULT;
+
+        private int zstdLevel_ = DEFAULT_ZSTD_LEVEL;
+        private int zstdLongWindow_ = 0;
+
+        private int lz4Level_ = BoiledLZ4BlockOutputStream.FAST_LEVEL;
+
+        private BlockCodec adaptiveCodec_ = BlockCodec.ZSTD;
+
+        private int parallelBlockSize_ = DEFAULT_PARALLEL_BLOCK_SIZE;
+        private int parallelism_ = Runtime.getRuntime().availableProcessors();
+        private ExecutorService parallelExecutor_ = null;
+
+        private long dedupCacheSize_ = 0L;
+
+        private PresetDictionary dictionary_ = null;
+
+        private BufferPool bufferPool_ = null;
+
+        private ZLIBPool zlibPool_ = null;
+
+        private Shaper shaper_ = null;
+
+        private Metrics metrics_ = null;
+
+        @ParametersAreNonnullByDefault
+        public Builder(final Boiler.Strategery strategery) {
+            strategery_ = checkNotNull(strategery, "Strategery cannot be null.");
+        }
+
+        public final Builder setBufferSize(final int bufferSize) {
+            checkArgument(bufferSize > 0, "Buffer size must be greater than zero.");
+            bufferSize_ = bufferSize;
+            return this;
+        }
+
+        @ParametersAreNonnullByDefault
+        public final Builder setFlushPolicy(final FlushPolicy flushPolicy) {
+            flushPolicy_ = checkNotNull(flushPolicy, "Flush policy cannot be null.");
+            return this;
+        }
+
+        public final Builder setZLIBLevel(final int zlibLevel) {
+            checkArgument(zlibLevel == Deflater.DEFAULT_COMPRESSION ||
+                (zlibLevel >= Deflater.NO_COMPRESSION && zlibLevel <= Deflater.BEST_COMPRESSION),
+                "ZLIB level must be between 0 and 9, or -1 for the default.");
+            zlibLevel_ = zlibLevel;
+            return this;
+        }
+
+        @ParametersAreNonnullByDefault
+        public final Builder setZLIBStrategy(final ZLIBStrategy zlibStrategy) {
+            zlibStrategy_ = checkNotNull(zlibStrategy, "ZLIB strategy cannot be null.");
+            return this;
+        }
+
+        public final Builder setZstdLevel(final int zstdLevel) {
+            checkArgument(zstdLevel >= MIN_ZSTD_LEVEL && zstdLevel <= MAX_ZSTD_LEVEL,
+                "Zstd level must be between " + MIN_ZSTD_LEVEL + " and " + MAX_ZSTD_LEVEL + ".");
+            zstdLevel_ = zstdLevel;
+            return this;
+        }
+
+        public final Builder setZstdLongWindow(final int zstdLongWindow) {
+            checkArgument(zstdLongWindow == 0 || (zstdLongWindow >= MIN_ZSTD_WINDOW &&
+                zstdLongWindow <= MAX_ZSTD_WINDOW), "Zstd long window must be between " + MIN_ZSTD_WINDOW +
+                " and " + MAX_ZSTD_WINDOW + ", or 0 to disable.");
+            zstdLongWindow_ = zstdLongWindow;
+            return this;
+        }
+
+        public final Builder setLZ4Level(final int lz4Level) {
+            checkArgument(lz4Level >= BoiledLZ4BlockOutputStream.FAST_LEVEL && lz4Level <= MAX_LZ4_LEVEL,
+                "LZ4 level must be between 1 and " + MAX_LZ4_LEVEL + ", or 0 for the fast compressor.");
+            lz4Level_ = lz4Level;
+            return this;
+        }
+
+        /**
+         * Sets the preferred codec of the adaptive strategery, which it steps
+         * down from while compression isn't paying off, and the codec of the
+         * parallel strategery.
+         */
+        @ParametersAreNonnullByDefault
+        public final Builder setAdaptiveCodec(final BlockCodec adaptiveCodec) {
+            adaptiveCodec_ = checkNotNull(adaptiveCodec, "Adaptive codec cannot be null.");
+            return this;
+        }
+
+        /**
+         * Sets the size of the blocks the parallel strategery splits each
+         * stream into.
+         */
+        public final Builder setParallelBlockSize(final int parallelBlockSize) {
+            checkArgument(parallelBlockSize > 0, "Parallel block size must be greater than zero.");
+            parallelBlockSize_ = parallelBlockSize;
+            return this;
+        }
+
+        /**
+         * Sets the most blocks of each stream the parallel strategery has in
+         * flight at once.
+         */
+        public final Builder setParallelism(final int parallelism) {
+            checkArgument(parallelism > 0, "Parallelism must be greater than zero.");
+            parallelism_ = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the workers that the parallel strategery compresses and
+         * decompresses blocks on; unless set, the common fork-join pool.
+         */
+        @ParametersAreNonnullByDefault
+        public final Builder setParallelExecutor(final ExecutorService parallelExecutor) {
+            parallelExecutor_ = checkNotNull(parallelExecutor, "Parallel executor cannot be null.");
+            return this;
+        }
+
+        /**
+         * Sets the size of the chunk cache each boiled stream deduplicates
+         * against, or 0 to not deduplicate at all; the decompressing side
+         * refuses streams whose cache is larger than its own.
+         */
+        public final Builder setDedupCacheSize(final long dedupCacheSize) {
+            checkArgument(dedupCacheSize >= 0L, "Dedup cache size cannot be negative.");
+            dedupCacheSize_ = dedupCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets the dictionary preloaded into every compressor and decompressor,
+         * for the ZLIB and Zstandard strategeries; both sides must use the same.
+         */
+        @ParametersAreNonnullByDefault
+        public final Builder setDictionary(final PresetDictionary dictionary) {
+            checkArgument(Boiler.Strategery.ZLIB.equals(strategery_) ||
+                Boiler.Strategery.ZLIB_STREAM.equals(strategery_) || Boiler.Strategery.ZSTD.equals(strategery_),
+                "Dictionaries only apply to the ZLIB, ZLIB_STREAM, and ZSTD strategeries.");
+            dictionary_ = checkNotNull(dictionary, "Dictionary cannot be null.");
+            return this;
+        }
+
+        /**
+         * Sets the pool that sessions lease their buffers from; unless set,
+         * each codec gets a pool of its own.
+         */
+        @ParametersAreNonnullByDefault
+        public final Builder setBufferPool(final BufferPool bufferPool) {
+            bufferPool_ = checkNotNull(bufferPool, "Buffer pool cannot be null.");
+            return this;
+        }
+
+        /**
+         * Sets the pool that sessions lease their deflaters and inflaters from;
+         * unless set, each codec gets a pool of its own.
+         */
+        @ParametersAreNonnullByDefault
+        public final Builder setZLIBPool(final ZLIBPool zlibPool) {
+            zlibPool_ = checkNotNull(zlibPool, "ZLIB pool cannot be null.");
+            return this;
+        }
+
+        /**
+         * Sets the shaper that every boiled output stream, as sent over the
+         * link, is shaped by; unless set, streams are sent as fast as they
+         * can be.  Shaped streams block their writers while throttled.
+         */
+        @ParametersAreNonnullByDefault
+        public final Builder setShaper(final Shaper shaper) {
+            shaper_ = checkNotNull(shaper, "Shaper cannot be null.");
+            return this;
+        }
+
+        /**
+         * Sets the metrics that every boiled stream is metered into; unless
+         * set, streams aren't metered at all.
+         */
+        @ParametersAreNonnullByDefault
+        public final Builder setMetrics(final Metrics metrics) {
+            metrics_ = checkNotNull(metrics, "Metrics cannot be null.");
+            return this;
+        }
+
+        public final Codec build() {
+            if (bufferPool_ == null) {
+                bufferPool_ = new BufferPool();
+            }
+            if (zlibPool_ == null) {
+                zlibPool_ = new ZLIBPool();
+            }
+            if (parallelExecutor_ == null) {
+                parallelExecutor_ = ForkJoinPool.commonPool();
+            }
+            return new Codec(this);
+        }
+
+    }
+
+}
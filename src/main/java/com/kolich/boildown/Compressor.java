@@ -26,6 +26,7 @@
 
 package com.kolich.boildown;
 
+import com.kolich.boildown.pool.BufferPool;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,44 +37,68 @@ import java.io.OutputStream;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public final class Compressor extends Thread {
+public final class Compressor implements Runnable {
 
     private static final Logger log = LoggerFactory.getLogger(Compressor.class);
 
     private final InputStream in_;
     private final OutputStream boiled_;
     private final int bufferSize_;
+    private final BufferPool bufferPool_;
+    private final FlushPolicy flushPolicy_;
+
+    private volatile boolean failed_ = false;
 
     @ParametersAreNonnullByDefault
     public Compressor(final InputStream in,
                       final OutputStream boiled,
-                      final int bufferSize) throws Exception {
-        super("boildown-compressor");
-        setDaemon(true);
+                      final int bufferSize,
+                      final FlushPolicy flushPolicy,
+                      final BufferPool bufferPool) throws Exception {
         in_ = checkNotNull(in, "Input stream cannot be null.");
         boiled_ = checkNotNull(boiled, "Boiled output stream cannot be null.");
         bufferSize_ = bufferSize;
+        flushPolicy_ = checkNotNull(flushPolicy, "Flush policy cannot be null.");
+        bufferPool_ = checkNotNull(bufferPool, "Buffer pool cannot be null.");
     }
 
     @Override
     public final void run() {
+        final byte[] buffer = bufferPool_.lease(bufferSize_);
         try {
-            byte[] buffer = new byte[bufferSize_];
-            int n = 0;
-            while (-1 != (n = in_.read(buffer))) {
+            int n = 0, pending = 0;
+            long pendingSince = 0L;
+            while (-1 != (n = in_.read(buffer, 0, bufferSize_))) {
                 boiled_.write(buffer, 0, n);
-                boiled_.flush();
+                if (pending == 0) {
+                    pendingSince = System.nanoTime();
+                }
+                pending += n;
+                // Coalesce reads into a larger block while more input is already waiting.
+                if (flushPolicy_.shouldFlush(pending, pendingSince, in_.available())) {
+                    boiled_.flush();
+                    pending = 0;
+                }
             }
         } catch (Exception e) {
+            failed_ = true;
             final String message = e.getMessage();
             // Only log an ERROR if the exception is unrelated to sockets closing.
             if (message != null && !message.contains("Socket closed")) {
                 log.error("Compressor failure.", e);
             }
         } finally {
+            bufferPool_.release(buffer);
             IOUtils.closeQuietly(in_);
             IOUtils.closeQuietly(boiled_);
         }
     }
 
+    /**
+     * Whether the pump stopped on an error, rather than at the end of its input.
+     */
+    public final boolean isFailed() {
+        return failed_;
+    }
+
 }
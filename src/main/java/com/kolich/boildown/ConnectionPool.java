@@ -0,0 +1,434 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Connections to a forward target, made ahead of time so a new session can
+ * start forwarding at once, rather than after the target's name is resolved
+ * and a TCP handshake crosses the WAN.  A maintainer thread keeps at least
+ * {@code minIdle} connections idle, and up to {@code maxIdle} while sessions
+ * start faster than that; when a session takes one, it's replaced right
+ * away.  Idle connections are checked every few seconds, and closed once the
+ * target has hung up on them, or they've been idle for {@code maxIdleTime},
+ * which should be shorter than any idle timeout of the target's.  A target
+ * that speaks first (SSH, SMTP, etc.) is fine; what it sends is left for the
+ * session to read.
+ *
+ * With no idle connections (the default), it only connects on demand, to an
+ * address from the {@link AddressCache}.
+ */
+public final class ConnectionPool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+    public static final long DEFAULT_MAX_IDLE_TIME_MS = 30000L;
+
+    /**
+     * How often idle connections are checked, and how long the maintainer
+     * backs off after failing to connect.
+     */
+    private static final long CHECK_INTERVAL_MS = 5000L;
+
+    /**
+     * Sessions started within this window are how many connections are kept
+     * idle, between {@code minIdle} and {@code maxIdle}.
+     */
+    private static final long DEMAND_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    private static final class Idle {
+
+        private final Socket socket_;
+        private final long connectedAt_;
+
+        private Idle(final Socket socket) {
+            socket_ = socket;
+            connectedAt_ = System.nanoTime();
+        }
+
+    }
+
+    private final String host_;
+    private final int port_;
+
+    private final SocketOptions options_;
+
+    private final AddressCache addresses_;
+
+    private final int minIdle_;
+    private final int maxIdle_;
+    private final long maxIdleTimeNanos_;
+
+    /**
+     * Newest first; sessions take the oldest, so few are left to age out.
+     */
+    private final BlockingDeque<Idle> idle_ = new LinkedBlockingDeque<>();
+
+    /**
+     * Null unless connections are kept idle.
+     */
+    @Nullable
+    private final Thread maintainer_;
+    private final Object signal_ = new Object();
+    private boolean signaled_ = false;
+
+    private volatile boolean closed_ = false;
+
+    /**
+     * Sessions started in the current, and last, demand window.
+     */
+    private long windowStart_ = System.nanoTime();
+    private int windowLeases_ = 0;
+    private int demand_ = 0;
+
+    private final AtomicLong hits_ = new AtomicLong();
+    private final AtomicLong misses_ = new AtomicLong();
+    private final AtomicLong evicted_ = new AtomicLong();
+
+    private ConnectionPool(final Builder builder) {
+        host_ = builder.host_;
+        port_ = builder.port_;
+        options_ = builder.options_;
+        addresses_ = builder.addresses_;
+        minIdle_ = builder.minIdle_;
+        maxIdle_ = builder.maxIdle_;
+        maxIdleTimeNanos_ = builder.maxIdleTimeNanos_;
+        if (maxIdle_ > 0) {
+            maintainer_ = builder.threadFactory_.newThread(this::maintain);
+            maintainer_.start();
+        } else {
+            maintainer_ = null;
+        }
+    }
+
+    public final String getHost() {
+        return host_;
+    }
+
+    public final int getPort() {
+        return port_;
+    }
+
+    public final int getIdle() {
+        return idle_.size();
+    }
+
+    /**
+     * Number of sessions that got an idle connection.
+     */
+    public final long getHits() {
+        return hits_.get();
+    }
+
+    /**
+     * Number of sessions that had to wait on a connection of their own.
+     */
+    public final long getMisses() {
+        return misses_.get();
+    }
+
+    /**
+     * Number of idle connections closed, having gone stale.
+     */
+    public final long getEvicted() {
+        return evicted_.get();
+    }
+
+    /**
+     * Resolves the target's address, from the cache if it's there.
+     */
+    public final InetSocketAddress resolve() throws IOException {
+        return addresses_.resolve(host_, port_);
+    }
+
+    /**
+     * Returns a connection to the target, for the caller to close; an idle
+     * one if there is one, or else a new one.
+     */
+    public final Socket lease() throws IOException {
+        if (maintainer_ != null) {
+            Idle idle;
+            while ((idle = idle_.pollLast()) != null) {
+                if (isFresh(idle) && !idle.socket_.isClosed()) {
+                    hits_.incrementAndGet();
+                    leased();
+                    return idle.socket_;
+                }
+                evict(idle);
+            }
+            leased();
+        }
+        misses_.incrementAndGet();
+        return connect();
+    }
+
+    /**
+     * Connects to the target, and hangs up right away; fails if the target
+     * can't be reached.
+     */
+    public final void probe() throws IOException {
+        connect().close();
+    }
+
+    private Socket connect() throws IOException {
+        try {
+            return options_.connect(resolve());
+        } catch (IOException e) {
+            // In case the target moved.
+            addresses_.invalidate(host_);
+            throw e;
+        }
+    }
+
+    private void leased() {
+        synchronized (signal_) {
+            final long now = System.nanoTime();
+            if (now - windowStart_ >= DEMAND_WINDOW_NANOS) {
+                demand_ = (now - windowStart_ < 2L * DEMAND_WINDOW_NANOS) ? windowLeases_ : 0;
+                windowStart_ = now;
+                windowLeases_ = 0;
+            }
+            demand_ = Math.max(demand_, ++windowLeases_);
+            signaled_ = true;
+            signal_.notifyAll();
+        }
+    }
+
+    private int getTarget() {
+        synchronized (signal_) {
+            if (System.nanoTime() - windowStart_ >= 2L * DEMAND_WINDOW_NANOS) {
+                demand_ = 0; // No sessions lately.
+            }
+            return Math.min(maxIdle_, Math.max(minIdle_, demand_));
+        }
+    }
+
+    private void maintain() {
+        long checkedAt = System.nanoTime();
+        while (!closed_) {
+            try {
+                if (System.nanoTime() - checkedAt >= TimeUnit.MILLISECONDS.toNanos(CHECK_INTERVAL_MS)) {
+                    check();
+                    checkedAt = System.nanoTime();
+                }
+                while (!closed_ && idle_.size() < getTarget()) {
+                    idle_.offerFirst(new Idle(connect()));
+                }
+                // Too many, once sessions slow down.
+                Idle idle;
+                while (idle_.size() > getTarget() && (idle = idle_.pollLast()) != null) {
+                    evict(idle);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to connect ahead to {}:{}", host_, port_, e);
+            }
+            synchronized (signal_) {
+                try {
+                    if (!signaled_ && !closed_) {
+                        signal_.wait(CHECK_INTERVAL_MS);
+                    }
+                    signaled_ = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks every idle connection, oldest first, and puts back the ones still
+     * good; one at a time, so the rest stay available to sessions meanwhile.
+     */
+    private void check() {
+        for (int i = idle_.size(); i > 0 && !closed_; i--) {
+            final Idle idle = idle_.pollLast();
+            if (idle == null) {
+                break;
+            } else if (isFresh(idle) && isOpen(idle.socket_)) {
+                idle_.offerFirst(idle);
+            } else {
+                evict(idle);
+            }
+        }
+    }
+
+    private boolean isFresh(final Idle idle) {
+        return System.nanoTime() - idle.connectedAt_ < maxIdleTimeNanos_;
+    }
+
+    /**
+     * Whether the target has yet to hang up on an idle connection.  There's
+     * no peeking at a blocking socket, so a connection with nothing to read
+     * is probed with a read that times out right away; one that turns up a
+     * byte after all is closed, since that byte can't be put back.
+     */
+    private static boolean isOpen(final Socket socket) {
+        if (socket.isClosed() || socket.isInputShutdown()) {
+            return false;
+        }
+        try {
+            final InputStream in = socket.getInputStream();
+            if (in.available() > 0) {
+                return true; // The target spoke first.
+            }
+            final int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            try {
+                in.read();
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void evict(final Idle idle) {
+        evicted_.incrementAndGet();
+        IOUtils.closeQuietly(idle.socket_);
+    }
+
+    /**
+     * Closes every idle connection, and stops connecting ahead.
+     */
+    @Override
+    public final void close() {
+        closed_ = true;
+        synchronized (signal_) {
+            signal_.notifyAll();
+        }
+        if (maintainer_ != null) {
+            try {
+                maintainer_.join(CHECK_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Idle idle;
+        while ((idle = idle_.pollLast()) != null) {
+            IOUtils.closeQuietly(idle.socket_);
+        }
+    }
+
+    public static final class Builder {
+
+        private final String host_;
+        private final int port_;
+
+        private SocketOptions options_ = SocketOptions.DEFAULT;
+
+        private AddressCache addresses_ = AddressCache.NONE;
+
+        private int minIdle_ = 0;
+        private int maxIdle_ = 0;
+        private long maxIdleTimeNanos_ = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_IDLE_TIME_MS);
+
+        private ThreadFactory threadFactory_ = null;
+
+        @ParametersAreNonnullByDefault
+        public Builder(final String host,
+                       final int port) {
+            host_ = checkNotNull(host, "Forwarding host cannot be null.");
+            checkArgument(port > 0 && port < 65536, "Forwarding port must be between 1 and 65535.");
+            port_ = port;
+        }
+
+        @ParametersAreNonnullByDefault
+        public final Builder setOptions(final SocketOptions options) {
+            options_ = checkNotNull(options, "Socket options cannot be null.");
+            return this;
+        }
+
+        @ParametersAreNonnullByDefault
+        public final Builder setAddressCache(final AddressCache addresses) {
+            addresses_ = checkNotNull(addresses, "Address cache cannot be null.");
+            return this;
+        }
+
+        /**
+         * Sets the fewest connections kept idle, and the most, while sessions
+         * start faster than that; both 0 (the default) to only connect on demand.
+         */
+        public final Builder setIdle(final int minIdle,
+                                     final int maxIdle) {
+            checkArgument(minIdle >= 0, "Min idle cannot be negative.");
+            checkArgument(maxIdle >= minIdle, "Max idle cannot be less than min idle.");
+            minIdle_ = minIdle;
+            maxIdle_ = maxIdle;
+            return this;
+        }
+
+        public final Builder setMaxIdleTime(final long maxIdleTime,
+                                            final TimeUnit unit) {
+            checkArgument(maxIdleTime > 0L, "Max idle time must be greater than zero.");
+            maxIdleTimeNanos_ = unit.toNanos(maxIdleTime);
+            return this;
+        }
+
+        /**
+         * Sets the factory of the maintainer thread, which must be a daemon;
+         * only needed if connections are kept idle.
+         */
+        @ParametersAreNonnullByDefault
+        public final Builder setThreadFactory(final ThreadFactory threadFactory) {
+            threadFactory_ = checkNotNull(threadFactory, "Thread factory cannot be null.");
+            return this;
+        }
+
+        public final ConnectionPool build() {
+            checkArgument(maxIdle_ == 0 || threadFactory_ != null,
+                "Thread factory cannot be null if connections are kept idle.");
+            return new ConnectionPool(this);
+        }
+
+    }
+
+}
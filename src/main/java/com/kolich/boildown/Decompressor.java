@@ -26,6 +26,7 @@
 
 package com.kolich.boildown;
 
+import com.kolich.boildown.pool.BufferPool;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,44 +37,56 @@ import java.io.OutputStream;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public final class Decompressor extends Thread {
+public final class Decompressor implements Runnable {
 
     private static final Logger log = LoggerFactory.getLogger(Compressor.class);
 
     private final InputStream boiled_;
     private final OutputStream out_;
     private final int bufferSize_;
+    private final BufferPool bufferPool_;
+
+    private volatile boolean failed_ = false;
 
     @ParametersAreNonnullByDefault
     public Decompressor(final InputStream boiled,
                         final OutputStream out,
-                        final int bufferSize) throws Exception {
-        super("boildown-decompressor");
-        setDaemon(true);
+                        final int bufferSize,
+                        final BufferPool bufferPool) throws Exception {
         boiled_ = checkNotNull(boiled, "Boiled input stream cannot be null.");
         out_ = checkNotNull(out, "Output stream cannot be null.");
         bufferSize_ = bufferSize;
+        bufferPool_ = checkNotNull(bufferPool, "Buffer pool cannot be null.");
     }
 
     @Override
     public final void run() {
+        final byte[] buffer = bufferPool_.lease(bufferSize_);
         try {
-            byte[] buffer = new byte[bufferSize_];
             int n = 0;
-            while (-1 != (n = boiled_.read(buffer))) {
+            while (-1 != (n = boiled_.read(buffer, 0, bufferSize_))) {
                 out_.write(buffer, 0, n);
                 out_.flush();
             }
         } catch (Exception e) {
+            failed_ = true;
             final String message = e.getMessage();
             // Only log an ERROR if the exception is unrelated to sockets closing.
             if (message != null && !message.contains("Socket closed")) {
                 log.error("Decompressor failure.", e);
             }
         } finally {
+            bufferPool_.release(buffer);
             IOUtils.closeQuietly(boiled_);
             IOUtils.closeQuietly(out_);
         }
     }
 
+    /**
+     * Whether the pump stopped on an error, rather than at the end of its input.
+     */
+    public final boolean isFailed() {
+        return failed_;
+    }
+
 }
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown;
+
+import com.kolich.boildown.pool.BufferPool;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compresses or decompresses a file, or stdin to stdout, with a {@link Codec},
+ * in exactly the format it's sent over the wire: so a file compressed here can
+ * be sent through a decompressing side as is, and vice versa.  Input files are
+ * read through memory-mapped regions, rather than copied in by read calls; with
+ * {@link Boiler.Strategery#PARALLEL}, blocks are compressed, and decompressed,
+ * on several cores.
+ */
+public final class FileBoiler {
+
+    /**
+     * Size of each memory-mapped region of an input file.
+     */
+    public static final long REGION_SIZE = 64L * 1024L * 1024L;
+
+    /**
+     * Output is written in chunks of this size, rather than a block at a time.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final Codec codec_;
+
+    private final Boiler.CompressionMethod method_;
+
+    @ParametersAreNonnullByDefault
+    public FileBoiler(final Codec codec,
+                      final Boiler.CompressionMethod method) {
+        codec_ = checkNotNull(codec, "Codec cannot be null.");
+        method_ = checkNotNull(method, "Compression method cannot be null.");
+    }
+
+    /**
+     * Boils the given input file, or stdin if null, to the given output file,
+     * or stdout if null; returns the number of bytes written.
+     */
+    public final long boil(@Nullable final File input,
+                           @Nullable final File output) throws IOException {
+        try (FileChannel channel = (input != null) ?
+                FileChannel.open(input.toPath(), StandardOpenOption.READ) : null;
+             InputStream in = (channel != null) ?
+                 new MappedInputStream(channel) : new FileInputStream(FileDescriptor.in);
+             CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream((output != null) ?
+                 Files.newOutputStream(output.toPath()) : new FileOutputStream(FileDescriptor.out),
+                 OUTPUT_BUFFER_SIZE))) {
+            if (Boiler.CompressionMethod.COMPRESS.equals(method_)) {
+                try (OutputStream boiled = codec_.boil(out)) {
+                    copy(in, boiled);
+                }
+            } else {
+                try (InputStream boiled = codec_.boil(in)) {
+                    copy(boiled, out);
+                }
+            }
+            return out.count_;
+        }
+    }
+
+    private void copy(final InputStream in,
+                      final OutputStream out) throws IOException {
+        final int bufferSize = codec_.getBufferSize();
+        final BufferPool bufferPool = codec_.getBufferPool();
+        final byte[] buffer = bufferPool.lease(bufferSize);
+        try {
+            int n;
+            while (-1 != (n = in.read(buffer, 0, bufferSize))) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Reads a file one memory-mapped region at a time, leaving each to be
+     * unmapped once it's collected.
+     */
+    private static final class MappedInputStream extends InputStream {
+
+        private final FileChannel channel_;
+        private final long size_;
+
+        private long position_ = 0L;
+
+        @Nullable
+        private MappedByteBuffer region_ = null;
+
+        private MappedInputStream(final FileChannel channel) throws IOException {
+            channel_ = channel;
+            size_ = channel.size();
+        }
+
+        /**
+         * Returns false once the whole file has been read.
+         */
+        private boolean fill() throws IOException {
+            if (region_ != null && region_.hasRemaining()) {
+                return true;
+            } else if (position_ >= size_) {
+                return false;
+            }
+            final long length = Math.min(REGION_SIZE, size_ - position_);
+            region_ = channel_.map(FileChannel.MapMode.READ_ONLY, position_, length);
+            position_ += length;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? region_.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b,
+                        final int off,
+                        final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            } else if (!fill()) {
+                return -1;
+            }
+            final int n = Math.min(len, region_.remaining());
+            region_.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            final long remaining = ((region_ != null) ? region_.remaining() : 0L) + (size_ - position_);
+            return (int)Math.min(remaining, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() {
+            // The channel is closed by its owner.
+            region_ = null;
+        }
+
+    }
+
+    /**
+     * Counts the bytes written, before they're buffered.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count_ = 0L;
+
+        private CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count_++;
+        }
+
+        @Override
+        public void write(final byte[] b,
+                          final int off,
+                          final int len) throws IOException {
+            out.write(b, off, len);
+            count_ += len;
+        }
+
+    }
+
+}
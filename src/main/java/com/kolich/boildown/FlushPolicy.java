@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Decides when a compressor pump should flush what it has written so far
+ * into a boiled block.  Reads are coalesced while more input is already
+ * waiting, until either {@code maxBytes} are pending or the oldest pending
+ * byte has waited {@code maxDelay}; as soon as the input goes idle, whatever
+ * is pending is flushed right away, so interactive traffic never waits.
+ */
+public final class FlushPolicy {
+
+    /**
+     * Flushes after every read, regardless of what's pending.
+     */
+    public static final FlushPolicy IMMEDIATE = new FlushPolicy(0, 0L, TimeUnit.NANOSECONDS);
+
+    /**
+     * Flushes only once the input goes idle, however much is pending.
+     */
+    public static final FlushPolicy IDLE = new FlushPolicy(Integer.MAX_VALUE, Long.MAX_VALUE,
+        TimeUnit.NANOSECONDS);
+
+    private final int maxBytes_;
+
+    private final long maxDelayNanos_;
+
+    public FlushPolicy(final int maxBytes,
+                       final long maxDelay,
+                       final TimeUnit unit) {
+        checkArgument(maxBytes >= 0, "Max bytes cannot be negative.");
+        checkArgument(maxDelay >= 0L, "Max delay cannot be negative.");
+        maxBytes_ = maxBytes;
+        maxDelayNanos_ = unit.toNanos(maxDelay);
+    }
+
+    /**
+     * @param pending number of bytes written since the last flush
+     * @param pendingSince {@link System#nanoTime()} of the first write since the last flush
+     * @param available number of input bytes that can be read without blocking
+     */
+    public final boolean shouldFlush(final int pending,
+                                     final long pendingSince,
+                                     final int available) {
+        return available <= 0 || pending >= maxBytes_ ||
+            System.nanoTime() - pendingSince >= maxDelayNanos_;
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A single listener: accepts clients on its own thread, and admits them to
+ * its engine.  Any number of forwarders can run in one process, sharing the
+ * engines' threads, pools, and metrics.
+ *
+ * With more than one acceptor, each accepts on a listener of its own, all
+ * bound to the same port with SO_REUSEPORT, and the kernel spreads incoming
+ * connections between them.
+ */
+final class Forwarder implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(Forwarder.class);
+
+    private final String name_;
+
+    private final Engine engine_;
+    private final Admission admission_;
+
+    private final List<ServerSocket> listeners_;
+
+    private volatile boolean closed_ = false;
+
+    @ParametersAreNonnullByDefault
+    Forwarder(final String name,
+              final Engine engine,
+              final Admission admission,
+              final int listenPort,
+              final int acceptors) throws IOException {
+        name_ = checkNotNull(name, "Forwarder name cannot be null.");
+        engine_ = checkNotNull(engine, "Engine cannot be null.");
+        admission_ = checkNotNull(admission, "Admission cannot be null.");
+        checkArgument(acceptors > 0, "Number of acceptors must be positive.");
+        listeners_ = new ArrayList<>(acceptors);
+        try {
+            for (int i = 0; i < acceptors; i++) {
+                listeners_.add(engine.listen(listenPort));
+            }
+        } catch (Exception e) {
+            for (final ServerSocket listener : listeners_) {
+                IOUtils.closeQuietly(listener);
+            }
+            throw e;
+        }
+    }
+
+    final String getName() {
+        return name_;
+    }
+
+    /**
+     * Starts accepting clients on a new thread per acceptor; {@code onStop}
+     * runs once any of them stops accepting, for whatever reason.
+     */
+    final void start(final ThreadFactory threadFactory,
+                     final Runnable onStop) {
+        for (final ServerSocket listener : listeners_) {
+            threadFactory.newThread(() -> {
+                try {
+                    // Run loop!
+                    while (true) {
+                        // Blocks, waiting for new connections.
+                        final Socket client = listener.accept();
+                        admission_.admit(client);
+                    }
+                } catch (Exception e) {
+                    if (!closed_) {
+                        log.error("Exception in run-loop of forwarder: {}", name_, e);
+                    }
+                } finally {
+                    onStop.run();
+                }
+            }).start();
+        }
+    }
+
+    @Override
+    public final void close() {
+        closed_ = true;
+        for (final ServerSocket listener : listeners_) {
+            IOUtils.closeQuietly(listener);
+        }
+        IOUtils.closeQuietly(admission_);
+        IOUtils.closeQuietly(engine_);
+    }
+
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.Closeable;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Tears down sessions that have stalled, so they give back their session slot
+ * and threads.  A session is reaped once neither of its directions has read
+ * anything for the idle timeout, or once one direction has finished and the
+ * other hasn't read anything for the half-close timeout.  Either timeout may
+ * be zero, to never reap for that reason.
+ */
+public final class Reaper implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(Reaper.class);
+
+    /**
+     * Default time, in milliseconds, a half-closed session may go without reading
+     * anything before it's reaped.
+     */
+    public static final long DEFAULT_HALF_CLOSE_TIMEOUT_MS = 60000L;
+
+    /**
+     * Reaps nothing, and tracks nothing.
+     */
+    public static final Reaper NONE = new Reaper();
+
+    private static final long MAX_SCAN_INTERVAL_MS = 1000L;
+
+    /**
+     * One session, as tracked by the reaper, from the time both of its sockets
+     * are connected until it's closed.
+     */
+    public static final class Session implements Closeable {
+
+        private final Reaper reaper_;
+
+        private final Socket[] sockets_;
+
+        private volatile long lastRead_ = System.nanoTime();
+
+        /**
+         * When the first direction finished, or zero while neither has.
+         */
+        private volatile long halfClosedAt_ = 0L;
+
+        private final AtomicBoolean finished_ = new AtomicBoolean(false);
+        private final AtomicBoolean aborted_ = new AtomicBoolean(false);
+
+        private Session(final Reaper reaper,
+                        final Socket[] sockets) {
+            reaper_ = reaper;
+            sockets_ = sockets;
+        }
+
+        /**
+         * Notes that one direction has just read something.
+         */
+        public final void touch() {
+            lastRead_ = System.nanoTime();
+        }
+
+        /**
+         * Notes that one direction has finished, and half-closed its output.
+         */
+        public final void finish() {
+            if (finished_.compareAndSet(false, true)) {
+                halfClosedAt_ = System.nanoTime();
+            }
+        }
+
+        /**
+         * Hangs up on both ends at once, which fails any read or write blocked on
+         * either socket.
+         */
+        public final void abort() {
+            if (aborted_.compareAndSet(false, true)) {
+                for (final Socket socket : sockets_) {
+                    IOUtils.closeQuietly(socket);
+                }
+            }
+        }
+
+        /**
+         * Stops tracking the session; it leaves the sockets to their owner.
+         */
+        @Override
+        public final void close() {
+            reaper_.sessions_.remove(this);
+        }
+
+    }
+
+    private final long idleTimeoutNanos_;
+    private final long halfCloseTimeoutNanos_;
+
+    private final Set<Session> sessions_ = ConcurrentHashMap.newKeySet();
+
+    @Nullable
+    private final Thread scanner_;
+
+    private final AtomicLong reapedIdle_ = new AtomicLong();
+    private final AtomicLong reapedHalfClosed_ = new AtomicLong();
+
+    private volatile boolean closed_ = false;
+
+    private Reaper() {
+        idleTimeoutNanos_ = 0L;
+        halfCloseTimeoutNanos_ = 0L;
+        scanner_ = null;
+    }
+
+    @ParametersAreNonnullByDefault
+    public Reaper(final long idleTimeout,
+                  final long halfCloseTimeout,
+                  final TimeUnit unit,
+                  final ThreadFactory threadFactory) {
+        checkArgument(idleTimeout >= 0L, "Idle timeout cannot be negative.");
+        checkArgument(halfCloseTimeout >= 0L, "Half-close timeout cannot be negative.");
+        checkNotNull(threadFactory, "Thread factory cannot be null.");
+        idleTimeoutNanos_ = unit.toNanos(idleTimeout);
+        halfCloseTimeoutNanos_ = unit.toNanos(halfCloseTimeout);
+        if (idleTimeoutNanos_ > 0L || halfCloseTimeoutNanos_ > 0L) {
+            scanner_ = threadFactory.newThread(this::scan);
+            scanner_.start();
+        } else {
+            scanner_ = null;
+        }
+    }
+
+    /**
+     * Starts tracking a session between the given sockets; a session that's
+     * reaped has every one of them closed.
+     */
+    @ParametersAreNonnullByDefault
+    public final Session register(final Socket... sockets) {
+        checkNotNull(sockets, "Sockets cannot be null.");
+        checkArgument(sockets.length > 0, "Must have at least one socket.");
+        final Session session = new Session(this, sockets);
+        if (scanner_ != null) {
+            sessions_.add(session);
+        }
+        return session;
+    }
+
+    public final int getTracked() {
+        return sessions_.size();
+    }
+
+    public final long getReapedIdle() {
+        return reapedIdle_.get();
+    }
+
+    public final long getReapedHalfClosed() {
+        return reapedHalfClosed_.get();
+    }
+
+    private void scan() {
+        // Scan a few times per timeout, so sessions are reaped not long after it.
+        final long shortest = Math.min(
+            (idleTimeoutNanos_ > 0L) ? idleTimeoutNanos_ : Long.MAX_VALUE,
+            (halfCloseTimeoutNanos_ > 0L) ? halfCloseTimeoutNanos_ : Long.MAX_VALUE);
+        final long intervalMs = Math.max(1L,
+            Math.min(TimeUnit.NANOSECONDS.toMillis(shortest) / 4L, MAX_SCAN_INTERVAL_MS));
+        while (!closed_) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            final long now = System.nanoTime();
+            for (final Session session : sessions_) {
+                final long idle = now - session.lastRead_;
+                final long halfClosedAt = session.halfClosedAt_;
+                if (idleTimeoutNanos_ > 0L && idle >= idleTimeoutNanos_) {
+                    reapedIdle_.incrementAndGet();
+                    reap(session, "idle");
+                } else if (halfCloseTimeoutNanos_ > 0L && halfClosedAt != 0L &&
+                        now - halfClosedAt >= halfCloseTimeoutNanos_ && idle >= halfCloseTimeoutNanos_) {
+                    reapedHalfClosed_.incrementAndGet();
+                    reap(session, "half-closed");
+                }
+            }
+        }
+    }
+
+    private void reap(final Session session,
+                      final String reason) {
+        sessions_.remove(session);
+        log.debug("Reaping {} session: {}", reason, session.sockets_[0].getRemoteSocketAddress());
+        session.abort();
+    }
+
+    /**
+     * Stops reaping; sessions still tracked are left alone.
+     */
+    @Override
+    public final void close() {
+        closed_ = true;
+        if (scanner_ != null) {
+            scanner_.interrupt();
+        }
+        sessions_.clear();
+    }
+
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Options applied to every socket a forwarder listens on, accepts, or
+ * connects, by whichever engine it runs.  Buffer sizes are set before the
+ * socket is bound or connected, so the TCP window can scale to fit them.
+ *
+ * SO_REUSEPORT needs JDK 9 or newer, and an OS that supports it; like
+ * {@link VirtualThreads}, it's looked up reflectively so the build can still
+ * target Java 8.
+ */
+public final class SocketOptions {
+
+    public static final SocketOptions DEFAULT = new Builder().build();
+
+    /**
+     * {@code StandardSocketOptions.SO_REUSEPORT}, or null before JDK 9.
+     */
+    @Nullable
+    private static final SocketOption<Boolean> SO_REUSEPORT = getReusePortOption();
+
+    private final boolean tcpNoDelay_;
+
+    private final boolean keepAlive_;
+
+    /**
+     * Sizes of the socket's receive and send buffers, or 0 for the OS default.
+     */
+    private final int receiveBufferSize_;
+    private final int sendBufferSize_;
+
+    /**
+     * Whether listeners bind with SO_REUSEPORT, so several of them can accept
+     * on the same port.
+     */
+    private final boolean reusePort_;
+
+    /**
+     * Longest a blocking connect waits on the handshake, in milliseconds, or
+     * 0 to wait as long as the OS does.
+     */
+    private final int connectTimeout_;
+
+    private SocketOptions(final Builder builder) {
+        tcpNoDelay_ = builder.tcpNoDelay_;
+        keepAlive_ = builder.keepAlive_;
+        receiveBufferSize_ = builder.receiveBufferSize_;
+        sendBufferSize_ = builder.sendBufferSize_;
+        reusePort_ = builder.reusePort_;
+        connectTimeout_ = builder.connectTimeout_;
+    }
+
+    public final boolean getTcpNoDelay() {
+        return tcpNoDelay_;
+    }
+
+    public final boolean getKeepAlive() {
+        return keepAlive_;
+    }
+
+    public final int getReceiveBufferSize() {
+        return receiveBufferSize_;
+    }
+
+    public final int getSendBufferSize() {
+        return sendBufferSize_;
+    }
+
+    public final boolean getReusePort() {
+        return reusePort_;
+    }
+
+    public final int getConnectTimeout() {
+        return connectTimeout_;
+    }
+
+    /**
+     * Whether listeners can bind with SO_REUSEPORT on this runtime and OS.
+     */
+    public static final boolean isReusePortSupported() {
+        if (SO_REUSEPORT == null) {
+            return false;
+        }
+        try (final ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a new, bound listener.
+     */
+    public final ServerSocket listen(final int port) throws IOException {
+        final ServerSocket listener = new ServerSocket();
+        try {
+            if (receiveBufferSize_ > 0) {
+                // Accepted sockets inherit it, and it has to be set before the handshake.
+                listener.setReceiveBufferSize(receiveBufferSize_);
+            }
+            if (reusePort_) {
+                setReusePort(listener);
+            }
+            listener.bind(new InetSocketAddress(port));
+            return listener;
+        } catch (Exception e) {
+            listener.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Like {@link #listen(int)}, but backed by a channel, whose accepted
+     * sockets are too.
+     */
+    public final ServerSocketChannel listenChannel(final int port) throws IOException {
+        final ServerSocketChannel listener = ServerSocketChannel.open();
+        try {
+            if (receiveBufferSize_ > 0) {
+                listener.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize_);
+            }
+            if (reusePort_) {
+                listener.setOption(checkReusePort(), true);
+            }
+            listener.bind(new InetSocketAddress(port));
+            return listener;
+        } catch (Exception e) {
+            listener.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a new socket connected to the given host and port.
+     */
+    public final Socket connect(final String host,
+                                final int port) throws IOException {
+        return connect(new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Returns a new socket connected to the given, resolved, address.
+     */
+    public final Socket connect(final InetSocketAddress address) throws IOException {
+        final Socket socket = new Socket();
+        try {
+            configure(socket);
+            socket.connect(address, connectTimeout_);
+            return socket;
+        } catch (Exception e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Applies these options to an accepted, or not yet connected, socket.
+     */
+    public final void configure(final Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcpNoDelay_);
+        socket.setKeepAlive(keepAlive_);
+        if (receiveBufferSize_ > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize_);
+        }
+        if (sendBufferSize_ > 0) {
+            socket.setSendBufferSize(sendBufferSize_);
+        }
+    }
+
+    /**
+     * Applies these options to an accepted, or not yet connected, channel.
+     */
+    public final void configure(final SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay_);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, keepAlive_);
+        if (receiveBufferSize_ > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize_);
+        }
+        if (sendBufferSize_ > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize_);
+        }
+    }
+
+    /**
+     * Equivalent to {@code listener.setOption(StandardSocketOptions.SO_REUSEPORT, true)}.
+     */
+    private static void setReusePort(final ServerSocket listener) throws IOException {
+        final SocketOption<Boolean> option = checkReusePort();
+        try {
+            final Method setOption = ServerSocket.class.getMethod("setOption", SocketOption.class, Object.class);
+            setOption.invoke(listener, option, true);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new UnsupportedOperationException("SO_REUSEPORT is unavailable.", cause);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("SO_REUSEPORT requires JDK 9 or newer.", e);
+        }
+    }
+
+    private static SocketOption<Boolean> checkReusePort() {
+        if (SO_REUSEPORT == null) {
+            throw new UnsupportedOperationException("SO_REUSEPORT requires JDK 9 or newer.");
+        }
+        return SO_REUSEPORT;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> getReusePortOption() {
+        try {
+            return (SocketOption<Boolean>)StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public static final class Builder {
+
+        /**
+         * Codec streams already coalesce writes into blocks, so Nagle's
+         * algorithm would only hold up the small ones.
+         */
+        private boolean tcpNoDelay_ = true;
+
+        private boolean keepAlive_ = false;
+
+        private int receiveBufferSize_ = 0;
+        private int sendBufferSize_ = 0;
+
+        private boolean reusePort_ = false;
+
+        private int connectTimeout_ = 0;
+
+        public final Builder setTcpNoDelay(final boolean tcpNoDelay) {
+            tcpNoDelay_ = tcpNoDelay;
+            return this;
+        }
+
+        public final Builder setKeepAlive(final boolean keepAlive) {
+            keepAlive_ = keepAlive;
+            return this;
+        }
+
+        /**
+         * @param receiveBufferSize in bytes, or 0 for the OS default
+         */
+        public final Builder setReceiveBufferSize(final int receiveBufferSize) {
+            checkArgument(receiveBufferSize >= 0, "Receive buffer size cannot be negative.");
+            receiveBufferSize_ = receiveBufferSize;
+            return this;
+        }
+
+        /**
+         * @param sendBufferSize in bytes, or 0 for the OS default
+         */
+        public final Builder setSendBufferSize(final int sendBufferSize) {
+            checkArgument(sendBufferSize >= 0, "Send buffer size cannot be negative.");
+            sendBufferSize_ = sendBufferSize;
+            return this;
+        }
+
+        public final Builder setReusePort(final boolean reusePort) {
+            reusePort_ = reusePort;
+            return this;
+        }
+
+        /**
+         * @param connectTimeout in milliseconds, or 0 to wait as long as the OS does
+         */
+        public final Builder setConnectTimeout(final int connectTimeout) {
+            checkArgument(connectTimeout >= 0, "Connect timeout cannot be negative.");
+            connectTimeout_ = connectTimeout;
+            return this;
+        }
+
+        public final SocketOptions build() {
+            return new SocketOptions(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads (JDK 21+) from a build that still targets Java 8.
+ * Everything is looked up reflectively, so on older runtimes the methods here
+ * fail with an {@link UnsupportedOperationException} instead of a linkage error.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {}
+
+    public static final boolean isSupported() {
+        try {
+            newThreadFactory("boildown-probe-");
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Equivalent to {@code Thread.ofVirtual().name(prefix, 0).factory()}.
+     */
+    public static final ThreadFactory newThreadFactory(final String prefix) {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+        } catch (InvocationTargetException e) {
+            // e.g., preview features not enabled on JDK 19/20.
+            throw new UnsupportedOperationException("Virtual threads are unavailable.", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or newer.", e);
+        }
+    }
+
+    /**
+     * Equivalent to {@code Executors.newThreadPerTaskExecutor(factory)}, where
+     * every task gets its own new virtual thread.
+     */
+    public static final ExecutorService newThreadPerTaskExecutor(final String prefix) {
+        final ThreadFactory factory = newThreadFactory(prefix);
+        try {
+            final Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+                ThreadFactory.class);
+            return (ExecutorService)newThreadPerTaskExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or newer.", e);
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.dedup;
+
+import net.jpountz.xxhash.XXHash64;
+import net.jpountz.xxhash.XXHashFactory;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Chunks seen on a dedup stream, by hash, bounded by their total size and
+ * evicted least recently used first.  The caches on either end of a stream
+ * are never exchanged; they stay identical because both ends make exactly
+ * the same calls, in the same order, as frames are written and read.
+ *
+ * Not thread safe; each belongs to a single stream.
+ */
+final class DedupCache {
+
+    private static final XXHash64 HASH = XXHashFactory.fastestInstance().hash64();
+
+    private static final long SEED = 0x626f696c646f776eL; // "boildown"
+
+    /**
+     * Rough per-entry overhead of the map, counted against the bound so a
+     * cache full of small chunks doesn't run far past it.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final long capacity_;
+
+    private long size_ = 0L;
+
+    private final LinkedHashMap<Long, byte[]> chunks_ = new LinkedHashMap<>(1024, 0.75f, true);
+
+    DedupCache(final long capacity) {
+        checkArgument(capacity > 0L, "Dedup cache capacity must be greater than zero.");
+        capacity_ = capacity;
+    }
+
+    final long getCapacity() {
+        return capacity_;
+    }
+
+    static long hash(final byte[] b,
+                     final int off,
+                     final int len) {
+        return HASH.hash(b, off, len, SEED);
+    }
+
+    /**
+     * Returns the chunk with the given hash, and marks it most recently used,
+     * or null if there is none.
+     */
+    @Nullable
+    final byte[] get(final long hash) {
+        return chunks_.get(hash);
+    }
+
+    /**
+     * Adds (or replaces) the chunk with the given hash, evicting the least
+     * recently used chunks to make room; chunks too large to ever fit are
+     * never added.
+     */
+    final void put(final long hash,
+                   final byte[] chunk) {
+        final long cost = chunk.length + ENTRY_OVERHEAD;
+        if (cost > capacity_) {
+            return;
+        }
+        final byte[] replaced = chunks_.put(hash, chunk);
+        if (replaced != null) {
+            size_ -= replaced.length + ENTRY_OVERHEAD;
+        }
+        size_ += cost;
+        while (size_ > capacity_) {
+            final Map.Entry<Long, byte[]> eldest = chunks_.entrySet().iterator().next();
+            size_ -= eldest.getValue().length + ENTRY_OVERHEAD;
+            chunks_.remove(eldest.getKey());
+        }
+    }
+
+    /**
+     * Total size, in bytes, of the cached chunks, and their overhead.
+     */
+    final long getSize() {
+        return size_;
+    }
+
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.dedup;
+
+import com.kolich.boildown.pool.BufferPool;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the frames written by {@link DedupOutputStream}, caching every chunk
+ * written in full, and resolving references from the cache.
+ */
+public final class DedupInputStream extends FilterInputStream {
+
+    /**
+     * Largest cache the other end may ask this end to keep.
+     */
+    private final long maxCacheCapacity_;
+
+    /**
+     * Created once the stream header has been read.
+     */
+    private DedupCache cache_ = null;
+
+    /**
+     * Data of the current frame: a cached chunk, or the scratch buffer.
+     */
+    private byte[] outBuf_ = null;
+    private int outOffs_ = 0;
+    private int outLength_ = 0;
+
+    /**
+     * Holds frames that aren't cached.
+     */
+    private byte[] scratch_ = null;
+
+    private final byte[] frame_ = new byte[DedupOutputStream.FRAME_HEADER_SIZE + 8];
+
+    /**
+     * Where the scratch buffer is leased from, and returned to on close.
+     */
+    private final BufferPool pool_;
+
+    private boolean closed_ = false;
+
+    public static final InputStream getInstance(final InputStream is,
+                                                final long maxCacheCapacity,
+                                                final BufferPool pool) {
+        return new DedupInputStream(is, maxCacheCapacity, pool);
+    }
+
+    private DedupInputStream(final InputStream is,
+                             final long maxCacheCapacity,
+                             final BufferPool pool) {
+        super(is);
+        maxCacheCapacity_ = maxCacheCapacity;
+        pool_ = pool;
+    }
+
+    private void readFrame() throws IOException {
+        if (cache_ == null) {
+            readHeader();
+        }
+        // A clean EOF is only possible between frames.
+        final int type = in.read();
+        if (type < 0) {
+            throw new EOFException();
+        }
+        readFully(frame_, 1, DedupOutputStream.FRAME_HEADER_SIZE - 1);
+        final int length = readInt(frame_, 1);
+        if (length < 0 || length > DedupOutputStream.MAX_CHUNK_SIZE) {
+            throw new IOException("Corrupt dedup frame header.");
+        }
+        switch (type) {
+            case DedupOutputStream.RAW: {
+                if (scratch_ == null) {
+                    scratch_ = pool_.lease(DedupOutputStream.MAX_CHUNK_SIZE);
+                }
+                readFully(scratch_, 0, length);
+                outBuf_ = scratch_;
+                break;
+            }
+            case DedupOutputStream.CHUNK: {
+                final byte[] chunk = new byte[length];
+                readFully(chunk, 0, length);
+                cache_.put(DedupCache.hash(chunk, 0, length), chunk);
+                outBuf_ = chunk;
+                break;
+            }
+            case DedupOutputStream.REF: {
+                readFully(frame_, DedupOutputStream.FRAME_HEADER_SIZE, 8);
+                final long hash = readLong(frame_, DedupOutputStream.FRAME_HEADER_SIZE);
+                final byte[] chunk = cache_.get(hash);
+                if (chunk == null || chunk.length != length) {
+                    throw new IOException("Dedup cache is out of sync; no chunk " + Long.toHexString(hash));
+                }
+                outBuf_ = chunk;
+                break;
+            }
+            default:
+                throw new IOException("Unknown dedup frame type: " + type);
+        }
+        outOffs_ = 0;
+        outLength_ = length;
+    }
+
+    private void readHeader() throws IOException {
+        final int version = in.read();
+        if (version < 0) {
+            throw new EOFException();
+        } else if (version != DedupOutputStream.VERSION) {
+            throw new IOException("Unknown dedup stream version: " + version);
+        }
+        readFully(frame_, 0, 8);
+        final long capacity = readLong(frame_, 0);
+        if (capacity <= 0L || capacity > maxCacheCapacity_) {
+            throw new IOException("Dedup cache of " + capacity + " bytes is larger than allowed (" +
+                maxCacheCapacity_ + ").");
+        }
+        cache_ = new DedupCache(capacity);
+    }
+
+    private void readFully(final byte[] b,
+                           final int off,
+                           final int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            final int n = in.read(b, off + read, len - read);
+            if (n == -1) {
+                // Unlike an EOF between frames, this one is unexpected.
+                throw new IOException("Dedup stream ended mid-frame.");
+            }
+            read += n;
+        }
+    }
+
+    private static int readInt(final byte[] b,
+                               final int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) |
+            ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private static long readLong(final byte[] b,
+                                 final int off) {
+        long value = 0L;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (b[off + i] & 0xffL);
+        }
+        return value;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (outOffs_ >= outLength_) {
+            try {
+                readFrame();
+            } catch(EOFException eof) {
+                return -1;
+            }
+        }
+
+        return outBuf_[outOffs_++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b,
+                    int off,
+                    int len) throws IOException {
+        int count = 0;
+
+        while (count < len) {
+            if (outOffs_ >= outLength_) {
+                try {
+                    // If we've read at least one byte and reading another frame
+                    // would require blocking, return the count.
+                    if ((count > 0) && (in.available() == 0)) {
+                        return count;
+                    } else {
+                        readFrame();
+                    }
+                } catch(EOFException eof) {
+                    if (count == 0) {
+                        count = -1;
+                    }
+                    return count;
+                }
+            }
+            int toCopy = Math.min(outLength_ - outOffs_, len - count);
+            System.arraycopy(outBuf_, outOffs_, b, off + count, toCopy);
+            outOffs_ += toCopy;
+            count += toCopy;
+        }
+
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        // This isn't precise, but should be an adequate lower bound on the actual
+        // amount of available data.
+        return (outLength_ - outOffs_) + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed_) {
+            return;
+        }
+        closed_ = true;
+        try {
+            in.close();
+        } finally {
+            pool_.release(scratch_);
+            scratch_ = outBuf_ = null;
+            cache_ = null;
+        }
+    }
+
+}
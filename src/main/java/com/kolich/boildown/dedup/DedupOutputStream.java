@@ -0,0 +1,283 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.dedup;
+
+import com.kolich.boildown.pool.BufferPool;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Splits the stream into content-defined chunks, and writes each one either
+ * in full or, if the other end already has it cached, as a short reference
+ * to it.  Chunk boundaries are found with a rolling (gear) hash over the data
+ * itself, so the same content is cut into the same chunks no matter where it
+ * falls in the stream, or which stream it's on.  Meant to be layered over a
+ * boiled stream, which compresses the chunks that do get written in full.
+ *
+ * The stream starts with [version: 1 byte][cache capacity: 8 bytes, big endian],
+ * and is followed by frames of
+ *
+ * [type: 1 byte][length: 4 bytes, big endian][data], for {@link #RAW} and {@link #CHUNK}, or
+ * [type: 1 byte][length: 4 bytes, big endian][hash: 8 bytes, big endian], for {@link #REF}.
+ */
+public final class DedupOutputStream extends FilterOutputStream {
+
+    static final int VERSION = 1;
+
+    /**
+     * Written in full, but not cached: whatever's pending on a flush, when
+     * it's too short to be worth caching.
+     */
+    static final int RAW = 0;
+
+    /**
+     * Written in full, and cached by both ends.
+     */
+    static final int CHUNK = 1;
+
+    /**
+     * A reference to a cached chunk.
+     */
+    static final int REF = 2;
+
+    static final int HEADER_SIZE = 9;
+    static final int FRAME_HEADER_SIZE = 5;
+
+    /**
+     * Bounds on the size of a chunk; boundaries fall every 8K on average.
+     */
+    static final int MIN_CHUNK_SIZE = 2 * 1024;
+    static final int MAX_CHUNK_SIZE = 64 * 1024;
+    private static final long BOUNDARY_MASK = (1L << 13) - 1L;
+
+    /**
+     * A random value for every byte, shared by every stream, so boundaries
+     * depend on nothing but the data.
+     */
+    private static final long[] GEAR = new long[256];
+    static {
+        final Random random = new Random(0x626f696c646f776eL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final DedupCache cache_;
+
+    /**
+     * Data not yet written as a chunk, of which the first {@link #scanned_}
+     * bytes have been rolled into {@link #gear_} without finding a boundary.
+     */
+    private byte[] buffer_;
+    private int length_ = 0;
+    private int scanned_ = 0;
+    private long gear_ = 0L;
+
+    private final byte[] frame_ = new byte[FRAME_HEADER_SIZE + 8];
+
+    private boolean started_ = false;
+
+    /**
+     * Where the buffer is leased from, and returned to on close.
+     */
+    private final BufferPool pool_;
+
+    public static final OutputStream getInstance(final OutputStream os,
+                                                 final long cacheCapacity,
+                                                 final BufferPool pool) {
+        return new DedupOutputStream(os, cacheCapacity, pool);
+    }
+
+    private DedupOutputStream(final OutputStream os,
+                              final long cacheCapacity,
+                              final BufferPool pool) {
+        super(os);
+        cache_ = new DedupCache(cacheCapacity);
+        pool_ = pool;
+        buffer_ = pool_.lease(MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Writes out every chunk whose boundary is now known.
+     */
+    private void chunk() throws IOException {
+        while (scanned_ < length_) {
+            final int boundary = findBoundary();
+            if (boundary < 0) {
+                return;
+            }
+            writeChunk(boundary);
+        }
+    }
+
+    /**
+     * Rolls the gear hash over the unscanned data, returning the length of the
+     * chunk it ends, or -1 if there's no boundary yet.
+     */
+    private int findBoundary() {
+        // Nothing short of the minimum can be a chunk, so don't bother hashing it.
+        if (scanned_ < MIN_CHUNK_SIZE - 64) {
+            scanned_ = Math.min(length_, MIN_CHUNK_SIZE - 64);
+        }
+        while (scanned_ < length_) {
+            gear_ = (gear_ << 1) + GEAR[buffer_[scanned_++] & 0xff];
+            if ((scanned_ >= MIN_CHUNK_SIZE && (gear_ & BOUNDARY_MASK) == 0L) || scanned_ == MAX_CHUNK_SIZE) {
+                return scanned_;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the first {@code length} pending bytes as a chunk, or as a
+     * reference to it, and shifts what's left to the front.
+     */
+    private void writeChunk(final int length) throws IOException {
+        start();
+        final long hash = DedupCache.hash(buffer_, 0, length);
+        final byte[] cached = cache_.get(hash);
+        if (cached != null && cached.length == length && sameBytes(cached, buffer_, length)) {
+            writeFrame(REF, length);
+            writeLong(frame_, FRAME_HEADER_SIZE, hash);
+            out.write(frame_, 0, FRAME_HEADER_SIZE + 8);
+        } else {
+            writeFrame(CHUNK, length);
+            out.write(frame_, 0, FRAME_HEADER_SIZE);
+            out.write(buffer_, 0, length);
+            cache_.put(hash, Arrays.copyOf(buffer_, length));
+        }
+        System.arraycopy(buffer_, length, buffer_, 0, length_ - length);
+        length_ -= length;
+        scanned_ = 0;
+        gear_ = 0L;
+    }
+
+    /**
+     * Writes everything pending, boundary or not.
+     */
+    private void writePending() throws IOException {
+        if (length_ == 0) {
+            return;
+        } else if (length_ >= MIN_CHUNK_SIZE) {
+            writeChunk(length_);
+            return;
+        }
+        start();
+        writeFrame(RAW, length_);
+        out.write(frame_, 0, FRAME_HEADER_SIZE);
+        out.write(buffer_, 0, length_);
+        length_ = 0;
+        scanned_ = 0;
+        gear_ = 0L;
+    }
+
+    /**
+     * Writes the stream header, ahead of the first frame.
+     */
+    private void start() throws IOException {
+        if (!started_) {
+            final byte[] header = new byte[HEADER_SIZE];
+            header[0] = (byte)VERSION;
+            writeLong(header, 1, cache_.getCapacity());
+            out.write(header);
+            started_ = true;
+        }
+    }
+
+    private void writeFrame(final int type,
+                            final int length) {
+        frame_[0] = (byte)type;
+        frame_[1] = (byte)(length >>> 24);
+        frame_[2] = (byte)(length >>> 16);
+        frame_[3] = (byte)(length >>> 8);
+        frame_[4] = (byte)length;
+    }
+
+    private static void writeLong(final byte[] b,
+                                  final int off,
+                                  final long value) {
+        for (int i = 0; i < 8; i++) {
+            b[off + i] = (byte)(value >>> (56 - (i * 8)));
+        }
+    }
+
+    private static boolean sameBytes(final byte[] a,
+                                     final byte[] b,
+                                     final int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer_[length_++] = (byte)b;
+        chunk();
+    }
+
+    @Override
+    public void write(byte[] b,
+                      int offset,
+                      int len) throws IOException {
+        while (len > 0) {
+            final int toCopy = Math.min(len, MAX_CHUNK_SIZE - length_);
+            System.arraycopy(b, offset, buffer_, length_, toCopy);
+            length_ += toCopy;
+            offset += toCopy;
+            len -= toCopy;
+            chunk();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writePending();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer_ == null) {
+            return; // Already closed.
+        }
+        try {
+            writePending();
+        } finally {
+            pool_.release(buffer_);
+            buffer_ = null;
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.dict;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictTrainer;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.ParserProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Trains a {@link PresetDictionary} from captured traffic, with Zstandard's
+ * trainer: each file of traffic is cut into samples the size of the blocks
+ * they'd be compressed in, and the dictionary is made up of the content most
+ * common to them, most valuable last (where ZLIB, which only uses the last
+ * 32K, will find it).
+ *
+ * Run as {@code boil train --samples [dir] --output [file]}.
+ */
+public final class DictionaryTrainer {
+
+    private static final Logger log = LoggerFactory.getLogger(DictionaryTrainer.class);
+
+    /**
+     * Zstandard's own default dictionary size.
+     */
+    public static final int DEFAULT_DICTIONARY_SIZE = 110 * 1024;
+
+    /**
+     * The trainer gains little from more than about a hundred times the
+     * dictionary size in samples, and holds every one in memory.
+     */
+    private static final int SAMPLES_PER_DICTIONARY = 100;
+
+    @Option(name="--samples", usage="File of captured traffic, or directory of such files, to train on. " +
+        "May be given more than once.", required=true)
+    private List<File> samples_ = new ArrayList<>();
+
+    @Option(name="--output", usage="File to write the trained dictionary to.", required=true)
+    private File output_ = null;
+
+    @Option(name="--sampleSize", usage="Size, in bytes, of the samples traffic is cut into; should match " +
+        "the --bufferSize the dictionary is used with.")
+    private Integer sampleSize_ = 4096;
+
+    @Option(name="--dictionarySize", usage="Size, in bytes, of the dictionary. ZLIB only uses the last 32K.")
+    private Integer dictionarySize_ = DEFAULT_DICTIONARY_SIZE;
+
+    public static void main(String... args) throws Exception {
+        new DictionaryTrainer().doMain(args);
+    }
+
+    private final void doMain(String... args) throws Exception {
+        final ParserProperties properties = ParserProperties.defaults()
+            .withUsageWidth(80)
+            .withShowDefaults(true);
+        final CmdLineParser parser = new CmdLineParser(this, properties);
+        try {
+            parser.parseArgument(args);
+            if (sampleSize_ < 1) {
+                throw new IllegalArgumentException("--sampleSize must be at least 1.");
+            } else if (dictionarySize_ < 256) {
+                throw new IllegalArgumentException("--dictionarySize must be at least 256.");
+            }
+        } catch (Exception e) {
+            log.debug("Failed to start; see usage.", e);
+            parser.printUsage(System.err);
+            return;
+        }
+        train();
+    }
+
+    private final void train() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        for (final File sample : samples_) {
+            try (Stream<Path> walk = Files.walk(sample.toPath())) {
+                files.addAll(walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+            }
+        }
+        final int maxSampleBytes = (int)Math.min(Integer.MAX_VALUE - 8,
+            (long)dictionarySize_ * SAMPLES_PER_DICTIONARY);
+        final ZstdDictTrainer trainer = new ZstdDictTrainer(maxSampleBytes, dictionarySize_);
+        long sampleBytes = 0L;
+        int samples = 0;
+        final byte[] buffer = new byte[sampleSize_];
+        read:
+        for (final Path file : files) {
+            try (InputStream is = Files.newInputStream(file)) {
+                int length;
+                while ((length = IOUtils.read(is, buffer)) > 0) {
+                    if (!trainer.addSample(Arrays.copyOf(buffer, length))) {
+                        log.warn("Trained on only the first {} bytes of samples.", sampleBytes);
+                        break read;
+                    }
+                    sampleBytes += length;
+                    samples++;
+                }
+            }
+        }
+        if (samples == 0) {
+            throw new IOException("No samples found in " + samples_);
+        }
+        final byte[] dictionary = trainer.trainSamples();
+        Files.write(output_.toPath(), dictionary);
+        log.info("Trained a {} byte dictionary from {} samples ({} bytes), with Zstandard ID {} and ZLIB " +
+            "ID {}: {}", dictionary.length, samples, sampleBytes, Zstd.getDictIdFromDict(dictionary),
+            String.format("%08x", new PresetDictionary(dictionary).getZLIBId()), output_);
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.dict;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A dictionary that both sides of a link preload into their compressors and
+ * decompressors, so even the first few bytes of a stream, or a small block
+ * compressed on its own, find matches to refer back to.  Either a dictionary
+ * trained by {@link DictionaryTrainer}, or just a sample of typical traffic.
+ *
+ * ZLIB only ever uses the last 32K of a dictionary, since that's as far back
+ * as deflate can refer; so only that much is kept for it, and its Adler-32
+ * is what identifies the dictionary in the header of every deflate stream.
+ * Zstandard uses the whole dictionary, and identifies it in the header of
+ * every frame by the ID a trained dictionary carries (a plain sample has
+ * none, and isn't checked).
+ */
+public final class PresetDictionary {
+
+    /**
+     * Size of the deflate window, and so of the most of a dictionary ZLIB uses.
+     */
+    public static final int ZLIB_WINDOW_SIZE = 32 * 1024;
+
+    private final byte[] bytes_;
+
+    private final byte[] zlibBytes_;
+    private final int zlibId_;
+
+    @ParametersAreNonnullByDefault
+    public PresetDictionary(final byte[] bytes) {
+        checkNotNull(bytes, "Dictionary bytes cannot be null.");
+        checkArgument(bytes.length > 0, "Dictionary cannot be empty.");
+        bytes_ = bytes;
+        zlibBytes_ = (bytes.length > ZLIB_WINDOW_SIZE) ?
+            Arrays.copyOfRange(bytes, bytes.length - ZLIB_WINDOW_SIZE, bytes.length) : bytes;
+        final Adler32 adler = new Adler32();
+        adler.update(zlibBytes_);
+        zlibId_ = (int)adler.getValue();
+    }
+
+    @ParametersAreNonnullByDefault
+    public static final PresetDictionary load(final File file) throws IOException {
+        checkNotNull(file, "Dictionary file cannot be null.");
+        return new PresetDictionary(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * The entire dictionary, as Zstandard uses it; must not be modified.
+     */
+    public final byte[] getBytes() {
+        return bytes_;
+    }
+
+    /**
+     * The part of the dictionary ZLIB uses; must not be modified.
+     */
+    public final byte[] getZLIBBytes() {
+        return zlibBytes_;
+    }
+
+    /**
+     * The dictionary ID in the header of every deflate stream compressed
+     * with this dictionary.
+     */
+    public final int getZLIBId() {
+        return zlibId_;
+    }
+
+}
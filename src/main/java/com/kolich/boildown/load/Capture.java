@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.load;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * One captured session: every chunk of bytes either end sent, in order, with
+ * when it was sent relative to the start of the session.
+ *
+ * On disk, a capture is a magic number followed by each chunk in turn: the
+ * end that sent it, its offset in microseconds, its length, and its bytes.
+ */
+public final class Capture {
+
+    private static final int MAGIC = 0x426f4331; // "BoC1"
+
+    public enum Direction {
+        CLIENT, SERVER
+    }
+
+    public static final class Chunk {
+
+        private final Direction direction_;
+        private final long offsetMicros_;
+        private final byte[] data_;
+
+        @ParametersAreNonnullByDefault
+        public Chunk(final Direction direction,
+                     final long offsetMicros,
+                     final byte[] data) {
+            direction_ = checkNotNull(direction, "Direction cannot be null.");
+            checkArgument(offsetMicros >= 0L, "Offset cannot be negative.");
+            offsetMicros_ = offsetMicros;
+            data_ = checkNotNull(data, "Data cannot be null.");
+        }
+
+        public final Direction getDirection() {
+            return direction_;
+        }
+
+        public final long getOffsetMicros() {
+            return offsetMicros_;
+        }
+
+        public final byte[] getData() {
+            return data_;
+        }
+
+    }
+
+    /**
+     * Appends chunks to a capture file as they're sent, from either end.
+     */
+    public static final class Writer implements Closeable {
+
+        private final long startNanos_ = System.nanoTime();
+
+        private final DataOutputStream out_;
+
+        @ParametersAreNonnullByDefault
+        public Writer(final Path file) throws IOException {
+            out_ = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+            out_.writeInt(MAGIC);
+        }
+
+        @ParametersAreNonnullByDefault
+        public final synchronized void append(final Direction direction,
+                                              final byte[] data,
+                                              final int off,
+                                              final int len) throws IOException {
+            out_.writeByte(direction.ordinal());
+            out_.writeLong((System.nanoTime() - startNanos_) / 1000L);
+            out_.writeInt(len);
+            out_.write(data, off, len);
+        }
+
+        @Override
+        public final synchronized void close() throws IOException {
+            out_.close();
+        }
+
+    }
+
+    private final List<Chunk> chunks_;
+
+    @ParametersAreNonnullByDefault
+    public Capture(final List<Chunk> chunks) {
+        chunks_ = ImmutableList.copyOf(checkNotNull(chunks, "Chunks cannot be null."));
+    }
+
+    public final List<Chunk> getChunks() {
+        return chunks_;
+    }
+
+    /**
+     * Returns the total number of bytes sent by the given end.
+     */
+    @ParametersAreNonnullByDefault
+    public final long getBytes(final Direction direction) {
+        long bytes = 0L;
+        for (final Chunk chunk : chunks_) {
+            if (chunk.direction_ == direction) {
+                bytes += chunk.data_.length;
+            }
+        }
+        return bytes;
+    }
+
+    @ParametersAreNonnullByDefault
+    public static final Capture read(final Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a capture file: " + file);
+            }
+            final Direction[] directions = Direction.values();
+            final List<Chunk> chunks = new ArrayList<>();
+            while (true) {
+                final int direction;
+                try {
+                    direction = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (direction >= directions.length) {
+                    throw new IOException("Corrupt capture file: " + file);
+                }
+                final long offsetMicros = in.readLong();
+                final byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                chunks.add(new Chunk(directions[direction], offsetMicros, data));
+            }
+            return new Capture(chunks);
+        }
+    }
+
+    /**
+     * Reads every capture in the given files, or directories of them.
+     */
+    @ParametersAreNonnullByDefault
+    public static final List<Capture> readAll(final List<File> files) throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        for (final File file : files) {
+            try (Stream<Path> walk = Files.walk(file.toPath())) {
+                paths.addAll(walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+            }
+        }
+        final List<Capture> captures = new ArrayList<>();
+        for (final Path path : paths) {
+            captures.add(read(path));
+        }
+        return captures;
+    }
+
+    /**
+     * Makes up a session of request-like messages from the client, each of the
+     * given size and sent the given time after the last, made up of fields that
+     * repeat with varying values, about as compressible as typical JSON.
+     */
+    @ParametersAreNonnullByDefault
+    public static final Capture synthetic(final int messages,
+                                          final int messageSize,
+                                          final long intervalMicros,
+                                          final Random random) {
+        checkArgument(messages > 0, "Messages must be greater than zero.");
+        checkArgument(messageSize > 0, "Message size must be greater than zero.");
+        final String[] actions = {"login", "search", "view", "update", "logout"};
+        final List<Chunk> chunks = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            final StringBuilder message = new StringBuilder(messageSize + 128);
+            while (message.length() < messageSize) {
+                message.append("{\"id\":").append(random.nextInt(1000000))
+                    .append(",\"user\":\"user-").append(random.nextInt(1000))
+                    .append("\",\"action\":\"").append(actions[random.nextInt(actions.length)])
+                    .append("\",\"elapsed\":").append(random.nextInt(5000)).append("}\n");
+            }
+            final byte[] data = Arrays.copyOf(message.toString().getBytes(StandardCharsets.UTF_8), messageSize);
+            chunks.add(new Chunk(Direction.CLIENT, i * intervalMicros, data));
+        }
+        return new Capture(chunks);
+    }
+
+}
@@ -0,0 +1,467 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.load;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kolich.boildown.Balancer;
+import com.kolich.boildown.BlockingEngine;
+import com.kolich.boildown.Boiler;
+import com.kolich.boildown.Codec;
+import com.kolich.boildown.ConnectionPool;
+import com.kolich.boildown.Engine;
+import com.kolich.boildown.Reaper;
+import com.kolich.boildown.SocketOptions;
+import com.kolich.boildown.VirtualThreads;
+import com.kolich.boildown.metrics.Metrics;
+import com.kolich.boildown.mux.MuxEngine;
+import com.kolich.boildown.nio.NioEngine;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.ParserProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts a compressing and a decompressing side together in one process, on
+ * loopback, in front of a server of its own, and replays many concurrent
+ * sessions through them, once for each {@link Boiler.Strategery}: so the
+ * performance of every codec and engine can be measured, and compared from
+ * one build to the next, with no outside services.
+ *
+ * Sessions replay captures, as recorded by {@link Recorder}, or made up
+ * request-like messages.  For each strategery, it reports the throughput of
+ * what the clients sent, the compression ratio, and percentiles of how long
+ * a session took to reach the server (connection setup) and how long each
+ * message took to come back from it (round trip).
+ *
+ * Run as {@code boil load [--captures dir] --sessions 1000}.
+ */
+public final class LoadGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+    /**
+     * Sent by the server as soon as it accepts a session, so the client knows
+     * the session reached it.
+     */
+    private static final int GREETING = 0x42;
+
+    public enum Server {
+        /**
+         * Sends every message straight back, and measures its round trip.
+         */
+        ECHO,
+        /**
+         * Swallows everything, for throughput alone.
+         */
+        SINK
+    }
+
+    @Option(name="--captures", usage="Capture file, or directory of them, as recorded by 'boil record', " +
+        "to replay; sessions take turns replaying each. May be given more than once. Without any, every " +
+        "session sends --messages made up messages.")
+    private List<File> captures_ = new ArrayList<>();
+
+    @Option(name="--sessions", usage="Number of concurrent sessions to replay.")
+    private Integer sessions_ = 1000;
+
+    @Option(name="--rampUp", usage="Time, in milliseconds, to spread the start of the sessions over, " +
+        "so they don't all connect at once.")
+    private Long rampUp_ = 1000L;
+
+    @Option(name="--strategery", usage="Codec to measure. May be given more than once. Defaults to all " +
+        "of them, one after another.")
+    private List<Boiler.Strategery> strategeries_ = new ArrayList<>();
+
+    @Option(name="--server", usage="ECHO sends every message back, to measure its round trip; SINK " +
+        "swallows everything, to measure throughput alone.")
+    private Server server_ = Server.ECHO;
+
+    @Option(name="--speed", usage="Replay captures this many times faster than they were recorded. Use " +
+        "0 to send every message as soon as the last one is done.")
+    private Double speed_ = 1.0d;
+
+    @Option(name="--messages", usage="Number of made up messages each session sends, without --captures.")
+    private Integer messages_ = 100;
+
+    @Option(name="--messageSize", usage="Size, in bytes, of each made up message.")
+    private Integer messageSize_ = 1024;
+
+    @Option(name="--messageInterval", usage="Time, in milliseconds, between made up messages.")
+    private Long messageInterval_ = 10L;
+
+    @Option(name="--nio", usage="Run both sides on the NIO engine.")
+    private Boolean nio_ = false;
+
+    @Option(name="--mux", usage="Multiplex sessions between the sides over --muxLinks links.")
+    private Boolean mux_ = false;
+
+    @Option(name="--muxLinks", usage="Number of links to multiplex sessions over, with --mux.")
+    private Integer muxLinks_ = 2;
+
+    @Option(name="--virtualThreads", usage="Run the sessions, the server, and both sides on virtual " +
+        "threads. Requires JDK 21 or newer.")
+    private Boolean virtualThreads_ = false;
+
+    public static void main(String... args) throws Exception {
+        new LoadGenerator().doMain(args);
+    }
+
+    private final void doMain(String... args) throws Exception {
+        final ParserProperties properties = ParserProperties.defaults()
+            .withUsageWidth(80)
+            .withShowDefaults(true);
+        final CmdLineParser parser = new CmdLineParser(this, properties);
+        try {
+            parser.parseArgument(args);
+            if (sessions_ < 1) {
+                throw new IllegalArgumentException("--sessions must be at least 1.");
+            } else if (rampUp_ < 0L) {
+                throw new IllegalArgumentException("--rampUp cannot be negative.");
+            } else if (speed_ < 0.0d) {
+                throw new IllegalArgumentException("--speed cannot be negative.");
+            } else if (messages_ < 1 || messageSize_ < 1) {
+                throw new IllegalArgumentException("--messages and --messageSize must be at least 1.");
+            } else if (messageInterval_ < 0L) {
+                throw new IllegalArgumentException("--messageInterval cannot be negative.");
+            } else if (nio_ && mux_) {
+                throw new IllegalArgumentException("Can only specify one of --nio or --mux.");
+            } else if (muxLinks_ < 1) {
+                throw new IllegalArgumentException("--muxLinks must be at least 1.");
+            } else if (virtualThreads_ && !VirtualThreads.isSupported()) {
+                throw new IllegalArgumentException("--virtualThreads requires JDK 21 or newer.");
+            }
+        } catch (Exception e) {
+            log.debug("Failed to start; see usage.", e);
+            parser.printUsage(System.err);
+            return;
+        }
+        load();
+    }
+
+    private final void load() throws Exception {
+        final List<Capture> captures;
+        if (captures_.isEmpty()) {
+            // Each session gets its own, so sessions don't all send the very same bytes.
+            final Random random = new Random(0L);
+            captures = new ArrayList<>();
+            for (int i = 0; i < Math.min(sessions_, 64); i++) {
+                captures.add(Capture.synthetic(messages_, messageSize_,
+                    TimeUnit.MILLISECONDS.toMicros(messageInterval_), random));
+            }
+        } else {
+            captures = Capture.readAll(captures_);
+            if (captures.isEmpty()) {
+                throw new IOException("No captures found in " + captures_);
+            }
+        }
+        final List<Boiler.Strategery> strategeries = (strategeries_.isEmpty()) ?
+            Arrays.asList(Boiler.Strategery.values()) : strategeries_;
+
+        final PrintStream out = System.out;
+        out.printf("%-12s %8s %6s %10s %6s %26s %26s%n", "strategery", "sessions", "failed", "MB/s",
+            "ratio", "setup p50/p99/p999 (ms)", "rtt p50/p99/p999 (ms)");
+        for (final Boiler.Strategery strategery : strategeries) {
+            final Result result = run(strategery, captures);
+            out.printf("%-12s %8d %6d %10.2f %6.3f %26s %26s%n", strategery, sessions_, result.failed_,
+                (result.bytes_ / 1048576.0d) / (result.elapsedNanos_ / 1e9d), result.ratio_,
+                percentiles(result.setupNanos_), percentiles(result.roundTripNanos_));
+        }
+    }
+
+    /**
+     * What one run, of every session through one strategery, measured.
+     */
+    private static final class Result {
+
+        private long bytes_ = 0L;
+        private long elapsedNanos_ = 0L;
+        private int failed_ = 0;
+        private double ratio_ = 0.0d;
+
+        private final List<Long> setupNanos_ = new ArrayList<>();
+        private final List<Long> roundTripNanos_ = new ArrayList<>();
+
+    }
+
+    /**
+     * What one session measured.
+     */
+    private static final class Session {
+
+        private long bytes_ = 0L;
+        private long setupNanos_ = 0L;
+
+        private final List<Long> roundTripNanos_ = new ArrayList<>();
+
+    }
+
+    private final Result run(final Boiler.Strategery strategery,
+                             final List<Capture> captures) throws Exception {
+        final Metrics metrics = new Metrics();
+        final ExecutorService threads = newExecutor("boiler-load-" + strategery + "-");
+        final Result result = new Result();
+        try (ServerSocket server = new ServerSocket(0, sessions_, InetAddress.getLoopbackAddress());
+             Side decompress = new Side(strategery, Boiler.CompressionMethod.DECOMPRESS,
+                 server.getLocalPort(), null);
+             Side compress = new Side(strategery, Boiler.CompressionMethod.COMPRESS,
+                 decompress.getPort(), metrics)) {
+            threads.execute(() -> serve(server, threads));
+
+            final long start = System.nanoTime();
+            final List<Future<Session>> sessions = new ArrayList<>(sessions_);
+            for (int i = 0; i < sessions_; i++) {
+                final Capture capture = captures.get(i % captures.size());
+                final long delayNanos = TimeUnit.MILLISECONDS.toNanos(rampUp_) * i / sessions_;
+                sessions.add(threads.submit(() -> replay(capture, compress.getPort(), start + delayNanos)));
+            }
+            for (final Future<Session> future : sessions) {
+                try {
+                    final Session session = future.get();
+                    result.bytes_ += session.bytes_;
+                    result.setupNanos_.add(session.setupNanos_);
+                    result.roundTripNanos_.addAll(session.roundTripNanos_);
+                } catch (Exception e) {
+                    log.debug("Session failed.", e);
+                    result.failed_++;
+                }
+            }
+            result.elapsedNanos_ = System.nanoTime() - start;
+            final Number ratio = metrics.snapshot().get(
+                "codec." + strategery.name().toLowerCase() + ".compress.ratio");
+            result.ratio_ = (ratio != null) ? ratio.doubleValue() : 0.0d;
+        } finally {
+            threads.shutdownNow();
+        }
+        return result;
+    }
+
+    private final Session replay(final Capture capture,
+                                 final int port,
+                                 final long startAt) throws Exception {
+        sleepUntil(startAt);
+        final Session session = new Session();
+        final long connectAt = System.nanoTime();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            if (in.read() != GREETING) {
+                throw new EOFException("Session never reached the server.");
+            }
+            final long startedAt = System.nanoTime();
+            session.setupNanos_ = startedAt - connectAt;
+            byte[] echo = new byte[8192];
+            for (final Capture.Chunk chunk : capture.getChunks()) {
+                if (chunk.getDirection() != Capture.Direction.CLIENT) {
+                    continue;
+                }
+                if (speed_ > 0.0d) {
+                    sleepUntil(startedAt + (long)(TimeUnit.MICROSECONDS.toNanos(chunk.getOffsetMicros()) /
+                        speed_));
+                }
+                final byte[] data = chunk.getData();
+                final long sentAt = System.nanoTime();
+                out.write(data);
+                out.flush();
+                session.bytes_ += data.length;
+                if (server_ == Server.ECHO) {
+                    if (echo.length < data.length) {
+                        echo = new byte[data.length];
+                    }
+                    if (IOUtils.read(in, echo, 0, data.length) < data.length) {
+                        throw new EOFException("Session ended before its echo came back.");
+                    }
+                    session.roundTripNanos_.add(System.nanoTime() - sentAt);
+                }
+            }
+            // Wait for the server to see everything, and hang up.
+            socket.shutdownOutput();
+            while (in.read(echo) != -1) {
+                // Drain.
+            }
+        }
+        return session;
+    }
+
+    private void serve(final ServerSocket server,
+                       final ExecutorService threads) {
+        try {
+            while (true) {
+                final Socket socket = server.accept();
+                threads.execute(() -> {
+                    try (Socket s = socket) {
+                        s.setTcpNoDelay(true);
+                        final OutputStream out = s.getOutputStream();
+                        out.write(GREETING);
+                        out.flush();
+                        if (server_ == Server.ECHO) {
+                            final InputStream in = s.getInputStream();
+                            final byte[] buffer = new byte[8192];
+                            int n;
+                            while (-1 != (n = in.read(buffer))) {
+                                out.write(buffer, 0, n);
+                                out.flush();
+                            }
+                        } else {
+                            IOUtils.skip(s.getInputStream(), Long.MAX_VALUE);
+                        }
+                        s.shutdownOutput();
+                    } catch (IOException e) {
+                        // Session torn down.
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // Server closed.
+        }
+    }
+
+    private final ExecutorService newExecutor(final String prefix) {
+        if (virtualThreads_) {
+            return VirtualThreads.newThreadPerTaskExecutor(prefix);
+        }
+        return Executors.newCachedThreadPool(newThreadFactory(prefix));
+    }
+
+    private final ThreadFactory newThreadFactory(final String prefix) {
+        if (virtualThreads_) {
+            return VirtualThreads.newThreadFactory(prefix);
+        }
+        return new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat(prefix + "%d")
+            .build();
+    }
+
+    private static void sleepUntil(final long deadline) throws InterruptedException {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining > 0L) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    /**
+     * Returns the 50th, 99th, and 99.9th percentiles of the given durations,
+     * in milliseconds.
+     */
+    private static String percentiles(final List<Long> nanos) {
+        if (nanos.isEmpty()) {
+            return "-";
+        }
+        Collections.sort(nanos);
+        return String.format("%.2f/%.2f/%.2f", percentile(nanos, 50.0d) / 1e6d,
+            percentile(nanos, 99.0d) / 1e6d, percentile(nanos, 99.9d) / 1e6d);
+    }
+
+    private static long percentile(final List<Long> sorted,
+                                   final double percentile) {
+        final int rank = (int)Math.ceil(sorted.size() * percentile / 100.0d);
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    /**
+     * One side of the tunnel, listening on an ephemeral loopback port.
+     */
+    private final class Side implements Closeable {
+
+        private final Codec codec_;
+        private final Engine engine_;
+        private final ServerSocket listener_;
+
+        private Side(final Boiler.Strategery strategery,
+                     final Boiler.CompressionMethod method,
+                     final int forwardPort,
+                     final Metrics metrics) throws IOException {
+            final Codec.Builder builder = new Codec.Builder(strategery);
+            if (metrics != null) {
+                builder.setMetrics(metrics);
+            }
+            codec_ = builder.build();
+            final Balancer forward = new Balancer.Builder()
+                .addTarget(new ConnectionPool.Builder(InetAddress.getLoopbackAddress().getHostAddress(),
+                    forwardPort).build(), 1)
+                .build();
+            final String prefix = "boiler-load-" + method.name().toLowerCase() + "-";
+            final ThreadFactory factory = newThreadFactory(prefix);
+            if (nio_) {
+                engine_ = new NioEngine(1, factory, method, codec_, forward, SocketOptions.DEFAULT);
+            } else if (mux_) {
+                engine_ = new MuxEngine(newExecutor(prefix), factory, method, codec_, forward,
+                    SocketOptions.DEFAULT, muxLinks_, sessions_);
+            } else {
+                engine_ = new BlockingEngine(newExecutor(prefix), factory, method, codec_, forward,
+                    SocketOptions.DEFAULT, Reaper.NONE);
+            }
+            listener_ = engine_.listen(0);
+            factory.newThread(() -> {
+                try {
+                    while (true) {
+                        engine_.boil(listener_.accept(), () -> {});
+                    }
+                } catch (IOException e) {
+                    // Listener closed.
+                }
+            }).start();
+        }
+
+        private int getPort() {
+            return listener_.getLocalPort();
+        }
+
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(listener_);
+            IOUtils.closeQuietly(engine_);
+            IOUtils.closeQuietly(codec_.getZLIBPool());
+        }
+
+    }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.load;
+
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.ParserProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records real sessions for {@link LoadGenerator} to replay: a plain TCP proxy
+ * that forwards every session untouched, and writes what each end sent, and
+ * when, to a {@link Capture} file of its own.
+ *
+ * Run as {@code boil record --listen [port] --forward [host]:[port] --output [dir]}.
+ */
+public final class Recorder {
+
+    private static final Logger log = LoggerFactory.getLogger(Recorder.class);
+
+    private static final Splitter colonSplitter = Splitter.on(":").omitEmptyStrings().limit(2);
+
+    @Option(name="--listen", usage="Port to listen for clients on.", required=true)
+    private Integer listen_ = null;
+
+    @Option(name="--forward", usage="Forward every session to this [host]:[port].", required=true)
+    private String forward_ = null;
+
+    @Option(name="--output", usage="Directory to write a capture file of each session to.", required=true)
+    private File output_ = null;
+
+    @Option(name="--bufferSize", usage="Most bytes to read, and record as one chunk, at a time.")
+    private Integer bufferSize_ = 4096;
+
+    private String forwardHost_;
+    private int forwardPort_;
+
+    private final AtomicLong sessions_ = new AtomicLong();
+
+    public static void main(String... args) throws Exception {
+        new Recorder().doMain(args);
+    }
+
+    private final void doMain(String... args) throws Exception {
+        final ParserProperties properties = ParserProperties.defaults()
+            .withUsageWidth(80)
+            .withShowDefaults(true);
+        final CmdLineParser parser = new CmdLineParser(this, properties);
+        try {
+            parser.parseArgument(args);
+            final List<String> hostPort = colonSplitter.splitToList(forward_);
+            if (hostPort.size() != 2) {
+                throw new IllegalArgumentException("--forward must be in the format of [host]:[port]");
+            }
+            forwardHost_ = hostPort.get(0);
+            forwardPort_ = Integer.parseInt(hostPort.get(1));
+            if (bufferSize_ < 1) {
+                throw new IllegalArgumentException("--bufferSize must be at least 1.");
+            }
+        } catch (Exception e) {
+            log.debug("Failed to start; see usage.", e);
+            parser.printUsage(System.err);
+            return;
+        }
+        record();
+    }
+
+    private final void record() throws IOException {
+        Files.createDirectories(output_.toPath());
+        final ExecutorService threads = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("boiler-recorder-%d")
+            .build());
+        try (ServerSocket listener = new ServerSocket(listen_)) {
+            log.info("Recording sessions from port {} to {}:{} in: {}", listen_, forwardHost_, forwardPort_,
+                output_);
+            while (true) {
+                final Socket client = listener.accept();
+                threads.execute(() -> session(client, threads));
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private void session(final Socket client,
+                         final ExecutorService threads) {
+        final Path file = output_.toPath().resolve(String.format("session-%06d.cap",
+            sessions_.incrementAndGet()));
+        try (Socket c = client;
+             Socket forward = new Socket(forwardHost_, forwardPort_);
+             Capture.Writer writer = new Capture.Writer(file)) {
+            final Future<?> upstream = threads.submit(() ->
+                copy(c, forward, Capture.Direction.CLIENT, writer));
+            copy(forward, c, Capture.Direction.SERVER, writer);
+            upstream.get();
+            log.info("Recorded session from {}: {}", c.getRemoteSocketAddress(), file);
+        } catch (Exception e) {
+            log.warn("Failed to record session: {}", file, e);
+        }
+    }
+
+    /**
+     * Copies until the source ends, recording every read, then half-closes the
+     * destination so the other direction can finish.
+     */
+    private Void copy(final Socket from,
+                      final Socket to,
+                      final Capture.Direction direction,
+                      final Capture.Writer writer) throws IOException {
+        final byte[] buffer = new byte[bufferSize_];
+        final InputStream in = from.getInputStream();
+        final OutputStream out = to.getOutputStream();
+        try {
+            int n;
+            while (-1 != (n = in.read(buffer))) {
+                writer.append(direction, buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+            to.shutdownOutput();
+        } catch (IOException e) {
+            // Either end hung up; so does the other.
+            IOUtils.closeQuietly(from);
+            IOUtils.closeQuietly(to);
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.metrics;
+
+import com.kolich.boildown.Boiler;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic through every boiled stream of one {@link Boiler.Strategery}.
+ * Encode and decode times only count time spent in the codec itself: time
+ * spent blocked on the underlying socket, in either direction, is measured
+ * separately and left out.
+ */
+public final class CodecMetrics {
+
+    private final Boiler.Strategery strategery_;
+
+    /**
+     * Compressing: raw bytes in, boiled bytes out, and blocks flushed.
+     */
+    private final LongAdder compressedIn_ = new LongAdder();
+    private final LongAdder compressedOut_ = new LongAdder();
+    private final LongAdder blocks_ = new LongAdder();
+
+    /**
+     * Nanoseconds spent encoding each flushed block.
+     */
+    private final Histogram encodeNanos_ = new Histogram();
+
+    /**
+     * Decompressing: boiled bytes in, and raw bytes out.
+     */
+    private final LongAdder decompressedIn_ = new LongAdder();
+    private final LongAdder decompressedOut_ = new LongAdder();
+
+    /**
+     * Nanoseconds spent decoding each read.
+     */
+    private final Histogram decodeNanos_ = new Histogram();
+
+    CodecMetrics(final Boiler.Strategery strategery) {
+        strategery_ = strategery;
+    }
+
+    public final Boiler.Strategery getStrategery() {
+        return strategery_;
+    }
+
+    /**
+     * Returns a sink to hand to the boiled output stream in place of the
+     * given one; the boiled output stream itself is then passed to
+     * {@link #meter(OutputStream, Sink)}.
+     */
+    public final Sink sink(final OutputStream os) {
+        return new Sink(os);
+    }
+
+    public final OutputStream meter(final OutputStream boiled,
+                                    final Sink sink) {
+        return new MeteredOutputStream(boiled, sink);
+    }
+
+    /**
+     * Like {@link #sink(OutputStream)}, for input.
+     */
+    public final Source source(final InputStream is) {
+        return new Source(is);
+    }
+
+    public final InputStream meter(final InputStream boiled,
+                                   final Source source) {
+        return new MeteredInputStream(boiled, source);
+    }
+
+    final void snapshot(final Map<String, Number> snapshot) {
+        final String prefix = "codec." + strategery_.name().toLowerCase() + ".";
+        final long compressedIn = compressedIn_.sum(), compressedOut = compressedOut_.sum();
+        snapshot.put(prefix + "compress.bytesIn", compressedIn);
+        snapshot.put(prefix + "compress.bytesOut", compressedOut);
+        snapshot.put(prefix + "compress.blocks", blocks_.sum());
+        snapshot.put(prefix + "compress.ratio",
+            (compressedIn == 0L) ? 0.0d : (double)compressedOut / (double)compressedIn);
+        snapshot(snapshot, prefix + "compress.encodeNanos", encodeNanos_);
+        final long decompressedIn = decompressedIn_.sum(), decompressedOut = decompressedOut_.sum();
+        snapshot.put(prefix + "decompress.bytesIn", decompressedIn);
+        snapshot.put(prefix + "decompress.bytesOut", decompressedOut);
+        snapshot.put(prefix + "decompress.ratio",
+            (decompressedOut == 0L) ? 0.0d : (double)decompressedIn / (double)decompressedOut);
+        snapshot(snapshot, prefix + "decompress.decodeNanos", decodeNanos_);
+    }
+
+    private static void snapshot(final Map<String, Number> snapshot,
+                                 final String prefix,
+                                 final Histogram histogram) {
+        snapshot.put(prefix + ".count", histogram.getCount());
+        snapshot.put(prefix + ".mean", histogram.getMean());
+        snapshot.put(prefix + ".p50", histogram.getPercentile(50.0d));
+        snapshot.put(prefix + ".p99", histogram.getPercentile(99.0d));
+        snapshot.put(prefix + ".max", histogram.getMax());
+    }
+
+    /**
+     * Counts boiled bytes on their way out, and the time spent writing them.
+     */
+    public final class Sink extends FilterOutputStream {
+
+        private long ioNanos_ = 0L;
+
+        private Sink(final OutputStream os) {
+            super(os);
+        }
+
+        @Override
+        public final void write(final int b) throws IOException {
+            final long start = System.nanoTime();
+            out.write(b);
+            ioNanos_ += System.nanoTime() - start;
+            compressedOut_.increment();
+        }
+
+        @Override
+        public final void write(final byte[] b,
+                                final int off,
+                                final int len) throws IOException {
+            final long start = System.nanoTime();
+            out.write(b, off, len);
+            ioNanos_ += System.nanoTime() - start;
+            compressedOut_.add(len);
+        }
+
+        @Override
+        public final void flush() throws IOException {
+            final long start = System.nanoTime();
+            out.flush();
+            ioNanos_ += System.nanoTime() - start;
+        }
+
+    }
+
+    /**
+     * Counts boiled bytes on their way in, and the time spent waiting on them.
+     */
+    public final class Source extends FilterInputStream {
+
+        private long ioNanos_ = 0L;
+
+        private Source(final InputStream is) {
+            super(is);
+        }
+
+        @Override
+        public final int read() throws IOException {
+            final long start = System.nanoTime();
+            final int b = in.read();
+            ioNanos_ += System.nanoTime() - start;
+            if (b >= 0) {
+                decompressedIn_.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public final int read(final byte[] b,
+                              final int off,
+                              final int len) throws IOException {
+            final long start = System.nanoTime();
+            final int n = in.read(b, off, len);
+            ioNanos_ += System.nanoTime() - start;
+            if (n > 0) {
+                decompressedIn_.add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public final long skip(final long n) throws IOException {
+            final long skipped = in.skip(n);
+            decompressedIn_.add(skipped);
+            return skipped;
+        }
+
+    }
+
+    private final class MeteredOutputStream extends FilterOutputStream {
+
+        private final Sink sink_;
+
+        /**
+         * Encoding time since the last flush.
+         */
+        private long pendingNanos_ = 0L;
+
+        private MeteredOutputStream(final OutputStream boiled,
+                                    final Sink sink) {
+            super(boiled);
+            sink_ = sink;
+        }
+
+        @Override
+        public final void write(final int b) throws IOException {
+            final long start = System.nanoTime(), io = sink_.ioNanos_;
+            out.write(b);
+            pendingNanos_ += System.nanoTime() - start - (sink_.ioNanos_ - io);
+            compressedIn_.increment();
+        }
+
+        @Override
+        public final void write(final byte[] b,
+                                final int off,
+                                final int len) throws IOException {
+            final long start = System.nanoTime(), io = sink_.ioNanos_;
+            out.write(b, off, len);
+            pendingNanos_ += System.nanoTime() - start - (sink_.ioNanos_ - io);
+            compressedIn_.add(len);
+        }
+
+        @Override
+        public final void flush() throws IOException {
+            final long start = System.nanoTime(), io = sink_.ioNanos_;
+            out.flush();
+            pendingNanos_ += System.nanoTime() - start - (sink_.ioNanos_ - io);
+            encodeNanos_.record(pendingNanos_);
+            blocks_.increment();
+            pendingNanos_ = 0L;
+        }
+
+        @Override
+        public final void close() throws IOException {
+            // Not a block of its own; FilterOutputStream would flush first.
+            out.close();
+        }
+
+    }
+
+    private final class MeteredInputStream extends FilterInputStream {
+
+        private final Source source_;
+
+        private MeteredInputStream(final InputStream boiled,
+                                   final Source source) {
+            super(boiled);
+            source_ = source;
+        }
+
+        @Override
+        public final int read() throws IOException {
+            final long start = System.nanoTime(), io = source_.ioNanos_;
+            final int b = in.read();
+            decodeNanos_.record(System.nanoTime() - start - (source_.ioNanos_ - io));
+            if (b >= 0) {
+                decompressedOut_.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public final int read(final byte[] b,
+                              final int off,
+                              final int len) throws IOException {
+            final long start = System.nanoTime(), io = source_.ioNanos_;
+            final int n = in.read(b, off, len);
+            decodeNanos_.record(System.nanoTime() - start - (source_.ioNanos_ - io));
+            if (n > 0) {
+                decompressedOut_.add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public final long skip(final long n) throws IOException {
+            final long skipped = in.skip(n);
+            decompressedOut_.add(skipped);
+            return skipped;
+        }
+
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, e.g., durations in nanoseconds,
+ * in power of two buckets.  Percentiles are only as precise as the buckets, so
+ * they're reported as the upper bound of the bucket they fall into.
+ */
+public final class Histogram {
+
+    /**
+     * Bucket {@code i} counts values in [2^(i-1), 2^i); bucket 0 counts zeros.
+     */
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    private final LongAdder[] buckets_;
+
+    private final LongAdder count_ = new LongAdder();
+    private final LongAdder sum_ = new LongAdder();
+    private final LongAccumulator max_ = new LongAccumulator(Math::max, 0L);
+
+    public Histogram() {
+        buckets_ = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets_[i] = new LongAdder();
+        }
+    }
+
+    public final void record(final long value) {
+        final long v = Math.max(value, 0L);
+        buckets_[Long.SIZE - Long.numberOfLeadingZeros(v)].increment();
+        count_.increment();
+        sum_.add(v);
+        max_.accumulate(v);
+    }
+
+    public final long getCount() {
+        return count_.sum();
+    }
+
+    public final long getSum() {
+        return sum_.sum();
+    }
+
+    public final long getMax() {
+        return max_.get();
+    }
+
+    public final long getMean() {
+        final long count = getCount();
+        return (count == 0L) ? 0L : getSum() / count;
+    }
+
+    /**
+     * Returns (an upper bound on) the given percentile, from 0 to 100.
+     */
+    public final long getPercentile(final double percentile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets_[i].sum();
+            total += counts[i];
+        }
+        final long rank = (long)Math.ceil(total * percentile / 100.0d);
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0L) {
+                final long upper = (i == 0) ? 0L : (i == Long.SIZE) ? Long.MAX_VALUE : (1L << i) - 1L;
+                return Math.min(upper, getMax());
+            }
+        }
+        return 0L;
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.metrics;
+
+import com.kolich.boildown.Boiler;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Every metric of a running Boildown: per-strategery codec traffic, plus any
+ * number of named gauges, e.g., of sessions and pools, read only when a
+ * snapshot is taken.  Exposed over JMX by {@link MetricsMBean}, and over HTTP
+ * by {@link MetricsServer}.
+ */
+public final class Metrics {
+
+    private final ConcurrentMap<Boiler.Strategery, CodecMetrics> codecs_ = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LongSupplier> gauges_ = new ConcurrentHashMap<>();
+
+    @ParametersAreNonnullByDefault
+    public final CodecMetrics getCodec(final Boiler.Strategery strategery) {
+        checkNotNull(strategery, "Strategery cannot be null.");
+        return codecs_.computeIfAbsent(strategery, CodecMetrics::new);
+    }
+
+    @ParametersAreNonnullByDefault
+    public final void gauge(final String name,
+                            final LongSupplier gauge) {
+        gauges_.put(checkNotNull(name, "Gauge name cannot be null."),
+            checkNotNull(gauge, "Gauge cannot be null."));
+    }
+
+    /**
+     * Returns the current value of every metric, by name.
+     */
+    public final SortedMap<String, Number> snapshot() {
+        final SortedMap<String, Number> snapshot = new TreeMap<>();
+        for (final Map.Entry<String, LongSupplier> gauge : gauges_.entrySet()) {
+            snapshot.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        for (final CodecMetrics codec : codecs_.values()) {
+            codec.snapshot(snapshot);
+        }
+        return snapshot;
+    }
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.metrics;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Exposes a snapshot of {@link Metrics} as the read-only attributes of an
+ * MBean on the platform MBean server, so they're visible to JConsole, VisualVM,
+ * and any JMX exporter.  The set of attributes grows as metrics appear, e.g.,
+ * once a codec sees its first session.
+ */
+public final class MetricsMBean implements DynamicMBean, Closeable {
+
+    public static final String DOMAIN = "com.kolich.boildown";
+
+    private final Metrics metrics_;
+
+    private final ObjectName name_;
+
+    /**
+     * Registers a new MBean, named {@code com.kolich.boildown:type=Metrics,name=[name]}.
+     */
+    @ParametersAreNonnullByDefault
+    public MetricsMBean(final Metrics metrics,
+                        final String name) throws JMException {
+        metrics_ = checkNotNull(metrics, "Metrics cannot be null.");
+        name_ = new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, name_);
+        } catch (InstanceAlreadyExistsException e) {
+            // Left over from an earlier run in the same JVM.
+            server.unregisterMBean(name_);
+            server.registerMBean(this, name_);
+        }
+    }
+
+    @Override
+    public final Object getAttribute(final String attribute) throws AttributeNotFoundException {
+        final Number value = metrics_.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public final AttributeList getAttributes(final String[] attributes) {
+        final SortedMap<String, Number> snapshot = metrics_.snapshot();
+        final AttributeList list = new AttributeList();
+        for (final String attribute : attributes) {
+            final Number value = snapshot.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public final void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public final AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public final Object invoke(final String actionName,
+                               final Object[] params,
+                               final String[] signature) {
+        throw new UnsupportedOperationException("Metrics have no operations.");
+    }
+
+    @Override
+    public final MBeanInfo getMBeanInfo() {
+        final SortedMap<String, Number> snapshot = metrics_.snapshot();
+        final MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+        int i = 0;
+        for (final Map.Entry<String, Number> entry : snapshot.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                entry.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Boildown metrics.", attributes, null, null, null);
+    }
+
+    @Override
+    public final void close() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name_);
+        } catch (InstanceNotFoundException e) {
+            // Already gone.
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to unregister: " + name_, e);
+        }
+    }
+
+}
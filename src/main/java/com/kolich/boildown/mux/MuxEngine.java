@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.mux;
+
+import com.kolich.boildown.Boiler;
+import com.kolich.boildown.Codec;
+import com.kolich.boildown.Balancer;
+import com.kolich.boildown.Engine;
+import com.kolich.boildown.SocketOptions;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Multiplexes every session over a few long-lived, boiled {@link MuxLink}s,
+ * instead of boiling each session over a connection of its own.  Opening a
+ * session costs no more than a frame on a link that's already connected, and
+ * every session on a link shares its compression context.
+ *
+ * On the compressing side, each client becomes a stream on one of up to
+ * {@code links} links to the decompressing side, which are connected on demand
+ * and reconnected as needed.  On the decompressing side, each accepted
+ * connection is a link, and each of its streams is connected to the forward
+ * host, up to {@code maxStreams} of them at once across every link; a stream
+ * opened beyond that is reset.  Both sides must be multiplexing.
+ */
+public final class MuxEngine implements Engine {
+
+    private static final Logger log = LoggerFactory.getLogger(MuxEngine.class);
+
+    private final ExecutorService sessions_;
+
+    private final ThreadFactory pumps_;
+
+    private final Boiler.CompressionMethod method_;
+
+    private final Codec codec_;
+
+    private final Balancer forward_;
+
+    private final SocketOptions options_;
+
+    /**
+     * Links to the decompressing side, used round-robin; compressing side only.
+     */
+    private final MuxLink[] links_;
+    private int nextLink_ = 0;
+
+    /**
+     * Streams that may still be connected to the forward host, across every
+     * link; decompressing side only.
+     */
+    private final Semaphore streams_;
+
+    @ParametersAreNonnullByDefault
+    public MuxEngine(final ExecutorService sessions,
+                     final ThreadFactory pumps,
+                     final Boiler.CompressionMethod method,
+                     final Codec codec,
+                     final Balancer forward,
+                     final SocketOptions options,
+                     final int links,
+                     final int maxStreams) {
+        sessions_ = checkNotNull(sessions, "Session executor cannot be null.");
+        pumps_ = checkNotNull(pumps, "Pump thread factory cannot be null.");
+        method_ = checkNotNull(method, "Compression method cannot be null.");
+        codec_ = checkNotNull(codec, "Codec cannot be null.");
+        forward_ = checkNotNull(forward, "Forward balancer cannot be null.");
+        options_ = checkNotNull(options, "Socket options cannot be null.");
+        checkArgument(links > 0, "Number of links must be positive.");
+        links_ = new MuxLink[links];
+        checkArgument(maxStreams > 0, "Maximum number of streams must be positive.");
+        streams_ = new Semaphore(maxStreams);
+    }
+
+    @Override
+    public final ServerSocket listen(final int port) throws IOException {
+        return options_.listen(port);
+    }
+
+    @Override
+    public final void boil(final Socket client,
+                           final Runnable onClose) throws IOException {
+        options_.configure(client);
+        if (Boiler.CompressionMethod.COMPRESS.equals(method_)) {
+            sessions_.execute(() -> {
+                try {
+                    final MuxStream stream = getLink().open();
+                    stream.run(client);
+                } catch (Exception e) {
+                    log.error("Failed to open mux stream to {}", forward_.getName(), e);
+                    IOUtils.closeQuietly(client);
+                } finally {
+                    onClose.run();
+                }
+            });
+        } else {
+            // Each client is a link, and the session lasts as long as it does.
+            final MuxLink link = new MuxLink(client, null, codec_, pumps_, forward_, sessions_,
+                streams_);
+            sessions_.execute(() -> {
+                try {
+                    link.run();
+                } finally {
+                    onClose.run();
+                }
+            });
+        }
+    }
+
+    @Override
+    public final void close() throws IOException {
+        sessions_.shutdown();
+        synchronized (links_) {
+            for (final MuxLink link : links_) {
+                IOUtils.closeQuietly(link);
+            }
+        }
+        forward_.close();
+    }
+
+    private MuxLink getLink() throws IOException {
+        synchronized (links_) {
+            final int index = nextLink_;
+            nextLink_ = (nextLink_ + 1) % links_.length;
+            MuxLink link = links_[index];
+            if (link == null || link.isClosed()) {
+                // Connecting under the lock holds up other new sessions, but
+                // only until the link is up, or fails to come up.
+                // The link releases its lease once it's done with the socket.
+                final Balancer.Lease lease = forward_.lease();
+                try {
+                    link = new MuxLink(lease.getSocket(), lease, codec_, pumps_, null, null, null);
+                } catch (IOException e) {
+                    lease.close();
+                    throw e;
+                }
+                link.start();
+                links_[index] = link;
+            }
+            return link;
+        }
+    }
+
+}
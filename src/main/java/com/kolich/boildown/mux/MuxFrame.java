@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.mux;
+
+import javax.annotation.Nullable;
+
+/**
+ * A frame on a multiplexed link, once the link itself has been unboiled:
+ *
+ * [type: 1 byte][stream id: 4 bytes, big endian][length: 4 bytes, big endian][payload]
+ *
+ * Only {@link #DATA} frames carry a payload, of {@code length} bytes; a
+ * {@link #WINDOW} frame's length is the number of bytes of credit it grants.
+ */
+final class MuxFrame {
+
+    /**
+     * Opens a new stream, to be connected to the forward host on the other side.
+     */
+    static final int OPEN = 0;
+
+    static final int DATA = 1;
+
+    /**
+     * The sender won't send anything more on the stream (a half-close).
+     */
+    static final int CLOSE = 2;
+
+    /**
+     * Grants the receiver credit to send that many more bytes on the stream.
+     */
+    static final int WINDOW = 3;
+
+    /**
+     * Aborts the stream, in both directions.
+     */
+    static final int RESET = 4;
+
+    static final int HEADER_LENGTH = 9;
+
+    final int type_;
+    final int streamId_;
+    final int length_;
+
+    /**
+     * Leased from the link's buffer pool, and released once written or consumed.
+     */
+    @Nullable
+    final byte[] payload_;
+
+    MuxFrame(final int type,
+             final int streamId,
+             final int length,
+             @Nullable final byte[] payload) {
+        type_ = type;
+        streamId_ = streamId;
+        length_ = length;
+        payload_ = payload;
+    }
+
+    MuxFrame(final int type,
+             final int streamId) {
+        this(type, streamId, 0, null);
+    }
+
+}
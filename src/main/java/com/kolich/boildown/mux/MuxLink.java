@@ -0,0 +1,409 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.mux;
+
+import com.kolich.boildown.Balancer;
+import com.kolich.boildown.Codec;
+import com.kolich.boildown.FlushPolicy;
+import com.kolich.boildown.pool.BufferPool;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-lived, boiled connection between the compressing and decompressing
+ * sides, carrying any number of {@link MuxStream}s.  Every frame, in either
+ * direction, goes through a single compressor (or decompressor) for the life
+ * of the link, so streaming codecs compress each session using the history of
+ * every session before it.
+ *
+ * The compressing side opens streams; the decompressing side connects each one
+ * it's asked to open to the forward host, unless it's already at its limit of
+ * streams, in which case it resets the stream.
+ */
+final class MuxLink implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MuxLink.class);
+
+    /**
+     * Marks the end of the link's outbound frames.
+     */
+    private static final MuxFrame END = new MuxFrame(MuxFrame.CLOSE, -1);
+
+    private final Socket socket_;
+
+    /**
+     * The lease the socket came from, on the compressing side; released once
+     * the writer has finished with the socket.
+     */
+    @Nullable
+    private final Balancer.Lease lease_;
+
+    private final Codec codec_;
+    private final BufferPool pool_;
+
+    private final ThreadFactory pumps_;
+
+    /**
+     * Where to connect streams the peer opens, on the decompressing side;
+     * null on the compressing side, which opens them.
+     */
+    @Nullable
+    private final Balancer forward_;
+
+    /**
+     * Where streams the peer opens run, and the permits they take while they
+     * do, shared with every other link; decompressing side only.
+     */
+    @Nullable
+    private final ExecutorService sessions_;
+    @Nullable
+    private final Semaphore permits_;
+
+    private final ConcurrentMap<Integer, MuxStream> streams_ = new ConcurrentHashMap<>();
+    private final AtomicInteger nextStreamId_ = new AtomicInteger();
+
+    /**
+     * Frames waiting to be boiled and written to the link, from every stream.
+     */
+    private final BlockingQueue<MuxFrame> outbound_ = new LinkedBlockingQueue<>();
+
+    private final AtomicBoolean closed_ = new AtomicBoolean(false);
+
+    MuxLink(final Socket socket,
+            @Nullable final Balancer.Lease lease,
+            final Codec codec,
+            final ThreadFactory pumps,
+            @Nullable final Balancer forward,
+            @Nullable final ExecutorService sessions,
+            @Nullable final Semaphore permits) throws IOException {
+        socket_ = socket;
+        lease_ = lease;
+        // The writer already coalesces frames into blocks; Nagle would only
+        // hold up small ones, like a new stream's first request.
+        socket_.setTcpNoDelay(true);
+        codec_ = codec;
+        pool_ = codec.getBufferPool();
+        pumps_ = pumps;
+        forward_ = forward;
+        sessions_ = sessions;
+        permits_ = permits;
+    }
+
+    /**
+     * Starts writing to the link on a new pump thread, and reads from it on
+     * the calling thread until the link goes down.
+     */
+    final void run() {
+        newPumpThread(this::write).start();
+        read();
+    }
+
+    /**
+     * Like {@link #run()}, but reads from the link on a new pump thread too.
+     */
+    final void start() {
+        newPumpThread(this::write).start();
+        newPumpThread(this::read).start();
+    }
+
+    final boolean isClosed() {
+        return closed_.get();
+    }
+
+    final int getStreamCount() {
+        return streams_.size();
+    }
+
+    /**
+     * Opens a new stream on the link, on the compressing side.  Nothing waits on
+     * the peer to acknowledge the stream; its data can follow right behind.
+     */
+    final MuxStream open() throws IOException {
+        final MuxStream stream = newStream(nextStreamId_.getAndIncrement());
+        try {
+            send(new MuxFrame(MuxFrame.OPEN, stream.getId()));
+        } catch (IOException e) {
+            remove(stream);
+            throw e;
+        }
+        return stream;
+    }
+
+    final void send(final MuxFrame frame) throws IOException {
+        outbound_.add(frame);
+        if (closed_.get()) {
+            // If the writer hasn't taken it by now, it never will.
+            if (outbound_.remove(frame) && frame.payload_ != null) {
+                pool_.release(frame.payload_);
+            }
+            throw new IOException("Mux link is closed.");
+        }
+    }
+
+    final void sendQuietly(final MuxFrame frame) {
+        try {
+            send(frame);
+        } catch (IOException e) {
+            // Nothing more to be done.
+        }
+    }
+
+    final void remove(final MuxStream stream) {
+        streams_.remove(stream.getId(), stream);
+    }
+
+    final Thread newPumpThread(final Runnable runnable) {
+        return pumps_.newThread(runnable);
+    }
+
+    /**
+     * Aborts every stream, and closes the link once the writer has finished
+     * the boiled stream, so the peer sees a clean end of it.
+     */
+    @Override
+    public final void close() {
+        if (closed_.compareAndSet(false, true)) {
+            outbound_.add(END);
+            for (final MuxStream stream : streams_.values()) {
+                stream.abort();
+            }
+            streams_.clear();
+        }
+    }
+
+    /**
+     * Like {@link #close()}, but doesn't wait on the writer.
+     */
+    private void abort() {
+        close();
+        IOUtils.closeQuietly(socket_);
+        IOUtils.closeQuietly(lease_);
+    }
+
+    private MuxStream newStream(final int id) throws IOException {
+        final MuxStream stream = new MuxStream(this, id, pool_, codec_.getBufferSize());
+        if (streams_.putIfAbsent(id, stream) != null) {
+            throw new IOException("Stream " + id + " is already open.");
+        }
+        if (closed_.get()) {
+            // Lost a race with close(), which may have missed it.
+            remove(stream);
+            throw new IOException("Mux link is closed.");
+        }
+        return stream;
+    }
+
+    private void accept(final int id) throws IOException {
+        if (forward_ == null || sessions_ == null || permits_ == null) {
+            throw new IOException("Peer tried to open stream " + id + " on the compressing side.");
+        }
+        if (!permits_.tryAcquire()) {
+            log.warn("Refused stream {} to {}; too many streams already.", id, forward_.getName());
+            sendQuietly(new MuxFrame(MuxFrame.RESET, id));
+            return;
+        }
+        final MuxStream stream;
+        try {
+            stream = newStream(id);
+        } catch (IOException e) {
+            permits_.release();
+            throw e;
+        }
+        try {
+            sessions_.execute(() -> {
+                try {
+                    connect(stream);
+                } finally {
+                    permits_.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down.
+            permits_.release();
+            reset(stream);
+        }
+    }
+
+    /**
+     * Connects a stream the peer opened to the forward host, and runs it until
+     * it closes.
+     */
+    private void connect(final MuxStream stream) {
+        final Balancer.Lease forward;
+        try {
+            forward = forward_.lease();
+        } catch (Exception e) {
+            log.warn("Failed to connect stream {} to {}", stream.getId(), forward_.getName(), e);
+            reset(stream);
+            return;
+        }
+        try {
+            stream.run(forward.getSocket());
+        } finally {
+            forward.close();
+        }
+    }
+
+    private void reset(final MuxStream stream) {
+        sendQuietly(new MuxFrame(MuxFrame.RESET, stream.getId()));
+        stream.abort();
+        remove(stream);
+    }
+
+    private void read() {
+        // Leave closing the socket to the writer.
+        try (final InputStream boiled = codec_.boil(new CloseShieldInputStream(socket_.getInputStream()))) {
+            final DataInputStream in = new DataInputStream(boiled);
+            int type;
+            while (-1 != (type = in.read())) {
+                final int id = in.readInt();
+                final int length = in.readInt();
+                if (type == MuxFrame.OPEN) {
+                    accept(id);
+                    continue;
+                }
+                byte[] payload = null;
+                if (type == MuxFrame.DATA) {
+                    if (length < 0 || length > MuxStream.INITIAL_WINDOW) {
+                        throw new IOException("Invalid mux frame length: " + length);
+                    }
+                    payload = pool_.lease(length);
+                    in.readFully(payload, 0, length);
+                } else if (type != MuxFrame.CLOSE && type != MuxFrame.WINDOW && type != MuxFrame.RESET) {
+                    throw new IOException("Unknown mux frame type: " + type);
+                }
+                final MuxStream stream = streams_.get(id);
+                if (stream == null) {
+                    // Most likely, frames that crossed paths with the stream closing.
+                    if (payload != null) {
+                        pool_.release(payload);
+                    }
+                } else if (type == MuxFrame.WINDOW) {
+                    stream.credit(length);
+                } else {
+                    stream.receive(new MuxFrame(type, id, length, payload));
+                }
+            }
+            // The peer closed the link cleanly; do the same.
+            close();
+        } catch (EOFException e) {
+            // The link went down mid-frame.
+            abort();
+        } catch (Exception e) {
+            failed(e);
+            abort();
+        }
+    }
+
+    private void write() {
+        final FlushPolicy flushPolicy = codec_.getFlushPolicy();
+        try (final OutputStream boiled = codec_.boil(socket_.getOutputStream())) {
+            // Some codecs write a stream header up front.
+            boiled.flush();
+            final byte[] header = new byte[MuxFrame.HEADER_LENGTH];
+            int pending = 0;
+            long pendingSince = 0L;
+            MuxFrame frame;
+            while ((frame = outbound_.take()) != END) {
+                header[0] = (byte)frame.type_;
+                writeInt(header, 1, frame.streamId_);
+                writeInt(header, 5, frame.length_);
+                boiled.write(header);
+                if (frame.payload_ != null) {
+                    try {
+                        boiled.write(frame.payload_, 0, frame.length_);
+                    } finally {
+                        pool_.release(frame.payload_);
+                    }
+                }
+                if (pending == 0) {
+                    pendingSince = System.nanoTime();
+                }
+                pending += MuxFrame.HEADER_LENGTH + ((frame.payload_ != null) ? frame.length_ : 0);
+                // Coalesce frames from every stream into a larger block while more are already waiting.
+                if (flushPolicy.shouldFlush(pending, pendingSince, outbound_.size())) {
+                    boiled.flush();
+                    pending = 0;
+                }
+            }
+        } catch (Exception e) {
+            failed(e);
+        } finally {
+            abort();
+            drain();
+        }
+    }
+
+    private void drain() {
+        MuxFrame frame;
+        while ((frame = outbound_.poll()) != null) {
+            if (frame.payload_ != null) {
+                pool_.release(frame.payload_);
+            }
+        }
+    }
+
+    private void failed(final Exception e) {
+        final String message = e.getMessage();
+        // Only log an ERROR if the exception is unrelated to the link going away.
+        if (!closed_.get() && message != null && !message.contains("Connection reset") &&
+                !message.contains("Broken pipe") && !message.contains("Socket closed")) {
+            log.error("Exception in mux link.", e);
+        }
+    }
+
+    private static void writeInt(final byte[] buffer,
+                                 final int offset,
+                                 final int value) {
+        buffer[offset] = (byte)(value >>> 24);
+        buffer[offset + 1] = (byte)(value >>> 16);
+        buffer[offset + 2] = (byte)(value >>> 8);
+        buffer[offset + 3] = (byte)value;
+    }
+
+}
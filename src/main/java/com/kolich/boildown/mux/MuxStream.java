@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.mux;
+
+import com.kolich.boildown.pool.BufferPool;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One logical session on a {@link MuxLink}.  Bytes read from the stream's socket
+ * are sent to the peer as {@link MuxFrame#DATA} frames, for no more than the
+ * credit the peer has granted, and frames received from the peer are queued and
+ * written to the socket by a pump thread of the stream's own.  A slow socket
+ * therefore only ever stalls its own stream, never the link underneath it.
+ */
+final class MuxStream {
+
+    private static final Logger log = LoggerFactory.getLogger(MuxStream.class);
+
+    /**
+     * Bytes either side may send on a stream before the other has to grant it
+     * more credit; also the most a stream will ever queue for its socket.
+     */
+    static final int INITIAL_WINDOW = 256 * 1024;
+
+    /**
+     * Marks the end of a stream's inbound frames.
+     */
+    private static final MuxFrame END = new MuxFrame(MuxFrame.CLOSE, -1);
+
+    private final MuxLink link_;
+    private final int id_;
+    private final BufferPool pool_;
+    private final int bufferSize_;
+
+    private volatile Socket socket_;
+
+    /**
+     * Frames received from the peer, waiting to be written to the socket.
+     */
+    private final BlockingQueue<MuxFrame> inbound_ = new LinkedBlockingQueue<>();
+
+    /**
+     * Bytes received from the peer that haven't been granted back to it yet.
+     * Only the link's reader increments it, and only the downstream pump
+     * decrements it, but the two race.
+     */
+    private final AtomicInteger unacknowledged_ = new AtomicInteger();
+
+    /**
+     * Bytes this side may still send to the peer; guarded by {@code this}.
+     */
+    private int credit_ = INITIAL_WINDOW;
+
+    private volatile boolean aborted_ = false;
+
+    MuxStream(final MuxLink link,
+              final int id,
+              final BufferPool pool,
+              final int bufferSize) {
+        link_ = link;
+        id_ = id;
+        pool_ = pool;
+        bufferSize_ = bufferSize;
+    }
+
+    final int getId() {
+        return id_;
+    }
+
+    /**
+     * Pumps the stream in both directions until both are done; upstream on the
+     * calling thread, downstream on a new pump thread.
+     */
+    final void run(final Socket socket) {
+        socket_ = socket;
+        final Thread downstream = link_.newPumpThread(this::downstream);
+        try {
+            if (aborted_) {
+                // The peer reset the stream, or the link died, before we got here.
+                return;
+            }
+            downstream.start();
+            upstream();
+            downstream.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            abort();
+            link_.remove(this);
+        }
+    }
+
+    /**
+     * Called by the link's reader thread, which must never block on a stream.
+     */
+    final void receive(final MuxFrame frame) throws IOException {
+        if (frame.type_ == MuxFrame.RESET) {
+            // Don't bother writing out whatever's still queued.
+            abort();
+            return;
+        } else if (frame.type_ == MuxFrame.DATA &&
+                unacknowledged_.addAndGet(frame.length_) > INITIAL_WINDOW) {
+            pool_.release(frame.payload_);
+            throw new IOException("Peer overran the window of stream " + id_ + ".");
+        }
+        inbound_.add(frame);
+    }
+
+    final void credit(final int bytes) {
+        synchronized (this) {
+            credit_ += bytes;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Tears the stream down in both directions, for good.
+     */
+    final void abort() {
+        synchronized (this) {
+            aborted_ = true;
+            notifyAll();
+        }
+        inbound_.add(END);
+        IOUtils.closeQuietly(socket_);
+    }
+
+    private void upstream() {
+        boolean reset = true;
+        try {
+            final InputStream in = socket_.getInputStream();
+            while (true) {
+                // Never read more than we're allowed to send; what's left
+                // of the socket's input stays in its receive buffer.
+                final int credit = acquire(bufferSize_);
+                final byte[] buffer = pool_.lease(credit);
+                final int n;
+                try {
+                    n = in.read(buffer, 0, credit);
+                } catch (IOException e) {
+                    pool_.release(buffer);
+                    throw e;
+                }
+                if (n < 0) {
+                    pool_.release(buffer);
+                    break;
+                }
+                if (n < credit) {
+                    credit(credit - n);
+                }
+                link_.send(new MuxFrame(MuxFrame.DATA, id_, n, buffer));
+            }
+            link_.send(new MuxFrame(MuxFrame.CLOSE, id_));
+            reset = false;
+        } catch (Exception e) {
+            failed(e);
+        } finally {
+            if (reset && !aborted_) {
+                // We can no longer read the socket; neither side can make use of the stream.
+                link_.sendQuietly(new MuxFrame(MuxFrame.RESET, id_));
+                abort();
+            }
+        }
+    }
+
+    private void downstream() {
+        try {
+            final OutputStream out = socket_.getOutputStream();
+            int consumed = 0;
+            while (true) {
+                final MuxFrame frame = inbound_.take();
+                if (frame == END) {
+                    break;
+                } else if (frame.type_ == MuxFrame.CLOSE) {
+                    // The peer is done sending; pass the half-close along.
+                    socket_.shutdownOutput();
+                    break;
+                }
+                try {
+                    out.write(frame.payload_, 0, frame.length_);
+                } finally {
+                    pool_.release(frame.payload_);
+                }
+                consumed += frame.length_;
+                // Grant the credit back in batches, but never sit on it once
+                // we've caught up, or an interactive stream would stall.
+                if (consumed >= INITIAL_WINDOW / 4 || inbound_.isEmpty()) {
+                    unacknowledged_.addAndGet(-consumed);
+                    link_.send(new MuxFrame(MuxFrame.WINDOW, id_, consumed, null));
+                    consumed = 0;
+                }
+            }
+        } catch (Exception e) {
+            failed(e);
+            if (!aborted_) {
+                link_.sendQuietly(new MuxFrame(MuxFrame.RESET, id_));
+                abort();
+            }
+        } finally {
+            // Anything still queued was never written.
+            MuxFrame frame;
+            while ((frame = inbound_.poll()) != null) {
+                if (frame.payload_ != null) {
+                    pool_.release(frame.payload_);
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocks until the peer has granted at least one byte of credit, and takes
+     * up to {@code max} bytes of it.
+     */
+    private int acquire(final int max) throws IOException, InterruptedException {
+        synchronized (this) {
+            while (credit_ == 0 && !aborted_) {
+                wait();
+            }
+            if (aborted_) {
+                throw new IOException("Stream " + id_ + " was reset.");
+            }
+            final int credit = Math.min(credit_, max);
+            credit_ -= credit;
+            return credit;
+        }
+    }
+
+    private void failed(final Exception e) {
+        final String message = e.getMessage();
+        // Only log an ERROR if the exception is unrelated to the stream going away.
+        if (!aborted_ && message != null && !message.contains("Connection reset") &&
+                !message.contains("Broken pipe") && !message.contains("Socket closed")) {
+            log.error("Exception in mux stream " + id_ + ".", e);
+        }
+    }
+
+}
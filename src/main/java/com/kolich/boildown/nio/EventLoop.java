@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.nio;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread.  Every channel registered with a loop is only ever
+ * touched from that loop's thread; other threads hand work over via
+ * {@link #execute(Runnable)}.
+ */
+final class EventLoop implements Runnable, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(EventLoop.class);
+
+    interface Handler {
+
+        void ready(final SelectionKey key);
+
+        void close();
+
+    }
+
+    private final Selector selector_;
+
+    private final Queue<Runnable> tasks_ = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running_ = true;
+
+    EventLoop() throws IOException {
+        selector_ = Selector.open();
+    }
+
+    final Selector getSelector() {
+        return selector_;
+    }
+
+    final void execute(final Runnable task) {
+        tasks_.add(task);
+        selector_.wakeup();
+    }
+
+    @Override
+    public final void run() {
+        try {
+            while (running_) {
+                selector_.select();
+                Runnable task;
+                while ((task = tasks_.poll()) != null) {
+                    task.run();
+                }
+                final Iterator<SelectionKey> keys = selector_.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        ((Handler)key.attachment()).ready(key);
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Loop was closed underneath us, done.
+        } catch (Exception e) {
+            log.error("Exception in event loop.", e);
+        } finally {
+            if (selector_.isOpen()) {
+                for (final SelectionKey key : new ArrayList<>(selector_.keys())) {
+                    ((Handler)key.attachment()).close();
+                }
+            }
+            IOUtils.closeQuietly(selector_);
+        }
+    }
+
+    @Override
+    public final void close() {
+        running_ = false;
+        selector_.wakeup();
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.nio;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A fixed set of {@link EventLoop}s, each on its own thread, that any number
+ * of {@link NioEngine}s can share.  Closing the group closes every session on
+ * any of its loops.
+ */
+public final class EventLoopGroup implements Closeable {
+
+    private final EventLoop[] loops_;
+
+    private final AtomicInteger next_ = new AtomicInteger();
+
+    @ParametersAreNonnullByDefault
+    public EventLoopGroup(final int eventLoops,
+                          final ThreadFactory threadFactory) throws IOException {
+        checkArgument(eventLoops > 0, "Must have at least one event loop.");
+        checkNotNull(threadFactory, "Thread factory cannot be null.");
+        loops_ = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops_[i] = new EventLoop();
+            threadFactory.newThread(loops_[i]).start();
+        }
+    }
+
+    /**
+     * Returns the next loop, round-robin.
+     */
+    final EventLoop next() {
+        return loops_[(next_.getAndIncrement() & Integer.MAX_VALUE) % loops_.length];
+    }
+
+    @Override
+    public final void close() {
+        for (final EventLoop loop : loops_) {
+            loop.close();
+        }
+    }
+
+}
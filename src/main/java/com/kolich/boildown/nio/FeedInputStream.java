@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * An in-memory input stream that bytes are "fed" into as they arrive off of a
+ * non-blocking channel.  Only bytes up to the current frame boundary are
+ * visible to readers, so a blocking codec stream layered on top never sees
+ * (or waits on) a partial frame.
+ */
+final class FeedInputStream extends InputStream {
+
+    private byte[] buffer_;
+
+    /**
+     * Read position, end of the last complete frame, and end of the buffered data.
+     */
+    private int position_ = 0;
+    private int boundary_ = 0;
+    private int limit_ = 0;
+
+    FeedInputStream(final int initialSize) {
+        buffer_ = new byte[initialSize];
+    }
+
+    final void append(final byte[] b,
+                      final int off,
+                      final int len) {
+        if (limit_ + len > buffer_.length) {
+            // Compact what's already been read, then grow if still needed.
+            System.arraycopy(buffer_, position_, buffer_, 0, limit_ - position_);
+            boundary_ -= position_;
+            limit_ -= position_;
+            position_ = 0;
+            if (limit_ + len > buffer_.length) {
+                buffer_ = Arrays.copyOf(buffer_, Math.max(buffer_.length * 2, limit_ + len));
+            }
+        }
+        System.arraycopy(b, off, buffer_, limit_, len);
+        limit_ += len;
+    }
+
+    /**
+     * Lets the given scanner advance the frame boundary over any frames that
+     * are now complete.
+     */
+    final void scan(final FrameScanner scanner) throws IOException {
+        boundary_ = scanner.scan(buffer_, boundary_, limit_);
+    }
+
+    /**
+     * Number of buffered bytes that are not yet part of a complete frame.
+     */
+    final int partial() {
+        return limit_ - boundary_;
+    }
+
+    @Override
+    public int read() {
+        if (position_ >= boundary_) {
+            return -1;
+        }
+        return buffer_[position_++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b,
+                    int off,
+                    int len) {
+        if (position_ >= boundary_) {
+            return -1;
+        }
+        final int toCopy = Math.min(len, boundary_ - position_);
+        System.arraycopy(buffer_, position_, b, off, toCopy);
+        position_ += toCopy;
+        return toCopy;
+    }
+
+    @Override
+    public int available() {
+        return boundary_ - position_;
+    }
+
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.nio;
+
+import com.kolich.boildown.Boiler;
+
+import java.io.IOException;
+
+/**
+ * Finds frame boundaries in a boiled byte stream without decoding it, so the
+ * event loop knows when enough bytes have arrived to hand a complete frame to
+ * the (blocking) codec input stream.
+ */
+abstract class FrameScanner {
+
+    /**
+     * Number of complete frames found so far.
+     */
+    protected long frames_ = 0L;
+
+    /**
+     * Returns the offset just past the last complete frame found in
+     * {@code b} between {@code off} (the start of a frame) and {@code limit}.
+     */
+    abstract int scan(final byte[] b, int off, final int limit) throws IOException;
+
+    final long getFrames() {
+        return frames_;
+    }
+
+    static final FrameScanner getInstance(final Boiler.Strategery strategery) {
+        switch (strategery) {
+            case ZLIB:
+            case ZLIB_STREAM:
+                return new ZLIBFrameScanner();
+            case LZF:
+                return new LZFFrameScanner();
+            case SNAPPY:
+                return new SnappyFramedFrameScanner();
+            case ZSTD:
+                return new ZstdFrameScanner();
+            case LZ4:
+                return new LZ4BlockFrameScanner();
+            case ADAPTIVE:
+            case PARALLEL:
+                return new AdaptiveFrameScanner();
+            default:
+                throw new IllegalArgumentException("No frame scanner for strategery: " + strategery);
+        }
+    }
+
+    /**
+     * [compressed length: 4 bytes, big endian][uncompressed length: 4 bytes, big endian][data]
+     */
+    private static final class ZLIBFrameScanner extends FrameScanner {
+        @Override
+        final int scan(final byte[] b, int off, final int limit) {
+            while (limit - off >= 8) {
+                final int frameLength = 8 + readIntBE(b, off);
+                if (limit - off < frameLength) {
+                    break;
+                }
+                off += frameLength;
+                frames_++;
+            }
+            return off;
+        }
+    }
+
+    /**
+     * 'Z', 'V', then either [0][length: 2 bytes][data] for a non-compressed chunk
+     * or [1][compressed length: 2 bytes][uncompressed length: 2 bytes][data].
+     */
+    private static final class LZFFrameScanner extends FrameScanner {
+        @Override
+        final int scan(final byte[] b, int off, final int limit) throws IOException {
+            while (limit - off >= 5) {
+                if (b[off] != 'Z' || b[off + 1] != 'V') {
+                    throw new IOException("Corrupt LZF chunk header.");
+                }
+                final int frameLength;
+                if (b[off + 2] == 0) {
+                    frameLength = 5 + readShortBE(b, off + 3);
+                } else if (b[off + 2] == 1) {
+                    frameLength = 7 + readShortBE(b, off + 3);
+                } else {
+                    throw new IOException("Unknown LZF chunk type: " + b[off + 2]);
+                }
+                if (limit - off < frameLength) {
+                    break;
+                }
+                off += frameLength;
+                frames_++;
+            }
+            return off;
+        }
+    }
+
+    /**
+     * [chunk type: 1 byte][length: 3 bytes, little endian][data]
+     */
+    private static final class SnappyFramedFrameScanner extends FrameScanner {
+        @Override
+        final int scan(final byte[] b, int off, final int limit) {
+            while (limit - off >= 4) {
+                final int frameLength = 4 + ((b[off + 1] & 0xff) |
+                    ((b[off + 2] & 0xff) << 8) | ((b[off + 3] & 0xff) << 16));
+                if (limit - off < frameLength) {
+                    break;
+                }
+                off += frameLength;
+                frames_++;
+            }
+            return off;
+        }
+    }
+
+    /**
+     * A Zstd frame is [magic: 4 bytes][frame header: 2 to 14 bytes] followed by
+     * blocks of [block header: 3 bytes, little endian][data], the last of which
+     * may be followed by a 4 byte checksum.  A flush only ever ends a block, so
+     * blocks rather than whole frames are the unit here; a frame header is
+     * handed over along with its first block, never on its own.
+     */
+    private static final class ZstdFrameScanner extends FrameScanner {
+
+        private static final int MAGIC = 0xfd2fb528;
+        private static final int SKIPPABLE_MAGIC = 0x184d2a50;
+
+        private static final int[] DICTIONARY_ID_SIZES = {0, 1, 2, 4};
+
+        /**
+         * Whether the scanner is past the header of a frame that hasn't ended yet.
+         */
+        private boolean inFrame_ = false;
+        private boolean checksum_ = false;
+
+        @Override
+        final int scan(final byte[] b, int off, final int limit) throws IOException {
+            while (true) {
+                int pos = off;
+                boolean checksum = checksum_;
+                if (!inFrame_) {
+                    if (limit - pos < 8) {
+                        break;
+                    }
+                    final int magic = readIntLE(b, pos);
+                    if ((magic & 0xfffffff0) == SKIPPABLE_MAGIC) {
+                        final long frameLength = 8L + (readIntLE(b, pos + 4) & 0xffffffffL);
+                        if (limit - pos < frameLength) {
+                            break;
+                        }
+                        off += (int)frameLength;
+                        frames_++;
+                        continue;
+                    } else if (magic != MAGIC) {
+                        throw new IOException("Corrupt Zstd frame header.");
+                    }
+                    final int descriptor = b[pos + 4] & 0xff;
+                    final boolean singleSegment = (descriptor & 0x20) != 0;
+                    final int contentSizeFlag = descriptor >>> 6;
+                    checksum = (descriptor & 0x04) != 0;
+                    pos += 5 + ((singleSegment) ? 0 : 1) + DICTIONARY_ID_SIZES[descriptor & 0x03] +
+                        ((contentSizeFlag == 0) ? ((singleSegment) ? 1 : 0) : (1 << contentSizeFlag));
+                }
+                if (limit - pos < 3) {
+                    break;
+                }
+                final int header = (b[pos] & 0xff) | ((b[pos + 1] & 0xff) << 8) | ((b[pos + 2] & 0xff) << 16);
+                final boolean last = (header & 0x01) != 0;
+                final int type = (header >>> 1) & 0x03;
+                if (type == 3) {
+                    throw new IOException("Corrupt Zstd block header.");
+                }
+                // RLE blocks are a single byte, repeated.
+                pos += 3 + ((type == 1) ? 1 : (header >>> 3));
+                if (last && checksum) {
+                    pos += 4;
+                }
+                if (limit < pos) {
+                    break;
+                }
+                off = pos;
+                frames_++;
+                inFrame_ = !last;
+                checksum_ = checksum;
+            }
+            return off;
+        }
+
+    }
+
+    /**
+     * "LZ4Block", [token: 1 byte][compressed length: 4 bytes, little endian]
+     * [uncompressed length: 4 bytes, little endian][checksum: 4 bytes][data]
+     */
+    private static final class LZ4BlockFrameScanner extends FrameScanner {
+        @Override
+        final int scan(final byte[] b, int off, final int limit) {
+            while (limit - off >= 21) {
+                final int frameLength = 21 + readIntLE(b, off + 9);
+                if (limit - off < frameLength) {
+                    break;
+                }
+                off += frameLength;
+                frames_++;
+            }
+            return off;
+        }
+    }
+
+    /**
+     * [codec id: 1 byte][compressed length: 4 bytes, big endian][uncompressed length: 4 bytes, big endian][data]
+     */
+    private static final class AdaptiveFrameScanner extends FrameScanner {
+        @Override
+        final int scan(final byte[] b, int off, final int limit) {
+            while (limit - off >= 9) {
+                final int frameLength = 9 + readIntBE(b, off + 1);
+                if (limit - off < frameLength) {
+                    break;
+                }
+                off += frameLength;
+                frames_++;
+            }
+            return off;
+        }
+    }
+
+    private static int readIntLE(final byte[] b, final int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) |
+            ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 24);
+    }
+
+    private static int readIntBE(final byte[] b, final int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) |
+            ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private static int readShortBE(final byte[] b, final int off) {
+        return ((b[off] & 0xff) << 8) | (b[off + 1] & 0xff);
+    }
+
+}
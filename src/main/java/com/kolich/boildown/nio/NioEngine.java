@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.nio;
+
+import com.kolich.boildown.Boiler;
+import com.kolich.boildown.Codec;
+import com.kolich.boildown.Balancer;
+import com.kolich.boildown.Engine;
+import com.kolich.boildown.SocketOptions;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Event-driven engine: a small, fixed set of selector threads drive every
+ * session's channels in non-blocking mode, instead of three threads per session.
+ */
+public final class NioEngine implements Engine {
+
+    private static final Logger log = LoggerFactory.getLogger(NioEngine.class);
+
+    private final EventLoopGroup loops_;
+
+    /**
+     * Whether the loops are this engine's own to close, or shared.
+     */
+    private final boolean ownsLoops_;
+
+    private final Boiler.CompressionMethod method_;
+
+    private final Codec codec_;
+
+    /**
+     * Only picks the target; connections are made on the loops.
+     */
+    private final Balancer forward_;
+
+    private final SocketOptions options_;
+
+    @ParametersAreNonnullByDefault
+    public NioEngine(final int eventLoops,
+                     final ThreadFactory threadFactory,
+                     final Boiler.CompressionMethod method,
+                     final Codec codec,
+                     final Balancer forward,
+                     final SocketOptions options) throws IOException {
+        this(new EventLoopGroup(eventLoops, threadFactory), true, method, codec, forward, options);
+    }
+
+    /**
+     * Runs sessions on the given, shared loops, which are left open on close.
+     */
+    @ParametersAreNonnullByDefault
+    public NioEngine(final EventLoopGroup loops,
+                     final Boiler.CompressionMethod method,
+                     final Codec codec,
+                     final Balancer forward,
+                     final SocketOptions options) {
+        this(loops, false, method, codec, forward, options);
+    }
+
+    private NioEngine(final EventLoopGroup loops,
+                      final boolean ownsLoops,
+                      final Boiler.CompressionMethod method,
+                      final Codec codec,
+                      final Balancer forward,
+                      final SocketOptions options) {
+        loops_ = checkNotNull(loops, "Event loops cannot be null.");
+        ownsLoops_ = ownsLoops;
+        method_ = checkNotNull(method, "Compression method cannot be null.");
+        codec_ = checkNotNull(codec, "Codec cannot be null.");
+        forward_ = checkNotNull(forward, "Forward balancer cannot be null.");
+        options_ = checkNotNull(options, "Socket options cannot be null.");
+    }
+
+    @Override
+    public final ServerSocket listen(final int port) throws IOException {
+        // Accepted sockets must be backed by a channel so they can be registered with a loop.
+        return options_.listenChannel(port).socket();
+    }
+
+    @Override
+    public final void boil(final Socket client,
+                           final Runnable onClose) throws IOException {
+        final SocketChannel clientChannel = checkNotNull(client.getChannel(),
+            "Client socket must be backed by a channel.");
+        // Counts against the target until the session closes.
+        final Balancer.Lease lease = forward_.select();
+        SocketChannel forward = null;
+        try {
+            forward = SocketChannel.open();
+            clientChannel.configureBlocking(false);
+            forward.configureBlocking(false);
+            options_.configure(clientChannel);
+            options_.configure(forward);
+            final boolean connected = forward.connect(lease.getTarget().resolve());
+            final EventLoop loop = loops_.next();
+            final NioSession session = new NioSession(clientChannel, forward, method_, codec_, loop, () -> {
+                lease.close();
+                onClose.run();
+            });
+            loop.execute(() -> session.open(loop.getSelector(), connected));
+        } catch (Exception e) {
+            log.error("Failed to open forward connection.", e);
+            IOUtils.closeQuietly(forward);
+            IOUtils.closeQuietly(client);
+            lease.close();
+            onClose.run();
+        }
+    }
+
+    @Override
+    public final void close() throws IOException {
+        if (ownsLoops_) {
+            loops_.close();
+        }
+        forward_.close();
+    }
+
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.nio;
+
+import com.kolich.boildown.Boiler;
+import com.kolich.boildown.Codec;
+import com.kolich.boildown.FlushPolicy;
+import com.kolich.boildown.pool.BufferPool;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A boiled session between a client channel and its forward channel, driven
+ * entirely by the {@link EventLoop} it's registered with.  Each side half-closes
+ * its peer once it reaches EOF, and the session is torn down once both
+ * directions are done.
+ */
+final class NioSession {
+
+    private static final Logger log = LoggerFactory.getLogger(NioSession.class);
+
+    /**
+     * Upper bound on reads from a single channel per select, so one busy
+     * session can't starve the others on the same loop.
+     */
+    private static final int MAX_READS_PER_EVENT = 16;
+
+    private final Endpoint client_;
+    private final Endpoint forward_;
+
+    /**
+     * Stop reading from a channel once this many bytes are queued for its
+     * peer, and resume once they've drained below half of that.
+     */
+    private final int highWaterMark_;
+
+    private final FlushPolicy flushPolicy_;
+
+    /**
+     * Read buffers and transcoded output are leased from, and released to, this pool.
+     */
+    private final BufferPool pool_;
+
+    private final Runnable onClose_;
+
+    private boolean closed_ = false;
+
+    NioSession(final SocketChannel client,
+               final SocketChannel forward,
+               final Boiler.CompressionMethod method,
+               final Codec codec,
+               final EventLoop loop,
+               final Runnable onClose) throws IOException {
+        // Frames decompressed off of the loop are picked up back on it.
+        final Runnable onReady = () -> loop.execute(this::resume);
+        final Transcoder upstream, downstream;
+        if (Boiler.CompressionMethod.COMPRESS.equals(method)) {
+            // Compress client traffic, decompress forwarded traffic.
+            upstream = Transcoder.encoder(codec);
+            downstream = Transcoder.decoder(codec, onReady);
+        } else {
+            // Decompress client traffic, compress forwarded traffic.
+            upstream = Transcoder.decoder(codec, onReady);
+            downstream = Transcoder.encoder(codec);
+        }
+        pool_ = codec.getBufferPool();
+        client_ = new Endpoint(client, upstream, codec.getBufferSize());
+        forward_ = new Endpoint(forward, downstream, codec.getBufferSize());
+        client_.peer_ = forward_;
+        forward_.peer_ = client_;
+        highWaterMark_ = codec.getBufferSize() * 16;
+        flushPolicy_ = codec.getFlushPolicy();
+        onClose_ = onClose;
+    }
+
+    /**
+     * Registers both channels; must be called on the owning loop's thread.
+     */
+    final void open(final Selector selector,
+                    final boolean connected) {
+        try {
+            // Don't read anything from the client until the forward side is connected.
+            client_.key_ = client_.channel_.register(selector, 0, client_);
+            forward_.key_ = forward_.channel_.register(selector,
+                (connected) ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, forward_);
+            if (connected) {
+                connected();
+            }
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void connected() throws IOException {
+        client_.interest(SelectionKey.OP_READ, true);
+        forward_.interest(SelectionKey.OP_READ, true);
+        // Some codecs write a stream header up front, which the peer may be
+        // blocked waiting on before it sends anything of its own.
+        forward_.enqueue(client_.transcoder_.flush());
+        client_.enqueue(forward_.transcoder_.flush());
+    }
+
+    /**
+     * Runs on the loop's thread.
+     */
+    private void resume() {
+        if (closed_) {
+            return;
+        }
+        try {
+            client_.resume();
+            forward_.resume();
+            closeIfDone();
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    final void close() {
+        if (!closed_) {
+            closed_ = true;
+            IOUtils.closeQuietly(client_.channel_);
+            IOUtils.closeQuietly(forward_.channel_);
+            client_.release();
+            forward_.release();
+            onClose_.run();
+        }
+    }
+
+    private void fail(final Exception e) {
+        final String message = e.getMessage();
+        // Only log an ERROR if the exception is unrelated to the peer going away.
+        if (message != null && !message.contains("Connection reset") && !message.contains("Broken pipe")) {
+            log.error("Exception in NIO boiler session.", e);
+        }
+        close();
+    }
+
+    private void closeIfDone() {
+        if (client_.inputDone_ && forward_.inputDone_ &&
+                client_.outputDone_ && forward_.outputDone_) {
+            close();
+        }
+    }
+
+    private final class Endpoint implements EventLoop.Handler {
+
+        private final SocketChannel channel_;
+
+        /**
+         * Transcodes bytes read from this channel, on their way to the peer.
+         */
+        private final Transcoder transcoder_;
+
+        private final ByteBuffer readBuffer_;
+
+        /**
+         * Bytes read from this channel since the transcoder was last flushed.
+         */
+        private int unflushed_ = 0;
+        private long unflushedSince_ = 0L;
+
+        /**
+         * Boiled bytes waiting to be written to this channel.
+         */
+        private final Deque<ByteBuffer> pending_ = new ArrayDeque<>();
+        private long pendingBytes_ = 0L;
+
+        private Endpoint peer_ = null;
+        private SelectionKey key_ = null;
+
+        private boolean inputDone_ = false;
+        private boolean outputDone_ = false;
+        private boolean shutdownPending_ = false;
+
+        private Endpoint(final SocketChannel channel,
+                         final Transcoder transcoder,
+                         final int bufferSize) {
+            channel_ = channel;
+            transcoder_ = transcoder;
+            readBuffer_ = ByteBuffer.wrap(pool_.lease(bufferSize));
+        }
+
+        @Override
+        public final void ready(final SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    connect();
+                    return;
+                }
+                if (key.isWritable()) {
+                    write();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read();
+                }
+                closeIfDone();
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public final void close() {
+            NioSession.this.close();
+        }
+
+        private void connect() throws IOException {
+            if (channel_.finishConnect()) {
+                interest(SelectionKey.OP_CONNECT, false);
+                connected();
+            }
+        }
+
+        private void read() throws IOException {
+            int n = 0, reads = 0;
+            while (reads++ < MAX_READS_PER_EVENT && peer_.pendingBytes_ < highWaterMark_ &&
+                    (n = channel_.read(readBuffer_)) > 0) {
+                transcoder_.write(readBuffer_.array(), 0, n);
+                readBuffer_.clear();
+                if (unflushed_ == 0) {
+                    unflushedSince_ = System.nanoTime();
+                }
+                unflushed_ += n;
+                if (flushPolicy_.shouldFlush(unflushed_, unflushedSince_, 1)) {
+                    flush();
+                }
+            }
+            // Whatever's left is flushed at the end of every readiness event; coalescing
+            // within an event is all that's possible without blocking the loop.
+            flush();
+            if (n < 0) {
+                inputDone_ = true;
+                interest(SelectionKey.OP_READ, false);
+                finish();
+            } else if (peer_.pendingBytes_ >= highWaterMark_) {
+                // Peer can't keep up; stop reading until it drains.
+                interest(SelectionKey.OP_READ, false);
+            }
+        }
+
+        private void flush() throws IOException {
+            unflushed_ = 0;
+            peer_.enqueue(transcoder_.flush());
+        }
+
+        /**
+         * Picks up frames that finished decompressing off of the loop.
+         */
+        private void resume() throws IOException {
+            transcoder_.resume();
+            if (inputDone_) {
+                finish();
+            } else {
+                flush();
+            }
+        }
+
+        /**
+         * Half-closes the peer once everything read from this channel has been
+         * transcoded; frames still decompressing off of the loop finish first.
+         */
+        private void finish() throws IOException {
+            peer_.enqueue(transcoder_.finish());
+            if (transcoder_.isIdle()) {
+                peer_.shutdownOutput();
+            }
+        }
+
+        private void enqueue(@Nullable final ByteBuffer buffer) throws IOException {
+            if (buffer != null) {
+                pending_.add(buffer);
+                pendingBytes_ += buffer.remaining();
+                write();
+            }
+        }
+
+        private void write() throws IOException {
+            while (!pending_.isEmpty()) {
+                final ByteBuffer head = pending_.peek();
+                pendingBytes_ -= channel_.write(head);
+                if (head.hasRemaining()) {
+                    break;
+                }
+                pool_.release(pending_.poll().array());
+            }
+            if (pending_.isEmpty()) {
+                interest(SelectionKey.OP_WRITE, false);
+                if (shutdownPending_ && !outputDone_) {
+                    channel_.shutdownOutput();
+                    outputDone_ = true;
+                }
+            } else {
+                interest(SelectionKey.OP_WRITE, true);
+            }
+            // Resume reading from the peer if it was paused on our account.
+            if (pendingBytes_ < highWaterMark_ / 2 && !peer_.inputDone_ && !peer_.connecting()) {
+                peer_.interest(SelectionKey.OP_READ, true);
+            }
+        }
+
+        private void shutdownOutput() throws IOException {
+            shutdownPending_ = true;
+            write();
+        }
+
+        private void release() {
+            transcoder_.close();
+            for (final ByteBuffer buffer : pending_) {
+                pool_.release(buffer.array());
+            }
+            pending_.clear();
+            pool_.release(readBuffer_.array());
+        }
+
+        private boolean connecting() {
+            return channel_.isConnectionPending();
+        }
+
+        private void interest(final int op,
+                              final boolean enabled) {
+            if (key_ != null && key_.isValid()) {
+                final int ops = key_.interestOps();
+                key_.interestOps((enabled) ? (ops | op) : (ops & ~op));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.nio;
+
+import com.kolich.boildown.Boiler;
+import com.kolich.boildown.Codec;
+import com.kolich.boildown.pool.BufferPool;
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Drives a (blocking) codec stream from the event loop: bytes read off of a
+ * non-blocking channel go in, and boiled bytes destined for the peer channel
+ * come out.  Nothing in here ever blocks.
+ */
+abstract class Transcoder {
+
+    /**
+     * Consumes bytes read from the source channel.
+     */
+    abstract void write(final byte[] b, final int off, final int len) throws IOException;
+
+    /**
+     * Transcodes whatever has become ready since, without any more input.
+     */
+    abstract void resume() throws IOException;
+
+    /**
+     * Whether everything consumed so far has been transcoded, rather than
+     * some of it still being worked on off of the loop.
+     */
+    abstract boolean isIdle() throws IOException;
+
+    /**
+     * Returns everything transcoded so far, or null if there's nothing to write.
+     */
+    @Nullable
+    abstract ByteBuffer flush() throws IOException;
+
+    /**
+     * Called once the source channel has reached EOF; returns any trailing
+     * bytes, or null if there's nothing left to write.
+     */
+    @Nullable
+    abstract ByteBuffer finish() throws IOException;
+
+    /**
+     * Releases everything held by this transcoder; safe to call more than once.
+     */
+    abstract void close();
+
+    static final Transcoder encoder(final Codec codec) throws IOException {
+        return new Encoder(codec);
+    }
+
+    /**
+     * The given callback is run, from another thread, whenever a frame that was
+     * decompressing off of the loop is ready; the loop should then {@link #resume()}.
+     */
+    static final Transcoder decoder(final Codec codec,
+                                    final Runnable onReady) {
+        return new Decoder(codec, onReady);
+    }
+
+    private static final class Encoder extends Transcoder {
+
+        private final SinkOutputStream sink_;
+        private final OutputStream encoder_;
+
+        private Encoder(final Codec codec) throws IOException {
+            sink_ = new SinkOutputStream(codec.getBufferPool(), codec.getBufferSize());
+            encoder_ = checkNotNull(codec.boil(sink_), "Boiled output stream cannot be null.");
+        }
+
+        @Override
+        final void write(final byte[] b, final int off, final int len) throws IOException {
+            encoder_.write(b, off, len);
+        }
+
+        @Override
+        final void resume() {
+            // Nothing's ever transcoded off of the loop.
+        }
+
+        @Override
+        final boolean isIdle() {
+            return true;
+        }
+
+        @Nullable
+        @Override
+        final ByteBuffer flush() throws IOException {
+            encoder_.flush();
+            return sink_.drain();
+        }
+
+        @Nullable
+        @Override
+        final ByteBuffer finish() throws IOException {
+            encoder_.close();
+            return sink_.drain();
+        }
+
+        @Override
+        final void close() {
+            IOUtils.closeQuietly(encoder_);
+            sink_.release();
+        }
+
+    }
+
+    private static final class Decoder extends Transcoder {
+
+        private final Codec codec_;
+        private final FrameScanner scanner_;
+
+        private final Runnable onReady_;
+
+        /**
+         * Whether frames decompress on the codec's workers, in which case only
+         * those that have finished are ever read, and how many of them have.
+         */
+        private final boolean parallel_;
+        private final AtomicLong decompressed_ = new AtomicLong();
+
+        private final FeedInputStream feed_;
+        private final SinkOutputStream sink_;
+
+        private final BufferPool pool_;
+        private byte[] buffer_;
+
+        /**
+         * Created lazily, once the first complete frame has arrived, since some
+         * codecs read a stream header on construction.
+         */
+        private InputStream decoder_ = null;
+
+        private Decoder(final Codec codec,
+                        final Runnable onReady) {
+            codec_ = codec;
+            scanner_ = FrameScanner.getInstance(codec.getStrategery());
+            onReady_ = checkNotNull(onReady, "On ready callback cannot be null.");
+            parallel_ = Boiler.Strategery.PARALLEL.equals(codec.getStrategery());
+            feed_ = new FeedInputStream(codec.getBufferSize());
+            sink_ = new SinkOutputStream(codec.getBufferPool(), codec.getBufferSize());
+            pool_ = codec.getBufferPool();
+            buffer_ = pool_.lease(codec.getBufferSize());
+        }
+
+        @Override
+        final void write(final byte[] b, final int off, final int len) throws IOException {
+            feed_.append(b, off, len);
+            feed_.scan(scanner_);
+            resume();
+        }
+
+        @Override
+        final void resume() throws IOException {
+            // Only ever read from the decoder when it can be satisfied entirely from
+            // complete frames already in the feed, or from its own internal buffer.
+            while ((decoder_ == null) ? feed_.available() > 0 : isReadable()) {
+                if (decoder_ == null) {
+                    decoder_ = checkNotNull(codec_.boilFeed(feed_, () -> {
+                        decompressed_.incrementAndGet();
+                        onReady_.run();
+                    }), "Boiled input stream cannot be null.");
+                    continue;
+                }
+                final int n = decoder_.read(buffer_);
+                if (n < 0) {
+                    break;
+                }
+                sink_.write(buffer_, 0, n);
+            }
+        }
+
+        private boolean isReadable() throws IOException {
+            // A parallel stream counts only frames that have finished decompressing, and
+            // hands off any others in the feed as it does.
+            return (parallel_) ? decoder_.available() > 0 :
+                feed_.available() > 0 || decoder_.available() > 0;
+        }
+
+        @Override
+        final boolean isIdle() throws IOException {
+            return !parallel_ || (decompressed_.get() >= scanner_.getFrames() &&
+                (decoder_ == null || decoder_.available() == 0));
+        }
+
+        @Nullable
+        @Override
+        final ByteBuffer flush() throws IOException {
+            return sink_.drain();
+        }
+
+        @Nullable
+        @Override
+        final ByteBuffer finish() throws IOException {
+            if (feed_.partial() > 0) {
+                throw new EOFException("Boiled stream ended mid-frame.");
+            }
+            return sink_.drain();
+        }
+
+        @Override
+        final void close() {
+            IOUtils.closeQuietly(decoder_);
+            sink_.release();
+            pool_.release(buffer_);
+            buffer_ = null;
+        }
+
+    }
+
+    /**
+     * Hands its buffer over, as is, on every drain, and starts over with a
+     * freshly leased one; drained buffers are released back to the pool once
+     * they've been written.
+     */
+    private static final class SinkOutputStream extends ByteArrayOutputStream {
+
+        private final BufferPool pool_;
+        private final int size_;
+
+        private SinkOutputStream(final BufferPool pool,
+                                 final int size) {
+            super(0);
+            pool_ = pool;
+            size_ = size;
+            buf = pool_.lease(size_);
+        }
+
+        @Nullable
+        private ByteBuffer drain() {
+            if (count == 0) {
+                return null;
+            }
+            final ByteBuffer drained = ByteBuffer.wrap(buf, 0, count);
+            buf = pool_.lease(size_);
+            count = 0;
+            return drained;
+        }
+
+        /**
+         * Not {@link #close()}, which codec streams call on their way out.
+         */
+        private void release() {
+            pool_.release(buf);
+            buf = new byte[0];
+            count = 0;
+        }
+
+    }
+
+}
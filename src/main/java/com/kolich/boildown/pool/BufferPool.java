@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.pool;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A pool of heap buffers, shared by every session, in power of two size
+ * classes.  Sessions lease their buffers when they start and release them
+ * when they close, so connection churn doesn't churn the heap.  Buffers that
+ * don't fit in a size class, or that would grow the pool past its bound, are
+ * simply left for the garbage collector.
+ *
+ * Leased buffers may be larger than asked for, and are not zeroed.
+ */
+public final class BufferPool {
+
+    /**
+     * Allocates every buffer, and pools none of them.
+     */
+    public static final BufferPool UNPOOLED = new BufferPool(0, 0L);
+
+    public static final int DEFAULT_MAX_CLASS_SIZE = 1024 * 1024;
+    public static final long DEFAULT_MAX_POOLED_BYTES = 32L * 1024L * 1024L;
+
+    private static final int MIN_CLASS_SHIFT = 9; // 512 bytes
+    private static final int MIN_CLASS_SIZE = 1 << MIN_CLASS_SHIFT;
+
+    private final int maxClassSize_;
+
+    /**
+     * Idle buffers of each size class, most recently released first, and
+     * the number of them, which is bounded by the class's capacity.
+     */
+    private final List<Deque<byte[]>> classes_;
+    private final AtomicInteger[] counts_;
+    private final int[] capacities_;
+
+    private final LongAdder hits_ = new LongAdder();
+    private final LongAdder misses_ = new LongAdder();
+
+    public BufferPool() {
+        this(DEFAULT_MAX_CLASS_SIZE, DEFAULT_MAX_POOLED_BYTES);
+    }
+
+    /**
+     * @param maxClassSize the largest buffer size worth pooling
+     * @param maxPooledBytes bound on the total size of idle pooled buffers,
+     * split evenly between the size classes
+     */
+    public BufferPool(final int maxClassSize,
+                      final long maxPooledBytes) {
+        checkArgument(maxClassSize >= 0, "Max class size cannot be negative.");
+        checkArgument(maxPooledBytes >= 0L, "Max pooled bytes cannot be negative.");
+        final int classes = (maxClassSize < MIN_CLASS_SIZE) ? 0 : classIndex(maxClassSize) + 1;
+        maxClassSize_ = (classes == 0) ? 0 : classSize(classes - 1);
+        classes_ = new ArrayList<>(classes);
+        counts_ = new AtomicInteger[classes];
+        capacities_ = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            classes_.add(new ConcurrentLinkedDeque<>());
+            counts_[i] = new AtomicInteger();
+            capacities_[i] = (int)Math.min(Integer.MAX_VALUE, (maxPooledBytes / classes) / classSize(i));
+        }
+    }
+
+    /**
+     * Returns a buffer of at least {@code size} bytes.
+     */
+    public final byte[] lease(final int size) {
+        if (size > maxClassSize_) {
+            misses_.increment();
+            return new byte[size];
+        }
+        final int index = classIndex(size);
+        final byte[] buffer = classes_.get(index).pollFirst();
+        if (buffer != null) {
+            counts_[index].decrementAndGet();
+            hits_.increment();
+            return buffer;
+        }
+        misses_.increment();
+        return new byte[classSize(index)];
+    }
+
+    /**
+     * Returns a buffer to the pool; it must not be used again by the caller.
+     */
+    public final void release(@Nullable final byte[] buffer) {
+        if (buffer == null || buffer.length > maxClassSize_ || buffer.length < MIN_CLASS_SIZE) {
+            return;
+        }
+        final int index = classIndex(buffer.length);
+        if (buffer.length != classSize(index)) {
+            // Not leased from a pool, e.g., grown by its user.
+            return;
+        }
+        if (counts_[index].incrementAndGet() > capacities_[index]) {
+            counts_[index].decrementAndGet();
+            return;
+        }
+        classes_.get(index).offerFirst(buffer);
+    }
+
+    /**
+     * Number of leases satisfied by a pooled buffer.
+     */
+    public final long getHits() {
+        return hits_.sum();
+    }
+
+    /**
+     * Number of leases that had to allocate a new buffer.
+     */
+    public final long getMisses() {
+        return misses_.sum();
+    }
+
+    /**
+     * Total size, in bytes, of the idle buffers currently pooled.
+     */
+    public final long getPooledBytes() {
+        long bytes = 0L;
+        for (int i = 0; i < counts_.length; i++) {
+            bytes += (long)counts_[i].get() * classSize(i);
+        }
+        return bytes;
+    }
+
+    private static int classIndex(final int size) {
+        return (size <= MIN_CLASS_SIZE) ? 0 : (32 - Integer.numberOfLeadingZeros(size - 1)) - MIN_CLASS_SHIFT;
+    }
+
+    private static int classSize(final int index) {
+        return MIN_CLASS_SIZE << index;
+    }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.pool;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded pool of deflaters and inflaters, shared by every session.  Each
+ * holds onto native zlib memory that's only freed by {@code end()} (or, much
+ * later, by finalization), so sessions lease them when they start and release
+ * them when they close; released instances are reset and pooled for the next
+ * session, or ended right away once the pool is full.
+ */
+public final class ZLIBPool implements Closeable {
+
+    /**
+     * Pools nothing, but still ends every deflater and inflater on release.
+     */
+    public static final ZLIBPool UNPOOLED = new ZLIBPool(0);
+
+    public static final int DEFAULT_MAX_IDLE = 32;
+
+    /**
+     * Bound on the number of idle deflaters, and likewise on idle inflaters.
+     */
+    private final int maxIdle_;
+
+    private final Deque<Deflater> deflaters_ = new ConcurrentLinkedDeque<>();
+    private final Deque<Inflater> inflaters_ = new ConcurrentLinkedDeque<>();
+
+    private final AtomicInteger idleDeflaters_ = new AtomicInteger();
+    private final AtomicInteger idleInflaters_ = new AtomicInteger();
+
+    private final AtomicInteger deflatersInUse_ = new AtomicInteger();
+    private final AtomicInteger inflatersInUse_ = new AtomicInteger();
+
+    public ZLIBPool() {
+        this(DEFAULT_MAX_IDLE);
+    }
+
+    public ZLIBPool(final int maxIdle) {
+        checkArgument(maxIdle >= 0, "Max idle cannot be negative.");
+        maxIdle_ = maxIdle;
+    }
+
+    public final Deflater leaseDeflater(final int level,
+                                        final int strategy) {
+        deflatersInUse_.incrementAndGet();
+        final Deflater deflater = deflaters_.pollFirst();
+        if (deflater == null) {
+            final Deflater created = new Deflater(level);
+            created.setStrategy(strategy);
+            return created;
+        }
+        idleDeflaters_.decrementAndGet();
+        // Both take effect from the next (first) call to deflate().
+        deflater.setLevel(level);
+        deflater.setStrategy(strategy);
+        return deflater;
+    }
+
+    public final Inflater leaseInflater() {
+        inflatersInUse_.incrementAndGet();
+        final Inflater inflater = inflaters_.pollFirst();
+        if (inflater == null) {
+            return new Inflater();
+        }
+        idleInflaters_.decrementAndGet();
+        return inflater;
+    }
+
+    /**
+     * Returns a leased deflater to the pool; it must not be used again by the caller.
+     */
+    public final void release(@Nullable final Deflater deflater) {
+        if (deflater == null) {
+            return;
+        }
+        deflatersInUse_.decrementAndGet();
+        if (idleDeflaters_.incrementAndGet() > maxIdle_) {
+            idleDeflaters_.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        deflaters_.offerFirst(deflater);
+    }
+
+    /**
+     * Returns a leased inflater to the pool; it must not be used again by the caller.
+     */
+    public final void release(@Nullable final Inflater inflater) {
+        if (inflater == null) {
+            return;
+        }
+        inflatersInUse_.decrementAndGet();
+        if (idleInflaters_.incrementAndGet() > maxIdle_) {
+            idleInflaters_.decrementAndGet();
+            inflater.end();
+            return;
+        }
+        inflater.reset();
+        inflaters_.offerFirst(inflater);
+    }
+
+    public final int getDeflatersInUse() {
+        return deflatersInUse_.get();
+    }
+
+    public final int getInflatersInUse() {
+        return inflatersInUse_.get();
+    }
+
+    /**
+     * Number of native zlib contexts alive on account of this pool, whether
+     * leased or idle.
+     */
+    public final int getNativeContexts() {
+        return deflatersInUse_.get() + inflatersInUse_.get() + idleDeflaters_.get() + idleInflaters_.get();
+    }
+
+    /**
+     * Ends every idle deflater and inflater.
+     */
+    @Override
+    public final void close() {
+        Deflater deflater;
+        while ((deflater = deflaters_.pollFirst()) != null) {
+            idleDeflaters_.decrementAndGet();
+            deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = inflaters_.pollFirst()) != null) {
+            idleInflaters_.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.shaping;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Waits for a session's turn before every write to the link.
+ */
+final class ShapedOutputStream extends FilterOutputStream {
+
+    private final Shaper.Session session_;
+
+    ShapedOutputStream(final OutputStream os,
+                       final Shaper shaper) {
+        super(os);
+        session_ = shaper.new Session();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        session_.acquire(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b,
+                      int off,
+                      int len) throws IOException {
+        session_.acquire(len);
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        session_.close();
+        super.close();
+    }
+
+}
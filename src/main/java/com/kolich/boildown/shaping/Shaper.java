@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.shaping;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Shapes the traffic every session of a forwarder sends over the link, so one
+ * bulk transfer can't crowd out everyone else's interactive sessions.  Each
+ * session may be limited to a rate of its own, and every session of every
+ * forwarder that shares a global bucket is limited to its rate, together.
+ *
+ * Sessions are either interactive or bulk: unless fixed by the forwarder's
+ * {@link Priority}, a session is interactive until it sends more than the
+ * interactive rate within a second, and again after a second under it.  An
+ * interactive session is charged for what it sends, but never waits for the
+ * global bucket; what it sends is low in volume by definition, and so it
+ * goes out right away, ahead of any bulk sessions, which wait their turn,
+ * in order.  A waiting session stops reading its input, so the backpressure
+ * carries all the way back to the sender.
+ *
+ * Waits by blocking the writing thread; not for use by the NIO engine.
+ */
+public final class Shaper {
+
+    public enum Priority {
+        /**
+         * Interactive or bulk by how much the session sends.
+         */
+        AUTO,
+        INTERACTIVE,
+        BULK
+    }
+
+    /**
+     * A session sending no more than this within a second is interactive.
+     */
+    public static final long DEFAULT_INTERACTIVE_RATE = 64L * 1024L;
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    /**
+     * Shared by every forwarder, unless null.
+     */
+    @Nullable
+    private final TokenBucket global_;
+
+    /**
+     * Bytes per second each session is limited to, or 0 if unlimited.
+     */
+    private final long sessionRate_;
+
+    private final Priority priority_;
+
+    private final long interactiveRate_;
+
+    private final AtomicInteger waiting_ = new AtomicInteger();
+    private final AtomicLong throttledNanos_ = new AtomicLong();
+    private final AtomicInteger interactiveSessions_ = new AtomicInteger();
+    private final AtomicInteger bulkSessions_ = new AtomicInteger();
+
+    private Shaper(final Builder builder) {
+        global_ = builder.global_;
+        sessionRate_ = builder.sessionRate_;
+        priority_ = builder.priority_;
+        interactiveRate_ = builder.interactiveRate_;
+    }
+
+    @Nullable
+    public final TokenBucket getGlobal() {
+        return global_;
+    }
+
+    public final long getSessionRate() {
+        return sessionRate_;
+    }
+
+    public final Priority getPriority() {
+        return priority_;
+    }
+
+    public final long getInteractiveRate() {
+        return interactiveRate_;
+    }
+
+    /**
+     * Number of sessions waiting for their turn to send, right now.
+     */
+    public final int getWaiting() {
+        return waiting_.get();
+    }
+
+    /**
+     * Total time sessions have spent waiting for their turn to send.
+     */
+    public final long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos_.get());
+    }
+
+    public final int getInteractiveSessions() {
+        return interactiveSessions_.get();
+    }
+
+    public final int getBulkSessions() {
+        return bulkSessions_.get();
+    }
+
+    /**
+     * Wraps a session's stream to the link, shaping everything written to it.
+     */
+    @ParametersAreNonnullByDefault
+    public final OutputStream shape(final OutputStream os) {
+        checkNotNull(os, "Output stream cannot be null.");
+        return new ShapedOutputStream(os, this);
+    }
+
+    /**
+     * Per-session state, owned by the session's writing thread.
+     */
+    final class Session {
+
+        @Nullable
+        private final TokenBucket bucket_;
+
+        private boolean bulk_;
+
+        /**
+         * Start of the current one second window, and the bytes sent within it.
+         */
+        private long windowStart_;
+        private long windowBytes_ = 0L;
+
+        private boolean closed_ = false;
+
+        Session() {
+            bucket_ = (sessionRate_ > 0L) ? TokenBucket.perSecond(sessionRate_) : null;
+            bulk_ = Priority.BULK.equals(priority_);
+            windowStart_ = System.nanoTime();
+            count(bulk_, 1);
+        }
+
+        /**
+         * Waits until the given number of bytes may be sent.
+         */
+        final void acquire(final int bytes) throws InterruptedIOException {
+            classify(bytes);
+            long wait = (bucket_ != null) ? bucket_.reserve(bytes) : 0L;
+            if (global_ != null) {
+                if (!bulk_) {
+                    global_.reserve(bytes); // Charged, but never waits.
+                } else {
+                    // Reserve from the global bucket only once done waiting on the
+                    // session's own, so no one else waits on its behalf meanwhile.
+                    sleep(wait);
+                    wait = global_.reserve(bytes);
+                }
+            }
+            sleep(wait);
+        }
+
+        private void classify(final int bytes) {
+            if (!Priority.AUTO.equals(priority_)) {
+                return;
+            }
+            final long now = System.nanoTime();
+            if (now - windowStart_ >= WINDOW_NANOS) {
+                // Back to interactive after a quiet second.
+                setBulk(windowBytes_ > interactiveRate_ && now - windowStart_ < 2L * WINDOW_NANOS);
+                windowStart_ = now;
+                windowBytes_ = 0L;
+            }
+            windowBytes_ += bytes;
+            if (windowBytes_ > interactiveRate_) {
+                setBulk(true);
+            }
+        }
+
+        private void setBulk(final boolean bulk) {
+            if (bulk != bulk_) {
+                count(bulk_, -1);
+                count(bulk, 1);
+                bulk_ = bulk;
+            }
+        }
+
+        private void sleep(final long nanos) throws InterruptedIOException {
+            if (nanos <= 0L) {
+                return;
+            }
+            waiting_.incrementAndGet();
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled.");
+            } finally {
+                waiting_.decrementAndGet();
+                throttledNanos_.addAndGet(nanos);
+            }
+        }
+
+        final void close() {
+            if (!closed_) {
+                closed_ = true;
+                count(bulk_, -1);
+            }
+        }
+
+    }
+
+    private void count(final boolean bulk,
+                       final int delta) {
+        ((bulk) ? bulkSessions_ : interactiveSessions_).addAndGet(delta);
+    }
+
+    public static final class Builder {
+
+        private TokenBucket global_ = null;
+
+        private long sessionRate_ = 0L;
+
+        private Priority priority_ = Priority.AUTO;
+
+        private long interactiveRate_ = DEFAULT_INTERACTIVE_RATE;
+
+        /**
+         * Sets the bucket that every session of every forwarder sharing it is
+         * limited to, together.
+         */
+        @ParametersAreNonnullByDefault
+        public final Builder setGlobal(final TokenBucket global) {
+            global_ = checkNotNull(global, "Global bucket cannot be null.");
+            return this;
+        }
+
+        /**
+         * Sets the bytes per second each session is limited to, or 0 for unlimited.
+         */
+        public final Builder setSessionRate(final long sessionRate) {
+            checkArgument(sessionRate >= 0L, "Session rate cannot be negative.");
+            sessionRate_ = sessionRate;
+            return this;
+        }
+
+        @ParametersAreNonnullByDefault
+        public final Builder setPriority(final Priority priority) {
+            priority_ = checkNotNull(priority, "Priority cannot be null.");
+            return this;
+        }
+
+        /**
+         * Sets the bytes per second under which an {@link Priority#AUTO}
+         * session is interactive.
+         */
+        public final Builder setInteractiveRate(final long interactiveRate) {
+            checkArgument(interactiveRate > 0L, "Interactive rate must be greater than zero.");
+            interactiveRate_ = interactiveRate;
+            return this;
+        }
+
+        public final Shaper build() {
+            return new Shaper(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.shaping;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits a flow of bytes to a rate, allowing bursts of up to a given size.
+ * Bytes are reserved rather than waited for: a reservation always succeeds,
+ * possibly running the bucket into debt, and returns how long the caller
+ * must wait before sending them; so callers never wait while holding the
+ * bucket, and are served in the order they reserve.
+ *
+ * Thread safe.
+ */
+public final class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1L);
+
+    private final long rate_;
+    private final long burst_;
+
+    /**
+     * Tokens (bytes) available as of {@link #refilledAt_}; negative when in debt.
+     */
+    private double tokens_;
+    private long refilledAt_;
+
+    /**
+     * @param rate bytes per second
+     * @param burst most bytes that can be sent at once, after the bucket has been idle
+     */
+    public TokenBucket(final long rate,
+                       final long burst) {
+        checkArgument(rate > 0L, "Rate must be greater than zero.");
+        checkArgument(burst > 0L, "Burst must be greater than zero.");
+        rate_ = rate;
+        burst_ = burst;
+        tokens_ = burst;
+        refilledAt_ = System.nanoTime();
+    }
+
+    /**
+     * A bucket of the given rate, that bursts up to a tenth of a second's worth.
+     */
+    public static final TokenBucket perSecond(final long rate) {
+        return new TokenBucket(rate, Math.max(rate / 10L, 1L));
+    }
+
+    public final long getRate() {
+        return rate_;
+    }
+
+    /**
+     * Takes the given number of bytes from the bucket, and returns the number
+     * of nanoseconds until they're paid for; zero if they can be sent now.
+     */
+    public final synchronized long reserve(final long bytes) {
+        final long now = System.nanoTime();
+        tokens_ = Math.min(burst_, tokens_ + (double)(now - refilledAt_) * rate_ / NANOS_PER_SECOND);
+        refilledAt_ = now;
+        tokens_ -= bytes;
+        return (tokens_ >= 0.0) ? 0L : (long)(-tokens_ * NANOS_PER_SECOND / rate_);
+    }
+
+}
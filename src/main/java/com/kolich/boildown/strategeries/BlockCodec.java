@@ -0,0 +1,367 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.strategeries;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdException;
+import com.ning.compress.lzf.ChunkEncoder;
+import com.ning.compress.lzf.LZFDecoder;
+import com.ning.compress.lzf.LZFEncoder;
+import com.ning.compress.lzf.util.ChunkEncoderFactory;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.xerial.snappy.Snappy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codecs that compress a single, self-contained block at a time, as used by the
+ * adaptive and parallel strategeries.  The id of each is written into every block header, so
+ * it must never change.
+ */
+public enum BlockCodec {
+
+    RAW(0) {
+        @Override
+        public Encoder newEncoder(final int level) {
+            return new Encoder() {
+                @Override
+                public int compress(final byte[] src, final int off, final int len,
+                                    final byte[] dst, final int dstOff, final int maxLength) {
+                    if (len > maxLength) {
+                        return -1;
+                    }
+                    System.arraycopy(src, off, dst, dstOff, len);
+                    return len;
+                }
+                @Override
+                public void close() {}
+            };
+        }
+        @Override
+        public Decoder newDecoder() {
+            return new Decoder() {
+                @Override
+                public void decompress(final byte[] src, final int srcLength,
+                                       final byte[] dst, final int dstLength) throws IOException {
+                    if (srcLength != dstLength) {
+                        throw new IOException("Corrupt raw block.");
+                    }
+                    System.arraycopy(src, 0, dst, 0, srcLength);
+                }
+                @Override
+                public void close() {}
+            };
+        }
+    },
+
+    ZLIB(1) {
+        @Override
+        public Encoder newEncoder(final int level) {
+            final Deflater deflater = new Deflater(level);
+            return new Encoder() {
+                @Override
+                public int compress(final byte[] src, final int off, final int len,
+                                    final byte[] dst, final int dstOff, final int maxLength) {
+                    try {
+                        deflater.setInput(src, off, len);
+                        deflater.finish();
+                        final int size = deflater.deflate(dst, dstOff, maxLength);
+                        // Ran out of room before finishing; it doesn't fit.
+                        return (deflater.finished()) ? size : -1;
+                    } finally {
+                        deflater.reset();
+                    }
+                }
+                @Override
+                public void close() {
+                    deflater.end();
+                }
+            };
+        }
+        @Override
+        public Decoder newDecoder() {
+            final Inflater inflater = new Inflater();
+            return new Decoder() {
+                @Override
+                public void decompress(final byte[] src, final int srcLength,
+                                       final byte[] dst, final int dstLength) throws IOException {
+                    try {
+                        inflater.setInput(src, 0, srcLength);
+                        if (inflater.inflate(dst, 0, dstLength) != dstLength || !inflater.finished()) {
+                            throw new IOException("Corrupt ZLIB block.");
+                        }
+                    } catch (DataFormatException e) {
+                        throw new IOException("Data format exception.", e);
+                    } finally {
+                        inflater.reset();
+                    }
+                }
+                @Override
+                public void close() {
+                    inflater.end();
+                }
+            };
+        }
+    },
+
+    LZF(2) {
+        @Override
+        public Encoder newEncoder(final int level) {
+            final ChunkEncoder encoder = ChunkEncoderFactory.optimalInstance();
+            return new Encoder() {
+                private byte[] workspace_ = new byte[0];
+                @Override
+                public int compress(final byte[] src, final int off, final int len,
+                                    final byte[] dst, final int dstOff, final int maxLength) {
+                    // LZF can't be told where to stop, so it's given all the room it could need.
+                    final int bound = LZFEncoder.estimateMaxWorkspaceSize(len);
+                    if (workspace_.length < bound) {
+                        workspace_ = new byte[bound];
+                    }
+                    final int size = LZFEncoder.appendEncoded(encoder, src, off, len, workspace_, 0);
+                    if (size > maxLength) {
+                        return -1;
+                    }
+                    System.arraycopy(workspace_, 0, dst, dstOff, size);
+                    return size;
+                }
+                @Override
+                public void close() {
+                    encoder.close();
+                }
+            };
+        }
+        @Override
+        public Decoder newDecoder() {
+            return new Decoder() {
+                @Override
+                public void decompress(final byte[] src, final int srcLength,
+                                       final byte[] dst, final int dstLength) throws IOException {
+                    if (LZFDecoder.decode(src, 0, srcLength, dst) != dstLength) {
+                        throw new IOException("Corrupt LZF block.");
+                    }
+                }
+                @Override
+                public void close() {}
+            };
+        }
+    },
+
+    SNAPPY(3) {
+        @Override
+        public Encoder newEncoder(final int level) {
+            return new Encoder() {
+                private byte[] workspace_ = new byte[0];
+                @Override
+                public int compress(final byte[] src, final int off, final int len,
+                                    final byte[] dst, final int dstOff, final int maxLength) throws IOException {
+                    // Likewise, Snappy can't be told where to stop.
+                    final int bound = Snappy.maxCompressedLength(len);
+                    if (workspace_.length < bound) {
+                        workspace_ = new byte[bound];
+                    }
+                    final int size = Snappy.compress(src, off, len, workspace_, 0);
+                    if (size > maxLength) {
+                        return -1;
+                    }
+                    System.arraycopy(workspace_, 0, dst, dstOff, size);
+                    return size;
+                }
+                @Override
+                public void close() {}
+            };
+        }
+        @Override
+        public Decoder newDecoder() {
+            return new Decoder() {
+                @Override
+                public void decompress(final byte[] src, final int srcLength,
+                                       final byte[] dst, final int dstLength) throws IOException {
+                    if (!Snappy.isValidCompressedBuffer(src, 0, srcLength) ||
+                            Snappy.uncompressedLength(src, 0, srcLength) != dstLength) {
+                        throw new IOException("Corrupt Snappy block.");
+                    }
+                    Snappy.uncompress(src, 0, srcLength, dst, 0);
+                }
+                @Override
+                public void close() {}
+            };
+        }
+    },
+
+    LZ4(4) {
+        @Override
+        public Encoder newEncoder(final int level) {
+            final LZ4Factory factory = LZ4Factory.fastestInstance();
+            final LZ4Compressor compressor = (level == BoiledLZ4BlockOutputStream.FAST_LEVEL) ?
+                factory.fastCompressor() : factory.highCompressor(level);
+            return new Encoder() {
+                @Override
+                public int compress(final byte[] src, final int off, final int len,
+                                    final byte[] dst, final int dstOff, final int maxLength) {
+                    try {
+                        return compressor.compress(src, off, len, dst, dstOff, maxLength);
+                    } catch (LZ4Exception e) {
+                        // Doesn't fit.
+                        return -1;
+                    }
+                }
+                @Override
+                public void close() {}
+            };
+        }
+        @Override
+        public Decoder newDecoder() {
+            final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+            return new Decoder() {
+                @Override
+                public void decompress(final byte[] src, final int srcLength,
+                                       final byte[] dst, final int dstLength) throws IOException {
+                    try {
+                        if (decompressor.decompress(src, 0, dst, 0, dstLength) != srcLength) {
+                            throw new IOException("Corrupt LZ4 block.");
+                        }
+                    } catch (LZ4Exception e) {
+                        throw new IOException("Corrupt LZ4 block.", e);
+                    }
+                }
+                @Override
+                public void close() {}
+            };
+        }
+    },
+
+    ZSTD(5) {
+        @Override
+        public Encoder newEncoder(final int level) {
+            final ZstdCompressCtx context = new ZstdCompressCtx().setLevel(level);
+            return new Encoder() {
+                @Override
+                public int compress(final byte[] src, final int off, final int len,
+                                    final byte[] dst, final int dstOff, final int maxLength) {
+                    try {
+                        return context.compressByteArray(dst, dstOff, maxLength, src, off, len);
+                    } catch (ZstdException e) {
+                        if (e.getErrorCode() == Zstd.errDstSizeTooSmall()) {
+                            return -1;
+                        }
+                        throw e;
+                    }
+                }
+                @Override
+                public void close() {
+                    context.close();
+                }
+            };
+        }
+        @Override
+        public Decoder newDecoder() {
+            final ZstdDecompressCtx context = new ZstdDecompressCtx();
+            return new Decoder() {
+                @Override
+                public void decompress(final byte[] src, final int srcLength,
+                                       final byte[] dst, final int dstLength) throws IOException {
+                    try {
+                        if (context.decompressByteArray(dst, 0, dstLength, src, 0, srcLength) != dstLength) {
+                            throw new IOException("Corrupt Zstd block.");
+                        }
+                    } catch (ZstdException e) {
+                        throw new IOException("Corrupt Zstd block.", e);
+                    }
+                }
+                @Override
+                public void close() {
+                    context.close();
+                }
+            };
+        }
+    };
+
+    public interface Encoder extends Closeable {
+
+        /**
+         * Compresses {@code len} bytes of {@code src} into {@code dst}, starting at
+         * {@code dstOff}, returning the compressed size, or -1 if that would be
+         * more than {@code maxLength} bytes.
+         */
+        int compress(final byte[] src, final int off, final int len,
+                     final byte[] dst, final int dstOff, final int maxLength) throws IOException;
+
+        @Override
+        void close();
+
+    }
+
+    public interface Decoder extends Closeable {
+
+        /**
+         * Decompresses a block of exactly {@code dstLength} bytes.
+         */
+        void decompress(final byte[] src, final int srcLength,
+                        final byte[] dst, final int dstLength) throws IOException;
+
+        @Override
+        void close();
+
+    }
+
+    private final int id_;
+
+    BlockCodec(final int id) {
+        id_ = id;
+    }
+
+    public final int getId() {
+        return id_;
+    }
+
+    /**
+     * @param level codec specific; ignored by codecs that don't have levels
+     */
+    public abstract Encoder newEncoder(final int level);
+
+    public abstract Decoder newDecoder();
+
+    public static final BlockCodec forId(final int id) throws IOException {
+        for (final BlockCodec codec : values()) {
+            if (codec.id_ == id) {
+                return codec;
+            }
+        }
+        throw new IOException("Unknown block codec: " + id);
+    }
+
+}
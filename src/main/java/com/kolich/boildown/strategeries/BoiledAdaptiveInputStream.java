@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.strategeries;
+
+import com.kolich.boildown.pool.BufferPool;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Reads the blocks written by {@link BoiledAdaptiveOutputStream}, each with
+ * whichever {@link BlockCodec} its header names.
+ */
+public final class BoiledAdaptiveInputStream extends FilterInputStream {
+
+    /**
+     * Buffer of compressed data read from the stream.
+     */
+    private byte[] inBuf_ = null;
+
+    /**
+     * Buffer of uncompressed data.
+     */
+    private byte[] outBuf_ = null;
+
+    /**
+     * Offset and length of uncompressed data.
+     */
+    private int outOffs_ = 0;
+    private int outLength_ = 0;
+
+    private final byte[] header_ = new byte[9];
+
+    /**
+     * Created lazily, as each codec is first seen.
+     */
+    private final Map<BlockCodec, BlockCodec.Decoder> decoders_ = new EnumMap<>(BlockCodec.class);
+
+    /**
+     * Where the buffers are leased from, and returned to on close.
+     */
+    private final BufferPool pool_;
+
+    private boolean closed_ = false;
+
+    public static final InputStream getInstance(final InputStream is,
+                                                final BufferPool pool) throws IOException {
+        return new BoiledAdaptiveInputStream(is, pool);
+    }
+
+    private BoiledAdaptiveInputStream(InputStream is,
+                                      BufferPool pool) throws IOException {
+        super(is);
+        pool_ = pool;
+    }
+
+    private void readAndDecompress() throws IOException {
+        // A clean EOF is only possible between blocks.
+        final int first = in.read();
+        if (first < 0) {
+            throw new EOFException();
+        }
+        header_[0] = (byte)first;
+        readFully(header_, 1, header_.length - 1);
+
+        final BlockCodec codec = BlockCodec.forId(header_[0] & 0xff);
+        final int inLength = readInt(header_, 1);
+        final int outLength = readInt(header_, 5);
+        if (inLength < 0 || outLength < 0) {
+            throw new IOException("Corrupt block header.");
+        }
+
+        // Make sure we've got enough space to read the block.
+        if ((inBuf_ == null) || (inLength > inBuf_.length)) {
+            pool_.release(inBuf_);
+            inBuf_ = pool_.lease(inLength);
+        }
+        if ((outBuf_ == null) || (outLength > outBuf_.length)) {
+            pool_.release(outBuf_);
+            outBuf_ = pool_.lease(outLength);
+        }
+
+        // Read until we're got the entire compressed buffer.
+        readFully(inBuf_, 0, inLength);
+
+        BlockCodec.Decoder decoder = decoders_.get(codec);
+        if (decoder == null) {
+            decoder = codec.newDecoder();
+            decoders_.put(codec, decoder);
+        }
+        decoder.decompress(inBuf_, inLength, outBuf_, outLength);
+
+        outOffs_ = 0;
+        outLength_ = outLength;
+    }
+
+    private void readFully(final byte[] b,
+                           final int off,
+                           final int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            final int n = in.read(b, off + read, len - read);
+            if (n == -1) {
+                // Unlike an EOF between blocks, this one is unexpected.
+                throw new IOException("Boiled stream ended mid-block.");
+            }
+            read += n;
+        }
+    }
+
+    private static int readInt(final byte[] b,
+                               final int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) |
+            ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (outOffs_ >= outLength_) {
+            try {
+                readAndDecompress();
+            } catch(EOFException eof) {
+                return -1;
+            }
+        }
+
+        return outBuf_[outOffs_++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b,
+                    int off,
+                    int len) throws IOException {
+        int count = 0;
+
+        while (count < len) {
+            if (outOffs_ >= outLength_) {
+                try {
+                    // If we've read at least one decompressed byte and further decompression
+                    // would require blocking, return the count.
+                    if ((count > 0) && (in.available() == 0)) {
+                        return count;
+                    } else {
+                        readAndDecompress();
+                    }
+                } catch(EOFException eof) {
+                    if (count == 0) {
+                        count = -1;
+                    }
+                    return count;
+                }
+            }
+            int toCopy = Math.min(outLength_ - outOffs_, len - count);
+            System.arraycopy(outBuf_, outOffs_, b, off + count, toCopy);
+            outOffs_ += toCopy;
+            count += toCopy;
+        }
+
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        // This isn't precise, but should be an adequate lower bound on the actual
+        // amount of available data.
+        return (outLength_ - outOffs_) + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed_) {
+            return;
+        }
+        closed_ = true;
+        try {
+            for (final BlockCodec.Decoder decoder : decoders_.values()) {
+                decoder.close();
+            }
+        } finally {
+            pool_.release(inBuf_);
+            pool_.release(outBuf_);
+            inBuf_ = outBuf_ = null;
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.strategeries;
+
+import com.kolich.boildown.pool.BufferPool;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses each block on its own with one of a ladder of progressively
+ * cheaper {@link BlockCodec}s, ending with {@link BlockCodec#RAW}, stepping
+ * down the ladder while compression isn't paying off (e.g., for traffic that's
+ * already compressed or encrypted) and probing back up now and then.  A block
+ * that doesn't compress is always stored raw.
+ *
+ * [codec id: 1 byte][compressed length: 4 bytes, big endian][uncompressed length: 4 bytes, big endian][data]
+ */
+public final class BoiledAdaptiveOutputStream extends FilterOutputStream {
+
+    /**
+     * Step down to a cheaper codec once the running compression ratio
+     * (compressed / uncompressed) climbs above this.
+     */
+    private static final double STEP_DOWN_RATIO = 0.9d;
+
+    /**
+     * Step back up to a more expensive codec if it compresses a sample of a
+     * block down to this ratio or better.
+     */
+    private static final double STEP_UP_RATIO = 0.8d;
+
+    /**
+     * Weight of each block in the running compression ratio, and where the
+     * ratio starts from after every step; it takes a handful of blocks that
+     * don't compress to step down.
+     */
+    private static final double RATIO_WEIGHT = 0.25d;
+    private static final double INITIAL_RATIO = 0.5d;
+
+    /**
+     * Number of blocks between probes of the next codec up the ladder, and
+     * the most of each block a probe compresses.
+     */
+    private static final int PROBE_INTERVAL = 32;
+    private static final int PROBE_SAMPLE_SIZE = 4096;
+
+    /**
+     * Blocks smaller than this, like keystrokes, say little about how well the
+     * traffic compresses, and are left out of the running ratio.
+     */
+    private static final int MIN_OBSERVED_LENGTH = 64;
+
+    private static final int HEADER_LENGTH = 9;
+
+    /**
+     * Buffer for input data.
+     */
+    private byte[] inBuf_;
+
+    /**
+     * Buffer for each block to be written, header and all.
+     */
+    private byte[] outBuf_;
+
+    /**
+     * Number of bytes in the buffer, and the most it takes before a block is
+     * compressed; leased buffers may be larger.
+     */
+    private int length_ = 0;
+    private final int size_;
+
+    /**
+     * Where the buffers are leased from, and returned to on close.
+     */
+    private final BufferPool pool_;
+
+    private final BlockCodec[] ladder_;
+    private final int[] levels_;
+
+    /**
+     * Created lazily, as each codec on the ladder is first used.
+     */
+    private final BlockCodec.Encoder[] encoders_;
+
+    /**
+     * Index of the current codec on the ladder.
+     */
+    private int rung_ = 0;
+
+    private double ratio_ = INITIAL_RATIO;
+
+    private int sinceProbe_ = 0;
+
+    public static final OutputStream getInstance(final OutputStream os,
+                                                 final int bufferSize,
+                                                 final BlockCodec codec,
+                                                 final int level,
+                                                 final BufferPool pool) throws IOException {
+        return new BoiledAdaptiveOutputStream(os, bufferSize, codec, level, pool);
+    }
+
+    /**
+     * @param codec the preferred codec, at the top of the ladder
+     * @param level the preferred codec's compression level
+     */
+    public BoiledAdaptiveOutputStream(final OutputStream os,
+                                      final int size,
+                                      final BlockCodec codec,
+                                      final int level,
+                                      final BufferPool pool) throws IOException {
+        super(os);
+        pool_ = pool;
+        size_ = size;
+        inBuf_ = pool_.lease(size);
+        outBuf_ = pool_.lease(HEADER_LENGTH + size);
+        if (BlockCodec.RAW.equals(codec)) {
+            ladder_ = new BlockCodec[]{BlockCodec.RAW};
+            levels_ = new int[]{0};
+        } else if (BlockCodec.LZ4.equals(codec)) {
+            ladder_ = new BlockCodec[]{codec, BlockCodec.RAW};
+            levels_ = new int[]{level, 0};
+        } else {
+            // LZ4 is the cheapest codec that still compresses.
+            ladder_ = new BlockCodec[]{codec, BlockCodec.LZ4, BlockCodec.RAW};
+            levels_ = new int[]{level, BoiledLZ4BlockOutputStream.FAST_LEVEL, 0};
+        }
+        encoders_ = new BlockCodec.Encoder[ladder_.length];
+    }
+
+    /**
+     * Compresses the buffered block, and writes it out along with its header in
+     * one go; it's only flushed on {@link #flush()}.
+     */
+    protected void compressAndWrite() throws IOException {
+        if (length_ > 0) {
+            if (rung_ > 0 && ++sinceProbe_ >= PROBE_INTERVAL) {
+                probe();
+            }
+
+            BlockCodec codec = ladder_[rung_];
+            int size = -1;
+            if (!BlockCodec.RAW.equals(codec)) {
+                // Not worth the trouble on the other side unless it saves at least ~3%.
+                size = encoder(rung_).compress(inBuf_, 0, length_, outBuf_, HEADER_LENGTH,
+                    length_ - (length_ >>> 5) - 1);
+                if (length_ >= MIN_OBSERVED_LENGTH) {
+                    observe((size < 0) ? 1.0d : (double)size / length_);
+                }
+            }
+            if (size < 0) {
+                codec = BlockCodec.RAW;
+                size = length_;
+                System.arraycopy(inBuf_, 0, outBuf_, HEADER_LENGTH, size);
+            }
+
+            outBuf_[0] = (byte)codec.getId();
+            writeInt(outBuf_, 1, size);
+            writeInt(outBuf_, 5, length_);
+            out.write(outBuf_, 0, HEADER_LENGTH + size);
+
+            length_ = 0;
+        }
+    }
+
+    /**
+     * Tries the next codec up the ladder on a sample of the current block, and
+     * steps up to it if it compresses well.
+     */
+    private void probe() throws IOException {
+        sinceProbe_ = 0;
+        final int sample = Math.min(length_, PROBE_SAMPLE_SIZE);
+        final int size = encoder(rung_ - 1).compress(inBuf_, 0, sample, outBuf_, 0, sample);
+        if (size >= 0 && (double)size / sample <= STEP_UP_RATIO) {
+            rung_--;
+            ratio_ = INITIAL_RATIO;
+        }
+    }
+
+    private void observe(final double ratio) {
+        ratio_ = (ratio_ * (1.0d - RATIO_WEIGHT)) + (ratio * RATIO_WEIGHT);
+        if (ratio_ > STEP_DOWN_RATIO && rung_ < ladder_.length - 1) {
+            rung_++;
+            ratio_ = INITIAL_RATIO;
+            sinceProbe_ = 0;
+        }
+    }
+
+    private BlockCodec.Encoder encoder(final int rung) {
+        if (encoders_[rung] == null) {
+            encoders_[rung] = ladder_[rung].newEncoder(levels_[rung]);
+        }
+        return encoders_[rung];
+    }
+
+    private static void writeInt(final byte[] b, final int off, final int value) {
+        b[off] = (byte)(value >>> 24);
+        b[off + 1] = (byte)(value >>> 16);
+        b[off + 2] = (byte)(value >>> 8);
+        b[off + 3] = (byte)value;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        inBuf_[length_++] = (byte) b;
+        if (length_ == size_) {
+            compressAndWrite();
+        }
+    }
+
+    @Override
+    public void write(byte[] b,
+                      int offset,
+                      int len) throws IOException {
+        while ((length_ + len) > size_) {
+            int toCopy = size_ - length_;
+            System.arraycopy(b, offset, inBuf_, length_, toCopy);
+            length_ += toCopy;
+            compressAndWrite();
+            offset += toCopy;
+            len -= toCopy;
+        }
+        System.arraycopy(b, offset, inBuf_, length_, len);
+        length_ += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        compressAndWrite();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inBuf_ == null) {
+            return; // Already closed.
+        }
+        try {
+            compressAndWrite();
+        } finally {
+            for (final BlockCodec.Encoder encoder : encoders_) {
+                if (encoder != null) {
+                    encoder.close();
+                }
+            }
+            pool_.release(inBuf_);
+            pool_.release(outBuf_);
+            inBuf_ = outBuf_ = null;
+            out.close();
+        }
+    }
+
+}
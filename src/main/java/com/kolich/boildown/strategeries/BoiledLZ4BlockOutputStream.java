@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.strategeries;
+
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public final class BoiledLZ4BlockOutputStream {
+
+    /**
+     * Use the fast (non-HC) compressor.
+     */
+    public static final int FAST_LEVEL = 0;
+
+    /**
+     * LZ4 blocks are compressed independently, so bigger is better for ratio;
+     * flushing emits a partial block anyway, so this doesn't add any latency.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Must match the seed {@link net.jpountz.lz4.LZ4BlockInputStream} verifies with.
+     */
+    private static final int CHECKSUM_SEED = 0x9747b28c;
+
+    public static final OutputStream getInstance(final OutputStream os) throws IOException {
+        return getInstance(os, FAST_LEVEL);
+    }
+
+    /**
+     * @param level {@link #FAST_LEVEL} for the fast compressor, or 1 through 17
+     * for the (slower, smaller) LZ4 HC compressor at that level
+     */
+    public static final OutputStream getInstance(final OutputStream os,
+                                                 final int level) throws IOException {
+        final LZ4Factory factory = LZ4Factory.fastestInstance();
+        final LZ4Compressor compressor = (level == FAST_LEVEL) ?
+            factory.fastCompressor() : factory.highCompressor(level);
+        // Sync flush, so that every flush() emits the current (partial) block.
+        return new LZ4BlockOutputStream(os, BLOCK_SIZE, compressor,
+            XXHashFactory.fastestInstance().newStreamingHash32(CHECKSUM_SEED).asChecksum(), true);
+    }
+
+}
@@ -0,0 +1,434 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.strategeries;
+
+import com.kolich.boildown.pool.BufferPool;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Reads the blocks written by {@link BoiledParallelOutputStream} (or by
+ * {@link BoiledAdaptiveOutputStream}), decompressing up to {@code parallelism}
+ * of them at a time on a shared worker pool.  Blocks are only read ahead
+ * while more of them have already arrived, so a reader is never kept waiting
+ * on a block it doesn't need yet.
+ *
+ * A reader that must never block, like an event loop, uses
+ * {@link #getFeedInstance}: {@link #available()} then counts only blocks
+ * that have finished decompressing, and the reader is told as each one does.
+ */
+public final class BoiledParallelInputStream extends FilterInputStream {
+
+    /**
+     * Buffer of compressed data of the block currently being read, and its
+     * uncompressed data.
+     */
+    private byte[] inBuf_ = null;
+    private byte[] outBuf_ = null;
+
+    /**
+     * Offset and length of uncompressed data.
+     */
+    private int outOffs_ = 0;
+    private int outLength_ = 0;
+
+    private final byte[] header_ = new byte[9];
+
+    /**
+     * Blocks handed to the workers, in the order they were read.
+     */
+    private final Deque<Future<Block>> pending_ = new ArrayDeque<>();
+
+    /**
+     * Total uncompressed length of the pending blocks.
+     */
+    private long pendingLength_ = 0L;
+
+    /**
+     * Idle decoders of each codec, which each worker borrows for the duration
+     * of a block.
+     */
+    private final Map<BlockCodec, Queue<BlockCodec.Decoder>> decoders_ = new EnumMap<>(BlockCodec.class);
+
+    /**
+     * Where the buffers are leased from, and returned to on close.
+     */
+    private final BufferPool pool_;
+
+    private final ExecutorService executor_;
+
+    /**
+     * Most blocks in flight at once.
+     */
+    private final int parallelism_;
+
+    /**
+     * Run, from a worker, as each block finishes; null unless this stream
+     * is read only as far as {@link #available()} allows.
+     */
+    @Nullable
+    private final Runnable onReady_;
+
+    /**
+     * Whether a clean EOF has been read between blocks.
+     */
+    private boolean eof_ = false;
+
+    /**
+     * Volatile, since workers still finishing once a feed is closed check it.
+     */
+    private volatile boolean closed_ = false;
+
+    public static final InputStream getInstance(final InputStream is,
+                                                final BufferPool pool,
+                                                final ExecutorService executor,
+                                                final int parallelism) throws IOException {
+        return new BoiledParallelInputStream(is, pool, executor, parallelism, null);
+    }
+
+    /**
+     * Like {@link #getInstance}, but for a stream that only ever holds
+     * complete blocks, and may run dry between them, read by a caller that
+     * must never wait on a worker.  It reads no more than {@link #available()}
+     * reports, and picks up where it left off once {@code onReady} runs.
+     */
+    public static final InputStream getFeedInstance(final InputStream is,
+                                                    final BufferPool pool,
+                                                    final ExecutorService executor,
+                                                    final int parallelism,
+                                                    final Runnable onReady) throws IOException {
+        return new BoiledParallelInputStream(is, pool, executor, parallelism, onReady);
+    }
+
+    private BoiledParallelInputStream(InputStream is,
+                                      BufferPool pool,
+                                      ExecutorService executor,
+                                      int parallelism,
+                                      @Nullable Runnable onReady) throws IOException {
+        super(is);
+        pool_ = pool;
+        executor_ = executor;
+        parallelism_ = parallelism;
+        onReady_ = onReady;
+        for (final BlockCodec codec : BlockCodec.values()) {
+            decoders_.put(codec, new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * A block handed to a worker; its uncompressed data, once decompressed.
+     */
+    private static final class Block {
+
+        private final byte[] in_;
+        private final byte[] out_;
+
+        private final int length_;
+
+        private Block(final byte[] in,
+                      final byte[] out,
+                      final int length) {
+            in_ = in;
+            out_ = out;
+            length_ = length;
+        }
+
+    }
+
+    /**
+     * Moves on to the next block, reading ahead as many blocks as have
+     * already arrived.
+     */
+    private void readAndDecompress() throws IOException {
+        if (pending_.isEmpty()) {
+            if (!readBlock()) {
+                throw new EOFException();
+            }
+        }
+        readAhead();
+
+        final Block block = await(pending_.pollFirst());
+        pendingLength_ -= block.length_;
+        pool_.release(inBuf_);
+        pool_.release(outBuf_);
+        inBuf_ = block.in_;
+        outBuf_ = block.out_;
+
+        outOffs_ = 0;
+        outLength_ = block.length_;
+    }
+
+    /**
+     * Hands as many blocks to the workers as have already arrived.
+     */
+    private void readAhead() throws IOException {
+        while (pending_.size() < parallelism_ && !eof_ && in.available() > 0) {
+            readBlock();
+        }
+    }
+
+    /**
+     * Whether the next block can be moved on to without waiting on a worker,
+     * or on the underlying stream.
+     */
+    private boolean isReady() throws IOException {
+        if (pending_.isEmpty()) {
+            return onReady_ == null && in.available() > 0;
+        }
+        return onReady_ == null || pending_.peekFirst().isDone();
+    }
+
+    /**
+     * Reads a block, and hands it to a worker; returns false at a clean EOF.
+     */
+    private boolean readBlock() throws IOException {
+        // A clean EOF is only possible between blocks.
+        final int first = in.read();
+        if (first < 0) {
+            // A feed that's only run dry may yet be fed more.
+            eof_ = (onReady_ == null);
+            return false;
+        }
+        header_[0] = (byte)first;
+        readFully(header_, 1, header_.length - 1);
+
+        final BlockCodec codec = BlockCodec.forId(header_[0] & 0xff);
+        final int inLength = readInt(header_, 1);
+        final int outLength = readInt(header_, 5);
+        if (inLength < 0 || outLength < 0) {
+            throw new IOException("Corrupt block header.");
+        }
+
+        // Read until we're got the entire compressed buffer.
+        final byte[] in = pool_.lease(inLength);
+        try {
+            readFully(in, 0, inLength);
+        } catch (IOException e) {
+            pool_.release(in);
+            throw e;
+        }
+        final Callable<Block> task = () -> decompress(codec, in, inLength, outLength);
+        if (onReady_ == null) {
+            pending_.add(executor_.submit(task));
+        } else {
+            final FutureTask<Block> future = new FutureTask<Block>(task) {
+                @Override
+                protected void done() {
+                    onReady_.run();
+                }
+            };
+            executor_.execute(future);
+            pending_.add(future);
+        }
+        pendingLength_ += outLength;
+        return true;
+    }
+
+    /**
+     * Runs on a worker.
+     */
+    private Block decompress(final BlockCodec codec,
+                             final byte[] in,
+                             final int inLength,
+                             final int outLength) throws IOException {
+        final Queue<BlockCodec.Decoder> idle = decoders_.get(codec);
+        BlockCodec.Decoder decoder = idle.poll();
+        if (decoder == null) {
+            decoder = codec.newDecoder();
+        }
+        final byte[] out = pool_.lease(outLength);
+        try {
+            decoder.decompress(in, inLength, out, outLength);
+            return new Block(in, out, outLength);
+        } catch (Exception e) {
+            pool_.release(in);
+            pool_.release(out);
+            throw e;
+        } finally {
+            idle.offer(decoder);
+            // Once closed, nobody else will; whichever of us removes it closes it.
+            if (closed_ && idle.remove(decoder)) {
+                decoder.close();
+            }
+        }
+    }
+
+    private static Block await(final Future<Block> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decompressing a block.");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new IOException("Failed to decompress a block.", cause);
+        }
+    }
+
+    private void readFully(final byte[] b,
+                           final int off,
+                           final int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            final int n = in.read(b, off + read, len - read);
+            if (n == -1) {
+                // Unlike an EOF between blocks, this one is unexpected.
+                throw new IOException("Boiled stream ended mid-block.");
+            }
+            read += n;
+        }
+    }
+
+    private static int readInt(final byte[] b,
+                               final int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) |
+            ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (outOffs_ >= outLength_) {
+            try {
+                readAndDecompress();
+            } catch(EOFException eof) {
+                return -1;
+            }
+        }
+
+        return outBuf_[outOffs_++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b,
+                    int off,
+                    int len) throws IOException {
+        int count = 0;
+
+        while (count < len) {
+            if (outOffs_ >= outLength_) {
+                try {
+                    // If we've read at least one decompressed byte and further decompression
+                    // would require blocking, return the count.
+                    if ((count > 0) && !isReady()) {
+                        return count;
+                    } else {
+                        readAndDecompress();
+                    }
+                } catch(EOFException eof) {
+                    if (count == 0) {
+                        count = -1;
+                    }
+                    return count;
+                }
+            }
+            int toCopy = Math.min(outLength_ - outOffs_, len - count);
+            System.arraycopy(outBuf_, outOffs_, b, off + count, toCopy);
+            outOffs_ += toCopy;
+            count += toCopy;
+        }
+
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (onReady_ != null) {
+            // Only blocks that have finished count, since reading any further would
+            // wait on a worker; blocks that have since arrived are handed off first.
+            readAhead();
+            long ready = outLength_ - outOffs_;
+            for (final Future<Block> future : pending_) {
+                if (!future.isDone()) {
+                    break;
+                }
+                ready += await(future).length_;
+            }
+            return (int)Math.min(Integer.MAX_VALUE, ready);
+        }
+        // This isn't precise, but should be an adequate lower bound on the actual
+        // amount of available data; blocks already read ahead count in full.
+        return (int)Math.min(Integer.MAX_VALUE, (outLength_ - outOffs_) + pendingLength_ + in.available());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed_) {
+            return;
+        }
+        closed_ = true;
+        try {
+            // Let any blocks still in flight finish, so their buffers and decoders come back;
+            // unless closing mustn't wait on a worker, in which case they're left to the GC.
+            for (final Future<Block> future : pending_) {
+                if (onReady_ != null && !future.isDone()) {
+                    future.cancel(false);
+                    continue;
+                }
+                try {
+                    final Block block = await(future);
+                    pool_.release(block.in_);
+                    pool_.release(block.out_);
+                } catch (IOException e) {
+                    // Closing anyways.
+                }
+            }
+            pending_.clear();
+            pendingLength_ = 0L;
+            for (final Queue<BlockCodec.Decoder> idle : decoders_.values()) {
+                BlockCodec.Decoder decoder;
+                while ((decoder = idle.poll()) != null) {
+                    decoder.close();
+                }
+            }
+        } finally {
+            pool_.release(inBuf_);
+            pool_.release(outBuf_);
+            inBuf_ = outBuf_ = null;
+            in.close();
+        }
+    }
+
+}
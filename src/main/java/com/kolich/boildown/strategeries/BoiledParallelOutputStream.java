@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.strategeries;
+
+import com.kolich.boildown.pool.BufferPool;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the stream into blocks of up to {@code size} bytes, compresses up to
+ * {@code parallelism} of them at a time on a shared worker pool, and writes
+ * them out in the order they were written, pigz-style, so a single bulk
+ * transfer can use more than one core.  A block that doesn't compress is
+ * stored raw.  Blocks are framed exactly as by {@link BoiledAdaptiveOutputStream},
+ * so either {@link BoiledParallelInputStream} or {@link BoiledAdaptiveInputStream}
+ * can read them.
+ *
+ * [codec id: 1 byte][compressed length: 4 bytes, big endian][uncompressed length: 4 bytes, big endian][data]
+ */
+public final class BoiledParallelOutputStream extends FilterOutputStream {
+
+    private static final int HEADER_LENGTH = 9;
+
+    /**
+     * Buffer for input data, handed over to a worker once full.
+     */
+    private byte[] inBuf_;
+
+    /**
+     * Number of bytes in the buffer, and the most it takes before a block is
+     * compressed; leased buffers may be larger.
+     */
+    private int length_ = 0;
+    private final int size_;
+
+    /**
+     * Where the buffers are leased from, and returned to once each block has
+     * been written, or on close.
+     */
+    private final BufferPool pool_;
+
+    private final ExecutorService executor_;
+
+    /**
+     * Most blocks in flight at once, which bounds both the parallelism of
+     * this stream and the memory it holds.
+     */
+    private final int parallelism_;
+
+    private final BlockCodec codec_;
+    private final int level_;
+
+    /**
+     * Blocks handed to the workers, in the order they're to be written.
+     */
+    private final Deque<Future<Block>> pending_ = new ArrayDeque<>();
+
+    /**
+     * Idle encoders, which each worker borrows for the duration of a block;
+     * no more than {@link #parallelism_} are ever created.
+     */
+    private final Queue<BlockCodec.Encoder> encoders_ = new ConcurrentLinkedQueue<>();
+
+    private boolean closed_ = false;
+
+    public static final OutputStream getInstance(final OutputStream os,
+                                                 final int blockSize,
+                                                 final BlockCodec codec,
+                                                 final int level,
+                                                 final BufferPool pool,
+                                                 final ExecutorService executor,
+                                                 final int parallelism) throws IOException {
+        return new BoiledParallelOutputStream(os, blockSize, codec, level, pool, executor, parallelism);
+    }
+
+    public BoiledParallelOutputStream(final OutputStream os,
+                                      final int size,
+                                      final BlockCodec codec,
+                                      final int level,
+                                      final BufferPool pool,
+                                      final ExecutorService executor,
+                                      final int parallelism) throws IOException {
+        super(os);
+        pool_ = pool;
+        size_ = size;
+        codec_ = codec;
+        level_ = level;
+        executor_ = executor;
+        parallelism_ = parallelism;
+        inBuf_ = pool_.lease(size);
+    }
+
+    /**
+     * A compressed block, header and all, waiting to be written.
+     */
+    private static final class Block {
+
+        private final byte[] out_;
+        private final int length_;
+
+        private Block(final byte[] out,
+                      final int length) {
+            out_ = out;
+            length_ = length;
+        }
+
+    }
+
+    /**
+     * Hands the buffered data off to a worker, writing out as many finished
+     * blocks as it takes to make room for it.
+     */
+    private void submit() throws IOException {
+        if (length_ == 0) {
+            return;
+        }
+        while (pending_.size() >= parallelism_) {
+            writeNext();
+        }
+        final byte[] in = inBuf_;
+        final int length = length_;
+        inBuf_ = pool_.lease(size_);
+        length_ = 0;
+        pending_.add(executor_.submit(() -> compress(in, length)));
+        // Don't sit on blocks that are already done.
+        while (!pending_.isEmpty() && pending_.peekFirst().isDone()) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Runs on a worker; frames the block behind its header, so it's written
+     * out in one go.
+     */
+    private Block compress(final byte[] in,
+                           final int length) throws IOException {
+        final byte[] out = pool_.lease(HEADER_LENGTH + length);
+        try {
+            BlockCodec codec = codec_;
+            int size = -1;
+            if (!BlockCodec.RAW.equals(codec)) {
+                // Not worth the trouble on the other side unless it saves at least ~3%.
+                size = compress(in, length, out, length - (length >>> 5) - 1);
+            }
+            if (size < 0) {
+                codec = BlockCodec.RAW;
+                size = length;
+                System.arraycopy(in, 0, out, HEADER_LENGTH, size);
+            }
+            out[0] = (byte)codec.getId();
+            writeInt(out, 1, size);
+            writeInt(out, 5, length);
+            return new Block(out, HEADER_LENGTH + size);
+        } catch (Exception e) {
+            pool_.release(out);
+            throw e;
+        } finally {
+            pool_.release(in);
+        }
+    }
+
+    private int compress(final byte[] in,
+                         final int length,
+                         final byte[] out,
+                         final int maxLength) throws IOException {
+        BlockCodec.Encoder encoder = encoders_.poll();
+        if (encoder == null) {
+            encoder = codec_.newEncoder(level_);
+        }
+        try {
+            return encoder.compress(in, 0, length, out, HEADER_LENGTH, maxLength);
+        } finally {
+            encoders_.offer(encoder);
+        }
+    }
+
+    /**
+     * Waits for the oldest pending block, and writes it out.
+     */
+    private void writeNext() throws IOException {
+        final Block block = await(pending_.pollFirst());
+        try {
+            out.write(block.out_, 0, block.length_);
+        } finally {
+            pool_.release(block.out_);
+        }
+    }
+
+    private static Block await(final Future<Block> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing a block.");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new IOException("Failed to compress a block.", cause);
+        }
+    }
+
+    private static void writeInt(final byte[] b, final int off, final int value) {
+        b[off] = (byte)(value >>> 24);
+        b[off + 1] = (byte)(value >>> 16);
+        b[off + 2] = (byte)(value >>> 8);
+        b[off + 3] = (byte)value;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        inBuf_[length_++] = (byte) b;
+        if (length_ == size_) {
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] b,
+                      int offset,
+                      int len) throws IOException {
+        while ((length_ + len) > size_) {
+            int toCopy = size_ - length_;
+            System.arraycopy(b, offset, inBuf_, length_, toCopy);
+            length_ += toCopy;
+            submit();
+            offset += toCopy;
+            len -= toCopy;
+        }
+        System.arraycopy(b, offset, inBuf_, length_, len);
+        length_ += len;
+    }
+
+    /**
+     * Waits for, and writes, every block written so far.
+     */
+    @Override
+    public void flush() throws IOException {
+        submit();
+        while (!pending_.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed_) {
+            return;
+        }
+        closed_ = true;
+        try {
+            flush();
+        } finally {
+            // Let any blocks still in flight finish, so their buffers and encoders come back.
+            for (final Future<Block> future : pending_) {
+                try {
+                    pool_.release(await(future).out_);
+                } catch (IOException e) {
+                    // Already failing; the block is lost either way.
+                }
+            }
+            pending_.clear();
+            for (final BlockCodec.Encoder encoder : encoders_) {
+                encoder.close();
+            }
+            encoders_.clear();
+            pool_.release(inBuf_);
+            inBuf_ = null;
+            out.close();
+        }
+    }
+
+}
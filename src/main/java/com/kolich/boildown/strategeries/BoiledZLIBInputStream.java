@@ -26,6 +26,11 @@
 
 package com.kolich.boildown.strategeries;
 
+import com.kolich.boildown.dict.PresetDictionary;
+import com.kolich.boildown.pool.BufferPool;
+import com.kolich.boildown.pool.ZLIBPool;
+
+import javax.annotation.Nullable;
 import java.io.EOFException;
 import java.io.FilterInputStream;
 import java.io.IOException;
@@ -33,10 +38,37 @@ import java.io.InputStream;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
+/**
+ * Reads the frames written by {@link BoiledZLIBOutputStream}.  The stream is
+ * read ahead into a buffer, as much as is available at a time, and frame
+ * headers (and frames that fit) are parsed right out of it, so a read from
+ * the underlying stream normally yields several frames rather than a few
+ * bytes of one.
+ *
+ * A deflate stream compressed with a preset dictionary names it by ID, and
+ * is only inflated if it's the dictionary given here.
+ */
 public final class BoiledZLIBInputStream extends FilterInputStream {
 
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Size of the read ahead buffer; frames larger than this are read
+     * straight into a buffer of their own.
+     */
+    private static final int READ_AHEAD_SIZE = 64 * 1024;
+
     /**
-     * Buffer of compressed data read from the stream.
+     * Read ahead from the stream, and the offset and length of the
+     * buffered data not yet consumed.
+     */
+    private byte[] readBuf_ = null;
+    private int readOffs_ = 0;
+    private int readLength_ = 0;
+
+    /**
+     * Buffer of compressed data read from the stream, for frames that don't
+     * fit in the read ahead buffer.
      */
     private byte[] inBuf_ = null;
 
@@ -52,74 +84,183 @@ public final class BoiledZLIBInputStream extends FilterInputStream {
     private int outLength_ = 0;
 
     /**
-     * Inflater for decompressing.
+     * Inflater for decompressing, leased from and returned to the pool.
      */
     private Inflater inflater_ = null;
+    private final ZLIBPool zlibPool_;
+
+    /**
+     * If true, blocks are part of a single sync-flushed deflate stream, so the
+     * inflater carries its window over from one block to the next.
+     */
+    private final boolean streaming_;
+
+    /**
+     * Dictionary to inflate with, for deflate streams that ask for one, unless null.
+     */
+    @Nullable
+    private final PresetDictionary dictionary_;
+
+    /**
+     * Where the buffers are leased from, and returned to on close.
+     */
+    private final BufferPool pool_;
+
+    private boolean closed_ = false;
 
     public static final InputStream getInstance(final InputStream is) throws IOException {
-        return new BoiledZLIBInputStream(is);
+        return getInstance(is, BufferPool.UNPOOLED, ZLIBPool.UNPOOLED, null);
     }
 
-    private BoiledZLIBInputStream(InputStream is) throws IOException {
-        super(is);
-        inflater_ = new Inflater();
+    public static final InputStream getInstance(final InputStream is,
+                                                final BufferPool pool,
+                                                final ZLIBPool zlibPool,
+                                                @Nullable final PresetDictionary dictionary) throws IOException {
+        return new BoiledZLIBInputStream(is, false, pool, zlibPool, dictionary);
     }
 
-    private void readAndDecompress() throws IOException {
-        int inLength;
-
-        // Read the length of the compressed block
-        int ch1 = in.read();
-        int ch2 = in.read();
-        int ch3 = in.read();
-        int ch4 = in.read();
-        if ((ch1 | ch2 | ch3 | ch4) < 0) {
-            throw new EOFException();
-        }
-
-        inLength = ((ch1 << 24) + (ch2 << 16) + (ch3 << 8) + (ch4 << 0));
+    public static final InputStream getStreamingInstance(final InputStream is) throws IOException {
+        return getStreamingInstance(is, BufferPool.UNPOOLED, ZLIBPool.UNPOOLED, null);
+    }
 
-        ch1 = in.read();
-        ch2 = in.read();
-        ch3 = in.read();
-        ch4 = in.read();
-        if ((ch1 | ch2 | ch3 | ch4) < 0) {
-            throw new EOFException();
-        }
+    public static final InputStream getStreamingInstance(final InputStream is,
+                                                         final BufferPool pool,
+                                                         final ZLIBPool zlibPool,
+                                                         @Nullable final PresetDictionary dictionary) throws IOException {
+        return new BoiledZLIBInputStream(is, true, pool, zlibPool, dictionary);
+    }
 
-        outLength_ = ((ch1 << 24) + (ch2 << 16) + (ch3 << 8) + (ch4 << 0));
+    private BoiledZLIBInputStream(InputStream is,
+                                  boolean streaming,
+                                  BufferPool pool,
+                                  ZLIBPool zlibPool,
+                                  @Nullable PresetDictionary dictionary) throws IOException {
+        super(is);
+        zlibPool_ = zlibPool;
+        inflater_ = zlibPool_.leaseInflater();
+        streaming_ = streaming;
+        dictionary_ = dictionary;
+        pool_ = pool;
+        readBuf_ = pool_.lease(READ_AHEAD_SIZE);
+    }
 
-        // Make sure we've got enough space to read the block.
-        if ((inBuf_ == null) || (inLength > inBuf_.length)) {
-            inBuf_ = new byte[inLength];
+    private void readAndDecompress() throws IOException {
+        // Read the lengths of the compressed, and uncompressed, block.
+        fill(HEADER_SIZE);
+        final int inLength = readInt(readBuf_, readOffs_);
+        outLength_ = readInt(readBuf_, readOffs_ + 4);
+        readOffs_ += HEADER_SIZE;
+        readLength_ -= HEADER_SIZE;
+        if (inLength < 0 || outLength_ < 0) {
+            outLength_ = 0;
+            throw new IOException("Corrupt block header.");
         }
-        if ((outBuf_ == null) || (outLength_ > outBuf_.length)) {
-            outBuf_ = new byte[outLength_];
+
+        // One spare byte, so the inflater has room to consume the trailing
+        // (empty) block of a sync flush once the block's data is out.
+        if ((outBuf_ == null) || (outLength_ >= outBuf_.length)) {
+            pool_.release(outBuf_);
+            outBuf_ = pool_.lease(outLength_ + 1);
         }
 
-        // Read until we're got the entire compressed buffer.
-        int inOffs = 0;
-        while (inOffs < inLength) {
-            int n = in.read(inBuf_, inOffs, inLength - inOffs);
-            if (n == -1) {
-                throw new EOFException();
+        if (inLength <= readBuf_.length) {
+            // Inflate the block right out of the read ahead buffer.
+            fill(inLength);
+            inflater_.setInput(readBuf_, readOffs_, inLength);
+            readOffs_ += inLength;
+            readLength_ -= inLength;
+        } else {
+            // Make sure we've got enough space to read the block.
+            if ((inBuf_ == null) || (inLength > inBuf_.length)) {
+                pool_.release(inBuf_);
+                inBuf_ = pool_.lease(inLength);
+            }
+            // Whatever's buffered, and then read until we're got the entire compressed buffer.
+            int inOffs = readLength_;
+            System.arraycopy(readBuf_, readOffs_, inBuf_, 0, inOffs);
+            readOffs_ = readLength_ = 0;
+            while (inOffs < inLength) {
+                int n = in.read(inBuf_, inOffs, inLength - inOffs);
+                if (n == -1) {
+                    throw new EOFException();
+                }
+                inOffs += n;
             }
-            inOffs += n;
+            inflater_.setInput(inBuf_, 0, inLength);
         }
 
-        inflater_.setInput(inBuf_, 0, inLength);
+        int inflated;
         try {
-            inflater_.inflate(outBuf_);
+            inflated = inflater_.inflate(outBuf_, 0, outLength_ + 1);
+            // Stops right after the header of a stream compressed with a dictionary.
+            if (inflater_.needsDictionary()) {
+                setDictionary();
+                inflated += inflater_.inflate(outBuf_, inflated, outLength_ + 1 - inflated);
+            }
         } catch(DataFormatException dfe) {
             throw new IOException("Data format exception.", dfe);
         }
+        // Otherwise, whatever was left in the buffer from the last block would be read as this one.
+        if (inflated != outLength_) {
+            final int expected = outLength_;
+            outLength_ = 0;
+            throw new IOException("Block inflated to " + inflated + " bytes, but its header says " +
+                expected + ".");
+        }
 
-        // Reset the inflater so we can re-use it for the next block.
-        inflater_.reset();
+        if (streaming_) {
+            // Any input left behind would be lost when the next block is read.
+            if (inflater_.getRemaining() > 0) {
+                throw new IOException("Block was not fully inflated.");
+            }
+        } else {
+            // Reset the inflater so we can re-use it for the next block.
+            inflater_.reset();
+        }
 
         outOffs_ = 0;
     }
 
+    private void setDictionary() throws IOException {
+        final int id = inflater_.getAdler();
+        if (dictionary_ == null) {
+            throw new IOException(String.format("Block was compressed with dictionary %08x, but " +
+                "no dictionary was given.", id));
+        } else if (id != dictionary_.getZLIBId()) {
+            throw new IOException(String.format("Block was compressed with dictionary %08x, but " +
+                "dictionary %08x was given.", id, dictionary_.getZLIBId()));
+        }
+        inflater_.setDictionary(dictionary_.getZLIBBytes());
+    }
+
+    /**
+     * Reads ahead until at least {@code needed} bytes are buffered, taking
+     * as much as the stream has to give with every read.
+     */
+    private void fill(final int needed) throws IOException {
+        if (readLength_ >= needed) {
+            return;
+        }
+        // Move what's left to the front, to make room.
+        if (readOffs_ > 0) {
+            System.arraycopy(readBuf_, readOffs_, readBuf_, 0, readLength_);
+            readOffs_ = 0;
+        }
+        while (readLength_ < needed) {
+            final int n = in.read(readBuf_, readLength_, readBuf_.length - readLength_);
+            if (n == -1) {
+                throw new EOFException();
+            }
+            readLength_ += n;
+        }
+    }
+
+    private static int readInt(final byte[] b,
+                               final int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) |
+            ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
     @Override
     public int read() throws IOException {
         if (outOffs_ >= outLength_) {
@@ -144,7 +285,7 @@ public final class BoiledZLIBInputStream extends FilterInputStream {
                 try {
                     // If we've read at least one decompressed byte and further decompression
                     // would require blocking, return the count.
-                    if ((count > 0) && (in.available() == 0)) {
+                    if ((count > 0) && (readLength_ == 0) && (in.available() == 0)) {
                         return count;
                     } else {
                         readAndDecompress();
@@ -169,7 +310,25 @@ public final class BoiledZLIBInputStream extends FilterInputStream {
     public int available() throws IOException {
         // This isn't precise, but should be an adequate lower bound on the actual
         // amount of available data.
-        return (outLength_ - outOffs_) + in.available();
+        return (outLength_ - outOffs_) + readLength_ + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed_) {
+            return;
+        }
+        closed_ = true;
+        try {
+            in.close();
+        } finally {
+            pool_.release(readBuf_);
+            pool_.release(inBuf_);
+            pool_.release(outBuf_);
+            readBuf_ = inBuf_ = outBuf_ = null;
+            zlibPool_.release(inflater_);
+            inflater_ = null;
+        }
     }
 
 }
@@ -26,38 +26,123 @@
 
 package com.kolich.boildown.strategeries;
 
+import com.kolich.boildown.dict.PresetDictionary;
+import com.kolich.boildown.pool.BufferPool;
+import com.kolich.boildown.pool.ZLIBPool;
+
+import javax.annotation.Nullable;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.zip.Deflater;
 
+/**
+ * [compressed length: 4 bytes, big endian][uncompressed length: 4 bytes, big endian][data]
+ *
+ * Each frame's header is laid out in the same buffer as its data, and frames
+ * compressed between flushes queue up behind one another, so a flush
+ * normally costs the underlying stream a single write.
+ *
+ * With a preset dictionary, every deflate stream (every block, unless
+ * streaming) starts out with the dictionary as its history, and names it
+ * by ID in its header.
+ */
 public final class BoiledZLIBOutputStream extends FilterOutputStream {
-    
+
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Frames queue up until about this many bytes are waiting to be written,
+     * or until the stream is flushed.
+     */
+    private static final int COALESCE_SIZE = 64 * 1024;
+
     /**
      * Buffer for input data.
      */
     private byte[] inBuf_ = null;
 
     /**
-     * Buffer for compressed data to be written.
+     * Buffer of complete frames waiting to be written, followed by the frame
+     * being compressed.
      */
     private byte[] outBuf_ = null;
 
     /**
-     * Number of bytes in the buffer.
+     * Number of bytes of complete frames in the output buffer.
+     */
+    private int pending_ = 0;
+
+    /**
+     * Number of bytes in the buffer, and the most it takes before a block is
+     * compressed; leased buffers may be larger.
      */
     private int length_ = 0;
+    private final int size_;
+
+    /**
+     * Where the buffers are leased from, and returned to on close.
+     */
+    private final BufferPool pool_;
 
     /**
-     * Deflater for compressing data.
+     * Deflater for compressing data, leased from and returned to the pool.
      */
     private Deflater deflater_ = null;
+    private final ZLIBPool zlibPool_;
+
+    /**
+     * If true, a single deflate stream spans every block, and each block is
+     * sync-flushed instead of finished; so the sliding window (dictionary)
+     * carries over from one block to the next.
+     */
+    private final boolean streaming_;
+
+    /**
+     * Dictionary that every deflate stream starts out with, unless null.
+     */
+    @Nullable
+    private final PresetDictionary dictionary_;
 
     public static final OutputStream getInstance(final OutputStream os,
                                                  final int bufferSize) throws IOException {
         return new BoiledZLIBOutputStream(os, bufferSize);
     }
 
+    public static final OutputStream getInstance(final OutputStream os,
+                                                 final int bufferSize,
+                                                 final int level,
+                                                 final int strategy) throws IOException {
+        return new BoiledZLIBOutputStream(os, bufferSize, level, strategy);
+    }
+
+    public static final OutputStream getInstance(final OutputStream os,
+                                                 final int bufferSize,
+                                                 final int level,
+                                                 final int strategy,
+                                                 final BufferPool pool,
+                                                 final ZLIBPool zlibPool,
+                                                 @Nullable final PresetDictionary dictionary) throws IOException {
+        return new BoiledZLIBOutputStream(os, bufferSize, level, strategy, false, pool, zlibPool, dictionary);
+    }
+
+    public static final OutputStream getStreamingInstance(final OutputStream os,
+                                                          final int bufferSize,
+                                                          final int level,
+                                                          final int strategy) throws IOException {
+        return new BoiledZLIBOutputStream(os, bufferSize, level, strategy, true);
+    }
+
+    public static final OutputStream getStreamingInstance(final OutputStream os,
+                                                          final int bufferSize,
+                                                          final int level,
+                                                          final int strategy,
+                                                          final BufferPool pool,
+                                                          final ZLIBPool zlibPool,
+                                                          @Nullable final PresetDictionary dictionary) throws IOException {
+        return new BoiledZLIBOutputStream(os, bufferSize, level, strategy, true, pool, zlibPool, dictionary);
+    }
+
     public BoiledZLIBOutputStream(final OutputStream os,
                                   final int size) throws IOException {
         this(os, size, Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY);
@@ -67,44 +152,119 @@ public final class BoiledZLIBOutputStream extends FilterOutputStream {
                                   final int size,
                                   final int level,
                                   final int strategy) throws IOException {
+        this(os, size, level, strategy, false);
+    }
+
+    public BoiledZLIBOutputStream(final OutputStream os,
+                                  final int size,
+                                  final int level,
+                                  final int strategy,
+                                  final boolean streaming) throws IOException {
+        this(os, size, level, strategy, streaming, BufferPool.UNPOOLED, ZLIBPool.UNPOOLED, null);
+    }
+
+    public BoiledZLIBOutputStream(final OutputStream os,
+                                  final int size,
+                                  final int level,
+                                  final int strategy,
+                                  final boolean streaming,
+                                  final BufferPool pool,
+                                  final ZLIBPool zlibPool,
+                                  @Nullable final PresetDictionary dictionary) throws IOException {
         super(os);
-        inBuf_ = new byte[size];
-        outBuf_ = new byte[size + 64];
-        deflater_ = new Deflater(level);
-        deflater_.setStrategy(strategy);
+        streaming_ = streaming;
+        dictionary_ = dictionary;
+        pool_ = pool;
+        zlibPool_ = zlibPool;
+        size_ = size;
+        inBuf_ = pool_.lease(size);
+        outBuf_ = pool_.lease(Math.max(size + 64, COALESCE_SIZE) + HEADER_SIZE);
+        deflater_ = zlibPool_.leaseDeflater(level, strategy);
+        if (dictionary_ != null) {
+            deflater_.setDictionary(dictionary_.getZLIBBytes());
+        }
     }
 
-    protected void compressAndFlush() throws IOException {
+    /**
+     * Compresses the buffered input into a frame, queued behind any others
+     * waiting to be written.
+     */
+    private void compress() throws IOException {
         if (length_ > 0) {
+            // Write out what's queued if a frame this size might not fit behind it.
+            if (pending_ > 0 && outBuf_.length - pending_ - HEADER_SIZE < size_ + 64) {
+                writePending();
+            }
             deflater_.setInput(inBuf_, 0, length_);
-            deflater_.finish();
-            int size = deflater_.deflate(outBuf_);
-
-            // Write the size of the compressed data.
-            out.write((size >> 24) & 0xFF);
-            out.write((size >> 16) & 0xFF);
-            out.write((size >>  8) & 0xFF);
-            out.write((size >>  0) & 0xFF);
-
-            // Write the size of the uncompressed data.
-            out.write((length_ >> 24) & 0xFF);
-            out.write((length_ >> 16) & 0xFF);
-            out.write((length_ >>  8) & 0xFF);
-            out.write((length_ >>  0) & 0xFF);
+            if (!streaming_) {
+                deflater_.finish();
+            }
+            final int start = pending_ + HEADER_SIZE;
+            int size = 0;
+            while (true) {
+                size += (streaming_) ?
+                    deflater_.deflate(outBuf_, start + size, outBuf_.length - start - size, Deflater.SYNC_FLUSH) :
+                    deflater_.deflate(outBuf_, start + size, outBuf_.length - start - size);
+                // A sync flush is complete once it's taken every byte of input, and stops
+                // filling the buffer; a call that only applies a new level or strategy (to a
+                // pooled deflater) returns early, with neither.
+                if ((streaming_) ? (deflater_.needsInput() && start + size < outBuf_.length) :
+                        deflater_.finished()) {
+                    break;
+                } else if (start + size < outBuf_.length) {
+                    continue;
+                }
+                final byte[] grown = pool_.lease(outBuf_.length * 2);
+                System.arraycopy(outBuf_, 0, grown, 0, start + size);
+                pool_.release(outBuf_);
+                outBuf_ = grown;
+            }
 
-            out.write(outBuf_, 0, size);
-            out.flush();
+            // The sizes of the compressed, and uncompressed, data.
+            writeInt(outBuf_, pending_, size);
+            writeInt(outBuf_, pending_ + 4, length_);
+            pending_ = start + size;
 
             length_ = 0;
-            deflater_.reset();
+            if (!streaming_) {
+                deflater_.reset();
+                if (dictionary_ != null) {
+                    deflater_.setDictionary(dictionary_.getZLIBBytes());
+                }
+            }
+            if (pending_ >= COALESCE_SIZE) {
+                writePending();
+            }
         }
     }
 
+    /**
+     * Writes every queued frame, in one go.
+     */
+    private void writePending() throws IOException {
+        if (pending_ > 0) {
+            out.write(outBuf_, 0, pending_);
+            pending_ = 0;
+        }
+    }
+
+    protected void compressAndFlush() throws IOException {
+        compress();
+        writePending();
+    }
+
+    private static void writeInt(final byte[] b, final int off, final int value) {
+        b[off] = (byte)(value >>> 24);
+        b[off + 1] = (byte)(value >>> 16);
+        b[off + 2] = (byte)(value >>> 8);
+        b[off + 3] = (byte)value;
+    }
+
     @Override
     public void write(int b) throws IOException {
         inBuf_[length_++] = (byte) b;
-        if (length_ == inBuf_.length) {
-            compressAndFlush();
+        if (length_ == size_) {
+            compress();
         }
     }
 
@@ -112,11 +272,11 @@ public final class BoiledZLIBOutputStream extends FilterOutputStream {
     public void write(byte[] b,
                       int offset,
                       int len) throws IOException {
-        while ((length_ + len) > inBuf_.length) {
-            int toCopy = inBuf_.length - length_;
+        while ((length_ + len) > size_) {
+            int toCopy = size_ - length_;
             System.arraycopy(b, offset, inBuf_, length_, toCopy);
             length_ += toCopy;
-            compressAndFlush();
+            compress();
             offset += toCopy;
             len -= toCopy;
         }
@@ -132,8 +292,19 @@ public final class BoiledZLIBOutputStream extends FilterOutputStream {
 
     @Override
     public void close() throws IOException {
-        compressAndFlush();
-        out.close();
+        if (inBuf_ == null) {
+            return; // Already closed.
+        }
+        try {
+            compressAndFlush();
+        } finally {
+            pool_.release(inBuf_);
+            pool_.release(outBuf_);
+            inBuf_ = outBuf_ = null;
+            zlibPool_.release(deflater_);
+            deflater_ = null;
+            out.close();
+        }
     }
 
 }
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.strategeries;
+
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdInputStream;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+
+public final class BoiledZstdInputStream {
+
+    /**
+     * Largest window Zstd will decompress without being told otherwise.
+     */
+    public static final int DEFAULT_MAX_WINDOW = 27;
+
+    public static final InputStream getInstance(final InputStream is) throws IOException {
+        return getInstance(is, 0);
+    }
+
+    /**
+     * @param longWindow log2 of the long distance matching window the other side
+     * compresses with, or 0 if disabled
+     */
+    public static final InputStream getInstance(final InputStream is,
+                                                final int longWindow) throws IOException {
+        return getInstance(is, longWindow, false);
+    }
+
+    /**
+     * @param continuous if true, the underlying stream running dry mid-frame
+     * ends the current read instead of failing with a "truncated source" error,
+     * as for a stream fed from a non-blocking channel
+     */
+    public static final InputStream getInstance(final InputStream is,
+                                                final int longWindow,
+                                                final boolean continuous) throws IOException {
+        return getInstance(is, longWindow, continuous, null);
+    }
+
+    /**
+     * @param dictionary the preset dictionary the other side compresses with,
+     * digested, or null for none
+     */
+    public static final InputStream getInstance(final InputStream is,
+                                                final int longWindow,
+                                                final boolean continuous,
+                                                @Nullable final ZstdDictDecompress dictionary) throws IOException {
+        final ZstdInputStream zstd = new ZstdInputStream(is);
+        zstd.setContinuous(continuous);
+        if (longWindow > DEFAULT_MAX_WINDOW) {
+            zstd.setLongMax(longWindow);
+        }
+        if (dictionary != null) {
+            zstd.setDict(dictionary);
+        }
+        return zstd;
+    }
+
+}
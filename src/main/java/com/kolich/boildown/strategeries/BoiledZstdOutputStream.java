@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2016 Mark S. Kolich
+ * http://mark.koli.ch
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.kolich.boildown.strategeries;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public final class BoiledZstdOutputStream {
+
+    /**
+     * Zstd's own default level.
+     */
+    public static final int DEFAULT_LEVEL = 3;
+
+    public static final OutputStream getInstance(final OutputStream os) throws IOException {
+        return getInstance(os, DEFAULT_LEVEL, 0);
+    }
+
+    /**
+     * @param longWindow log2 of the long distance matching window, e.g., 27 for
+     * a 128MB window, or 0 to disable long distance matching
+     */
+    public static final OutputStream getInstance(final OutputStream os,
+                                                 final int level,
+                                                 final int longWindow) throws IOException {
+        return getInstance(os, level, longWindow, null);
+    }
+
+    /**
+     * @param dictionary a preset dictionary, digested for the given level, or
+     * null for none
+     */
+    public static final OutputStream getInstance(final OutputStream os,
+                                                 final int level,
+                                                 final int longWindow,
+                                                 @Nullable final ZstdDictCompress dictionary) throws IOException {
+        final ZstdOutputStream zstd = new ZstdOutputStream(os, level);
+        if (longWindow > 0) {
+            zstd.setLong(longWindow);
+        }
+        if (dictionary != null) {
+            zstd.setDict(dictionary);
+        }
+        // Every flush ends the current block, so it's decodable on the other side right away.
+        return zstd;
+    }
+
+}